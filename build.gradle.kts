@@ -44,6 +44,39 @@ dependencies {
     testRuntime("org.slf4j:slf4j-simple:$slf4jApiVersion")
 }
 
+// Multi-release JAR overlays. Every overlay is always compiled, so that the JAR does not depend on
+// the JDK running Gradle. Overlays newer than that JDK are compiled with the one pointed to by
+// jdk<version>.home property or JDK<version>_HOME environment variable
+val multiReleaseVersions = listOf(11, 21)
+val multiReleaseSourceSets = multiReleaseVersions.associateWith { version ->
+    sourceSets.create("java$version") {
+        java.srcDir("src/main/java$version")
+        compileClasspath += sourceSets["main"].output + sourceSets["main"].compileClasspath
+    }
+}
+
+multiReleaseSourceSets.forEach { (version, sourceSet) ->
+    tasks.named<JavaCompile>(sourceSet.compileJavaTaskName) {
+        sourceCompatibility = "$version"
+        targetCompatibility = "$version"
+        options.compilerArgs.addAll(listOf("--release", "$version"))
+        if (!JavaVersion.current().isCompatibleWith(JavaVersion.toVersion(version))) {
+            val javaHome = (findProperty("jdk$version.home") ?: System.getenv("JDK${version}_HOME"))?.toString()
+                    ?: throw GradleException("JDK $version is needed to compile src/main/java$version, " +
+                            "set jdk$version.home property or JDK${version}_HOME environment variable")
+            options.isFork = true
+            options.forkOptions.javaHome = file(javaHome)
+        }
+    }
+}
+
+tasks.named<Jar>("jar") {
+    manifest.attributes("Multi-Release" to "true")
+    multiReleaseSourceSets.forEach { (version, sourceSet) ->
+        into("META-INF/versions/$version") { from(sourceSet.output) }
+    }
+}
+
 license {
     header = rootProject.file("etc/HEADER")
     filter.include("**/*.java")
@@ -52,6 +85,9 @@ license {
 val sourcesJar by tasks.creating(Jar::class) {
     archiveClassifier.set("sources")
     from(sourceSets["main"].allJava)
+    multiReleaseSourceSets.forEach { (version, sourceSet) ->
+        into("META-INF/versions/$version") { from(sourceSet.allJava) }
+    }
 }
 
 val javadoc by tasks.getting(Javadoc::class)
@@ -66,6 +102,11 @@ val javadocJar by tasks.creating(Jar::class) {
 val shadowJar by tasks.getting(ShadowJar::class) {
     archiveClassifier.set("shaded")
 
+    manifest.attributes("Multi-Release" to "true")
+    multiReleaseSourceSets.forEach { (version, sourceSet) ->
+        into("META-INF/versions/$version") { from(sourceSet.output) }
+    }
+
     val targetPackage = "eu.mikroskeem.picomaven.shaded"
     val relocations = listOf(
             "org.apache.maven",
@@ -85,6 +126,11 @@ val shadowJar by tasks.getting(ShadowJar::class) {
 
 val test by tasks.getting(Test::class) {
     useJUnitPlatform()
+
+    // Test against multi-release JAR, so that overlays for the running JDK are used
+    val jar = tasks.getByName<Jar>("jar")
+    dependsOn(jar)
+    classpath = files(jar.archiveFile) + classpath - sourceSets["main"].output
     systemProperty("org.slf4j.simpleLogger.defaultLogLevel", "trace")
 
     // Show output
@@ -97,6 +143,12 @@ val test by tasks.getting(Test::class) {
     beforeTest(closureOf<Any> { logger.lifecycle("Running test: $this") })
 }
 
+// Benchmarks are not a part of the test suite, as timings depend on the machine
+val benchmark by tasks.creating(JavaExec::class) {
+    classpath = sourceSets["test"].runtimeClasspath
+    main = "eu.mikroskeem.picomaven.ModelExtractorBenchmark"
+}
+
 blossom {
     replaceToken("__PICOMAVEN_VERSION__", "${rootProject.version}")
 }
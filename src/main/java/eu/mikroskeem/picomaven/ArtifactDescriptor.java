@@ -0,0 +1,186 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.internal.DataProcessor;
+import eu.mikroskeem.picomaven.internal.FileUtils;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Repository;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary replacement for sanitized POMs of downloaded artifacts. Holds only what is needed to
+ * download transitive dependencies again, so reading it does not involve any XML parsing.
+ *
+ * <p>Descriptor is stored in a binary file:</p>
+ * <pre>
+ * int magic, int version, string group id, string artifact id, string version, int dependency count,
+ * dependency: string group id, string artifact id, string version, string classifier, string scope, boolean optional,
+ * int repository count, repository: string id, string URL,
+ * int CRC32 of everything before it
+ * </pre>
+ * Strings are prefixed with a boolean telling whether they are present, followed by UTF string if so.
+ * Only dependencies in relevant scopes are stored.
+ *
+ * @author Mark Vainomaa
+ */
+final class ArtifactDescriptor {
+    static final String EXTENSION = "pmd";
+    private static final int MAGIC = 0x50444553; // PDES
+    private static final int VERSION = 1;
+
+    private ArtifactDescriptor() {}
+
+    /**
+     * Writes descriptor of given effective model
+     *
+     * @param file Descriptor file
+     * @param model Effective model
+     * @throws IOException If writing fails
+     */
+    static void write(@NonNull Path file, @NonNull Model model) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, model.getGroupId());
+            writeString(out, model.getArtifactId());
+            writeString(out, model.getVersion());
+
+            List<Dependency> dependencies = new ArrayList<>(model.getDependencies().size());
+            for (Dependency dependency : model.getDependencies()) {
+                if (DataProcessor.RELEVANT_SCOPE_PREDICATE.test(dependency)) {
+                    dependencies.add(dependency);
+                }
+            }
+            out.writeInt(dependencies.size());
+            for (Dependency dependency : dependencies) {
+                writeString(out, dependency.getGroupId());
+                writeString(out, dependency.getArtifactId());
+                writeString(out, dependency.getVersion());
+                writeString(out, dependency.getClassifier());
+                writeString(out, dependency.getScope());
+                out.writeBoolean("true".equalsIgnoreCase(dependency.getOptional()));
+            }
+
+            out.writeInt(model.getRepositories().size());
+            for (Repository repository : model.getRepositories()) {
+                writeString(out, repository.getId());
+                writeString(out, repository.getUrl());
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+        }
+        FileUtils.writeAtomicReplace(file, bytes.toByteArray());
+    }
+
+    /**
+     * Reads descriptor into a model, which contains coordinates, dependencies and repositories
+     *
+     * @param file Descriptor file
+     * @return Model, or {@code null} if descriptor does not exist
+     * @throws IOException If reading fails, or descriptor is corrupted or of unknown format
+     */
+    @Nullable
+    static Model read(@NonNull Path file) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < 12 || in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Descriptor " + file + " is of unknown format");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        int stored = (bytes[bytes.length - 4] & 0xFF) << 24 | (bytes[bytes.length - 3] & 0xFF) << 16
+                | (bytes[bytes.length - 2] & 0xFF) << 8 | (bytes[bytes.length - 1] & 0xFF);
+        if ((int) crc.getValue() != stored) {
+            throw new IOException("Descriptor " + file + " is corrupted");
+        }
+
+        Model model = new Model();
+        model.setGroupId(readString(in));
+        model.setArtifactId(readString(in));
+        model.setVersion(readString(in));
+
+        int dependencyCount = in.readInt();
+        List<Dependency> dependencies = new ArrayList<>(dependencyCount);
+        for (int i = 0; i < dependencyCount; i++) {
+            Dependency dependency = new Dependency();
+            dependency.setGroupId(readString(in));
+            dependency.setArtifactId(readString(in));
+            dependency.setVersion(readString(in));
+            dependency.setClassifier(readString(in));
+            dependency.setScope(readString(in));
+            dependency.setOptional(in.readBoolean());
+            dependencies.add(dependency);
+        }
+        model.setDependencies(dependencies);
+
+        int repositoryCount = in.readInt();
+        List<Repository> repositories = new ArrayList<>(repositoryCount);
+        for (int i = 0; i < repositoryCount; i++) {
+            Repository repository = new Repository();
+            repository.setId(readString(in));
+            repository.setUrl(readString(in));
+            repositories.add(repository);
+        }
+        model.setRepositories(repositories);
+        return model;
+    }
+
+    private static void writeString(@NonNull DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    @Nullable
+    private static String readString(@NonNull DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
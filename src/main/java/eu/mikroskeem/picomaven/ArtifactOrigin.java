@@ -0,0 +1,136 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.internal.FileUtils;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Remembers where a downloaded artifact came from, and when it was resolved from there. Stored next to
+ * the artifact, in {@code <artifact>.origin} file: repository URL, artifact URL, POM URL (empty if unknown)
+ * and resolution time in milliseconds since epoch, one per line
+ *
+ * @author Mark Vainomaa
+ */
+final class ArtifactOrigin {
+    private final URL repository;
+    private final URL artifactUrl;
+    private final URL pomUrl;
+    private final long resolved;
+
+    ArtifactOrigin(@NonNull URL repository, @NonNull URL artifactUrl, @Nullable URL pomUrl, long resolved) {
+        this.repository = repository;
+        this.artifactUrl = artifactUrl;
+        this.pomUrl = pomUrl;
+        this.resolved = resolved;
+    }
+
+    @NonNull
+    URL getRepository() {
+        return repository;
+    }
+
+    @NonNull
+    URL getArtifactUrl() {
+        return artifactUrl;
+    }
+
+    @Nullable
+    URL getPomUrl() {
+        return pomUrl;
+    }
+
+    /**
+     * Gets when artifact was resolved from its origin
+     *
+     * @return Resolution time in milliseconds since epoch, or {@code 0} if unknown
+     */
+    long getResolved() {
+        return resolved;
+    }
+
+    /**
+     * Writes origin of given artifact
+     *
+     * @param artifact Artifact path
+     * @throws IOException If writing fails
+     */
+    void write(@NonNull Path artifact) throws IOException {
+        Path file = path(artifact);
+        Path temporary = FileUtils.getTemporaryFileName(file);
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write(repository.toString());
+            writer.newLine();
+            writer.write(artifactUrl.toString());
+            writer.newLine();
+            writer.write(pomUrl != null ? pomUrl.toString() : "");
+            writer.newLine();
+            writer.write(Long.toString(resolved));
+            writer.newLine();
+        }
+        FileUtils.moveAtomicReplace(temporary, file);
+    }
+
+    /**
+     * Reads origin of given artifact
+     *
+     * @param artifact Artifact path
+     * @return Artifact origin, or {@code null} if unknown
+     */
+    @Nullable
+    static ArtifactOrigin read(@NonNull Path artifact) {
+        try (BufferedReader reader = Files.newBufferedReader(path(artifact), StandardCharsets.UTF_8)) {
+            String repository = reader.readLine();
+            String artifactUrl = reader.readLine();
+            if (repository == null || artifactUrl == null) {
+                return null;
+            }
+            // Older origin files only have the URLs
+            String pomUrl = reader.readLine();
+            String resolved = reader.readLine();
+            return new ArtifactOrigin(new URL(repository), new URL(artifactUrl),
+                    pomUrl == null || pomUrl.isEmpty() ? null : new URL(pomUrl),
+                    resolved == null ? 0 : Long.parseLong(resolved));
+        } catch (IOException | NumberFormatException e) {
+            // Unknown or unreadable
+            return null;
+        }
+    }
+
+    @NonNull
+    private static Path path(@NonNull Path artifact) {
+        return artifact.resolveSibling(artifact.getFileName() + ".origin");
+    }
+}
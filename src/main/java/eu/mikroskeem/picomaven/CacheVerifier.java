@@ -0,0 +1,229 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.ArtifactChecksum;
+import eu.mikroskeem.picomaven.artifact.ArtifactChecksum.ChecksumAlgo;
+import eu.mikroskeem.picomaven.internal.DataProcessor;
+import eu.mikroskeem.picomaven.internal.FileUtils;
+import eu.mikroskeem.picomaven.internal.MultiDigest;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Verifies already downloaded artifacts against their checksums before they're used. Artifacts are hashed
+ * through memory mapping, and size and modification time of every verified artifact is remembered, so
+ * unchanged artifacts are not hashed again on later runs.
+ *
+ * <p>Stamps are stored in a binary file:</p>
+ * <pre>
+ * int magic, int version, int entry count
+ * entry: UTF path relative to download path, long size, long mtime
+ * </pre>
+ *
+ * @author Mark Vainomaa
+ */
+final class CacheVerifier {
+    private static final Logger logger = LoggerFactory.getLogger(CacheVerifier.class);
+    private static final int MAGIC = 0x50435653; // PCVS
+    private static final int VERSION = 1;
+
+    private final Path downloadPath;
+    private final Path file;
+    private final ConcurrentMap<String, Stamp> verified = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+
+    private CacheVerifier(@NonNull Path downloadPath, @NonNull Path file) {
+        this.downloadPath = downloadPath;
+        this.file = file;
+    }
+
+    /**
+     * Returns whether given artifact was verified before and has not changed since
+     *
+     * @param artifact Artifact path
+     * @return Whether artifact is known to be intact
+     */
+    boolean isVerified(@NonNull Path artifact) {
+        Stamp stamp = verified.get(key(artifact));
+        try {
+            return stamp != null && stamp.matches(artifact);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Verifies given artifact against given checksums, or checksum files stored next to it when there are
+     * none. Artifact without any checksums to verify against is trusted as-is.
+     *
+     * @param artifact Artifact path
+     * @param checksums Checksums defined for the artifact, may be empty
+     * @return Whether artifact is intact
+     * @throws IOException If reading artifact or its checksums fails
+     */
+    boolean verify(@NonNull Path artifact, @NonNull List<ArtifactChecksum> checksums) throws IOException {
+        String key = key(artifact);
+        Stamp stamp = Stamp.of(artifact);
+        if (stamp.equals(verified.get(key))) {
+            return true;
+        }
+
+        if (checksums.isEmpty()) {
+            checksums = readChecksums(artifact);
+        }
+
+        // Stamp was taken before hashing, so modifications made meanwhile are caught next time
+        if (checksums.isEmpty()) {
+            logger.trace("{} has no checksums to verify against", artifact);
+        } else if (!matches(artifact, checksums)) {
+            verified.remove(key);
+            dirty = true;
+            return false;
+        }
+
+        verified.put(key, stamp);
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Hashes given artifact and compares it against given checksums
+     *
+     * @param artifact Artifact path
+     * @param checksums Checksums to verify against, must not be empty
+     * @return Whether artifact matches all of given checksums
+     * @throws IOException If reading artifact fails
+     */
+    static boolean matches(@NonNull Path artifact, @NonNull List<ArtifactChecksum> checksums) throws IOException {
+        Map<ChecksumAlgo, byte[]> computed;
+        try (MultiDigest digest = MultiDigest.forChecksums(checksums)) {
+            FileUtils.digestMapped(artifact, digest);
+            computed = digest.finish();
+        }
+        return MultiDigest.verify(checksums, computed);
+    }
+
+    /**
+     * Records given artifact as verified, e.g right after it was downloaded and verified
+     *
+     * @param artifact Artifact path
+     * @throws IOException If reading artifact attributes fails
+     */
+    void record(@NonNull Path artifact) throws IOException {
+        verified.put(key(artifact), Stamp.of(artifact));
+        dirty = true;
+    }
+
+    /**
+     * Writes verified artifact stamps to disk, if anything has changed
+     *
+     * @throws IOException If writing fails
+     */
+    void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+
+        Map<String, Stamp> snapshot = new HashMap<>(verified);
+        Path temporary = FileUtils.getTemporaryFileName(file);
+        Files.createDirectories(file.getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Stamp> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        }
+        FileUtils.moveAtomicReplace(temporary, file);
+    }
+
+    /**
+     * Loads verified artifact stamps from disk. Unreadable or missing file results in nothing being
+     * known as verified
+     *
+     * @param downloadPath Download path
+     * @param file Stamp file
+     * @return Cache verifier
+     */
+    @NonNull
+    static CacheVerifier load(@NonNull Path downloadPath, @NonNull Path file) {
+        CacheVerifier verifier = new CacheVerifier(downloadPath, file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.debug("Ignoring verified artifacts file {} of unknown format", file);
+                return verifier;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                verifier.verified.put(key, Stamp.read(in));
+            }
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            logger.warn("Failed to read verified artifacts file {}", file, e);
+            verifier.verified.clear();
+        }
+        return verifier;
+    }
+
+    @NonNull
+    private static List<ArtifactChecksum> readChecksums(@NonNull Path artifact) throws IOException {
+        List<ArtifactChecksum> checksums = new ArrayList<>(1);
+        for (ChecksumAlgo algo : ChecksumAlgo.values()) {
+            ArtifactChecksum checksum;
+            if ((checksum = DataProcessor.readChecksum(artifact.resolveSibling(artifact.getFileName() + "." + algo.getExt()), algo)) != null) {
+                checksums.add(checksum);
+            }
+        }
+        return checksums;
+    }
+
+    @NonNull
+    private String key(@NonNull Path artifact) {
+        return downloadPath.relativize(artifact).toString();
+    }
+}
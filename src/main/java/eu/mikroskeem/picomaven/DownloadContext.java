@@ -0,0 +1,283 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.Dependency;
+import eu.mikroskeem.picomaven.artifact.TransitiveDependencyProcessor;
+import eu.mikroskeem.picomaven.internal.UrlUtils;
+import eu.mikroskeem.picomaven.transport.Transport;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * State and settings shared by all {@link DownloaderTask}s of a single {@link PicoMaven} run
+ *
+ * @author Mark Vainomaa
+ */
+final class DownloadContext {
+    // Directory under download path where PicoMaven keeps its own state
+    private static final String STATE_DIRECTORY = ".picomaven";
+
+    private final ExecutorService executorService;
+    private final Path downloadPath;
+    private final List<TransitiveDependencyProcessor> transitiveDependencyProcessors;
+    private final InFlightDownloads inFlightDownloads;
+    private final Transport transport;
+    private final int repositoryLookupParallelism;
+    private final NegativeLookupCache negativeLookupCache;
+    private final GraphIndex graphIndex;
+    private final RequestScheduler requestScheduler;
+    private final RemoteChecksums remoteChecksums;
+    private final CacheVerifier cacheVerifier;
+    private final long segmentedDownloadThreshold;
+    private final int downloadSegments;
+    private final MetadataCache metadataCache;
+    private final Map<String, UpdatePolicy> snapshotUpdatePolicies;
+    private final UpdatePolicy defaultSnapshotUpdatePolicy;
+    private final ModelResolver modelResolver;
+    private final VersionSelection versionSelection;
+    private final String descriptorExtension;
+    private final RepositoryRoutes repositoryRoutes;
+
+    DownloadContext(PicoMaven.@NonNull Builder settings, @NonNull ExecutorService executorService, @NonNull Transport transport) {
+        this.executorService = executorService;
+        this.downloadPath = settings.downloadPath;
+        this.transitiveDependencyProcessors = settings.dependencyProcessors;
+        this.inFlightDownloads = new InFlightDownloads();
+        this.transport = transport;
+        this.repositoryLookupParallelism = settings.repositoryLookupParallelism;
+        this.negativeLookupCache = settings.negativeLookupCacheTtl > 0
+                ? NegativeLookupCache.load(getStatePath("negative-lookups"), settings.negativeLookupCacheTtl)
+                : null;
+        this.descriptorExtension = settings.binaryDescriptors ? ArtifactDescriptor.EXTENSION : "pom";
+        this.graphIndex = settings.graphIndex ? GraphIndex.load(getStatePath("graph-index"), descriptorExtension) : null;
+        this.requestScheduler = new RequestScheduler(executorService, settings.maxRequestsPerHost);
+        this.remoteChecksums = new RemoteChecksums(transport);
+        this.cacheVerifier = settings.verifyCache ? CacheVerifier.load(downloadPath, getStatePath("verified-artifacts")) : null;
+        this.segmentedDownloadThreshold = settings.segmentedDownloadThreshold;
+        this.downloadSegments = settings.downloadSegments;
+        this.metadataCache = settings.metadataCache ? new MetadataCache(getStatePath("metadata")) : null;
+        // Builder may be reused, so mutable settings are copied
+        this.snapshotUpdatePolicies = new HashMap<>(settings.snapshotUpdatePolicies);
+        this.defaultSnapshotUpdatePolicy = settings.defaultSnapshotUpdatePolicy;
+        this.repositoryRoutes = RepositoryRoutes.of(new ArrayList<>(settings.routingRules));
+        this.modelResolver = new ModelResolver(transport, requestScheduler, repositoryRoutes, getStatePath("models"), metadataCache,
+                this::getSnapshotUpdatePolicy);
+        this.versionSelection = new VersionSelection(settings.versionMediator);
+    }
+
+    /**
+     * Gets path to a PicoMaven state file under download path
+     *
+     * @param name State file name
+     * @return Path to state file
+     */
+    @NonNull
+    Path getStatePath(@NonNull String name) {
+        return downloadPath.resolve(STATE_DIRECTORY).resolve(name);
+    }
+
+    /**
+     * Gets path where downloaded artifact's dependency metadata is stored, either as a sanitized POM
+     * or as an {@link ArtifactDescriptor}
+     *
+     * @param dependency Dependency
+     * @return Path to stored dependency metadata
+     */
+    @NonNull
+    Path getDescriptorPath(@NonNull Dependency dependency) {
+        return UrlUtils.formatLocalPath(downloadPath, dependency, descriptorExtension);
+    }
+
+    /**
+     * Gets whether dependency metadata is stored as {@link ArtifactDescriptor}s instead of sanitized POMs
+     *
+     * @return Whether binary descriptors are used
+     */
+    boolean isBinaryDescriptors() {
+        return ArtifactDescriptor.EXTENSION.equals(descriptorExtension);
+    }
+
+    /**
+     * Gets group id based routes of artifacts to repositories
+     *
+     * @return Repository routes
+     */
+    @NonNull
+    RepositoryRoutes getRepositoryRoutes() {
+        return repositoryRoutes;
+    }
+
+    @NonNull
+    ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    @NonNull
+    Path getDownloadPath() {
+        return downloadPath;
+    }
+
+    @NonNull
+    List<TransitiveDependencyProcessor> getTransitiveDependencyProcessors() {
+        return transitiveDependencyProcessors;
+    }
+
+    @NonNull
+    InFlightDownloads getInFlightDownloads() {
+        return inFlightDownloads;
+    }
+
+    @NonNull
+    Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Gets how many repositories are probed for an artifact at the same time
+     *
+     * @return Amount of repositories to probe at once. {@code 1} means that repositories are tried one by one
+     */
+    int getRepositoryLookupParallelism() {
+        return repositoryLookupParallelism;
+    }
+
+    /**
+     * Gets negative lookup cache
+     *
+     * @return Negative lookup cache, or {@code null} if not enabled
+     */
+    @Nullable
+    NegativeLookupCache getNegativeLookupCache() {
+        return negativeLookupCache;
+    }
+
+    /**
+     * Gets index of already resolved dependency graphs
+     *
+     * @return Graph index, or {@code null} if not enabled
+     */
+    @Nullable
+    GraphIndex getGraphIndex() {
+        return graphIndex;
+    }
+
+    /**
+     * Gets scheduler limiting requests made to each repository host
+     *
+     * @return Request scheduler
+     */
+    @NonNull
+    RequestScheduler getRequestScheduler() {
+        return requestScheduler;
+    }
+
+    @NonNull
+    RemoteChecksums getRemoteChecksums() {
+        return remoteChecksums;
+    }
+
+    /**
+     * Gets minimum artifact size to download in segments
+     *
+     * @return Size in bytes, {@code 0} means that segmented downloads are disabled
+     */
+    long getSegmentedDownloadThreshold() {
+        return segmentedDownloadThreshold;
+    }
+
+    /**
+     * Gets amount of segments large artifacts are split into
+     *
+     * @return Amount of segments
+     */
+    int getDownloadSegments() {
+        return downloadSegments;
+    }
+
+    /**
+     * Gets cache of repository metadata files
+     *
+     * @return Metadata cache, or {@code null} if not enabled
+     */
+    @Nullable
+    MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * Gets how often snapshots resolved from given repository are checked for updates
+     *
+     * @param repository Repository URL, or {@code null} if not known
+     * @return Update policy
+     */
+    @NonNull
+    UpdatePolicy getSnapshotUpdatePolicy(@Nullable URL repository) {
+        UpdatePolicy policy;
+        if (repository != null && (policy = snapshotUpdatePolicies.get(UrlUtils.repositoryKey(repository))) != null) {
+            return policy;
+        }
+        return defaultSnapshotUpdatePolicy;
+    }
+
+    /**
+     * Gets builder of effective models, shared so that parents and BOMs are fetched only once
+     *
+     * @return Model resolver
+     */
+    @NonNull
+    ModelResolver getModelResolver() {
+        return modelResolver;
+    }
+
+    /**
+     * Gets versions selected so far for artifacts in the dependency graph
+     *
+     * @return Version selection
+     */
+    @NonNull
+    VersionSelection getVersionSelection() {
+        return versionSelection;
+    }
+
+    /**
+     * Gets verifier of already downloaded artifacts
+     *
+     * @return Cache verifier, or {@code null} if not enabled
+     */
+    @Nullable
+    CacheVerifier getCacheVerifier() {
+        return cacheVerifier;
+    }
+}
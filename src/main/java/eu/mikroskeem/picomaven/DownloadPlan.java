@@ -0,0 +1,327 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.Dependency;
+import eu.mikroskeem.picomaven.artifact.VersionMediator;
+import eu.mikroskeem.picomaven.internal.TaskUtils;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Plan of downloading artifacts of already resolved dependency graphs. Plan is put together by fetching only
+ * POMs and sizes of artifacts, and no artifact is downloaded before plan is executed. Artifacts are downloaded
+ * largest first, so that large artifacts found deep in the graph won't be the ones holding up the whole download.
+ * As whole graph is known beforehand, versions which lose version mediation are not downloaded at all.
+ *
+ * @author Mark Vainomaa
+ * @see PicoMaven#plan()
+ */
+public final class DownloadPlan {
+    private static final Logger logger = LoggerFactory.getLogger(DownloadPlan.class);
+
+    // Unknown sizes come first, as they might be the largest ones
+    private static final Comparator<Artifact> LARGEST_FIRST =
+            Comparator.comparingLong((Artifact artifact) -> artifact.size < 0 ? Long.MAX_VALUE : artifact.size).reversed();
+
+    private final Map<Dependency, DownloadResult> resolved;
+    private final List<Artifact> artifacts;
+    private final ResolvedGraph graph;
+
+    private DownloadPlan(@NonNull Map<Dependency, DownloadResult> resolved, @NonNull List<Artifact> artifacts,
+                         @NonNull ResolvedGraph graph) {
+        this.resolved = resolved;
+        this.artifacts = artifacts;
+        this.graph = graph;
+    }
+
+    /**
+     * Gets artifacts to download, in the order they are going to be downloaded in. Already downloaded artifacts
+     * are not included
+     *
+     * @return Artifacts to download, largest first
+     */
+    @NonNull
+    public List<@NonNull Artifact> getArtifacts() {
+        return artifacts;
+    }
+
+    /**
+     * Gets total size of artifacts to download
+     *
+     * @return Total size in bytes, not including artifacts of unknown size
+     */
+    public long getTotalSize() {
+        long total = 0;
+        for (Artifact artifact : artifacts) {
+            total += Math.max(artifact.size, 0);
+        }
+        return total;
+    }
+
+    /**
+     * Gets resolved dependency graph. Artifact paths of planned artifacts do not exist until plan is executed
+     *
+     * @return Resolved dependency graph, with declared dependencies as roots
+     */
+    @NonNull
+    public ResolvedGraph getResolvedGraph() {
+        return graph;
+    }
+
+    /**
+     * Downloads planned artifacts, largest first on each repository host, and puts together download results
+     *
+     * @param context Download context
+     * @param repositoryUrls Repository URLs
+     * @return Download futures of declared dependencies
+     */
+    @NonNull
+    Map<Dependency, CompletableFuture<DownloadResult>> execute(@NonNull DownloadContext context, @NonNull List<URL> repositoryUrls) {
+        // Every host gets as many workers as there are connections to it, each picking the largest artifact left
+        Map<String, Deque<Artifact>> hosts = new LinkedHashMap<>();
+        Map<String, CompletableFuture<DownloadResult>> downloads = new HashMap<>(artifacts.size());
+        for (Artifact artifact : artifacts) {
+            URL url = artifact.artifactUrl;
+            hosts.computeIfAbsent(url.getHost() + ':' + url.getPort(), k -> new ArrayDeque<>()).add(artifact);
+            downloads.put(InFlightDownloads.key(artifact.dependency), new CompletableFuture<>());
+        }
+        for (Deque<Artifact> queue : hosts.values()) {
+            int workers = Math.min(queue.size(), context.getRequestScheduler().getMaxRequestsPerHost());
+            for (int i = 0; i < workers; i++) {
+                downloadNext(context, repositoryUrls, queue, downloads);
+            }
+        }
+
+        Map<DownloadResult, CompletableFuture<DownloadResult>> rebuilt = new IdentityHashMap<>();
+        Map<Dependency, CompletableFuture<DownloadResult>> results = new LinkedHashMap<>(resolved.size());
+        for (Map.Entry<Dependency, DownloadResult> entry : resolved.entrySet()) {
+            results.put(entry.getKey(), rebuild(entry.getValue(), downloads, rebuilt));
+        }
+        return results;
+    }
+
+    private static void downloadNext(@NonNull DownloadContext context, @NonNull List<URL> repositoryUrls,
+                                     @NonNull Deque<Artifact> queue,
+                                     @NonNull Map<String, CompletableFuture<DownloadResult>> downloads) {
+        Artifact artifact;
+        synchronized (queue) {
+            if ((artifact = queue.poll()) == null) {
+                return;
+            }
+        }
+
+        // POM is already processed, only the artifact itself is downloaded
+        Dependency dependency = artifact.dependency;
+        Dependency pinned = new Dependency(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion(),
+                dependency.getClassifier(), false, dependency.getChecksums());
+        logger.trace("Downloading {} ({} bytes)", dependency, artifact.size);
+        CompletableFuture<DownloadResult> task;
+        try {
+            task = new DownloaderTask(context, pinned, repositoryUrls, artifact.optional, artifact.repository, artifact.pomUrl,
+                    artifact.artifactUrl).start();
+        } catch (RuntimeException e) {
+            // Executor might be shut down already
+            task = new CompletableFuture<>();
+            task.completeExceptionally(e);
+        }
+        task.whenComplete((result, e) -> {
+            CompletableFuture<DownloadResult> download = downloads.get(InFlightDownloads.key(dependency));
+            if (e != null) {
+                download.completeExceptionally(TaskUtils.unwrap(e));
+            } else {
+                download.complete(result);
+            }
+            downloadNext(context, repositoryUrls, queue, downloads);
+        });
+    }
+
+    @NonNull
+    private CompletableFuture<DownloadResult> rebuild(@NonNull DownloadResult result,
+                                                      @NonNull Map<String, CompletableFuture<DownloadResult>> downloads,
+                                                      @NonNull Map<DownloadResult, CompletableFuture<DownloadResult>> rebuilt) {
+        CompletableFuture<DownloadResult> existing;
+        if ((existing = rebuilt.get(result)) != null) {
+            return existing;
+        }
+
+        // Resolved graphs are acyclic, as cycles are never waited for during resolution
+        List<CompletableFuture<DownloadResult>> children = new ArrayList<>(result.getTransitiveDependencies().size());
+        for (DownloadResult transitive : result.getTransitiveDependencies()) {
+            // Versions which lost are not downloaded, so they're left out of dependency trees
+            if (graph.isSelected(transitive.getDependency())) {
+                children.add(rebuild(transitive, downloads, rebuilt));
+            }
+        }
+
+        CompletableFuture<DownloadResult> download = result.isSuccess() ? downloads.get(InFlightDownloads.key(result.getDependency())) : null;
+        CompletableFuture<DownloadResult> own = download != null ? download : CompletableFuture.completedFuture(result);
+        CompletableFuture<DownloadResult> future = own.thenCombine(TaskUtils.waitForAll(children), (downloaded, ignored) -> {
+            List<DownloadResult> transitive = new ArrayList<>(children.size());
+            for (CompletableFuture<DownloadResult> child : children) {
+                DownloadResult childResult = child.join();
+                if (!childResult.isSuccess() && childResult.isOptional()) {
+                    continue;
+                }
+                transitive.add(childResult);
+            }
+            return new DownloadResult(result.getDependency(), transitive, downloaded.getArtifactPath(), downloaded.isSuccess(),
+                    result.isOptional(), downloaded.getDownloadException(), downloaded.getRepository(), downloaded.getArtifactUrl(),
+                    result.getVersionMediator());
+        });
+        rebuilt.put(result, future);
+        return future;
+    }
+
+    /**
+     * Artifact to download
+     */
+    public static final class Artifact {
+        private final Dependency dependency;
+        private final Path artifactPath;
+        private final URL repository;
+        private final URL pomUrl;
+        private final URL artifactUrl;
+        private final long size;
+        private final boolean optional;
+
+        Artifact(@NonNull Dependency dependency, @NonNull Path artifactPath, @NonNull URL repository,
+                 @Nullable URL pomUrl, @NonNull URL artifactUrl, long size, boolean optional) {
+            this.dependency = dependency;
+            this.artifactPath = artifactPath;
+            this.repository = repository;
+            this.pomUrl = pomUrl;
+            this.artifactUrl = artifactUrl;
+            this.size = size;
+            this.optional = optional;
+        }
+
+        @NonNull
+        public Dependency getDependency() {
+            return dependency;
+        }
+
+        /**
+         * Gets path where artifact is going to be downloaded to
+         *
+         * @return Artifact path
+         */
+        @NonNull
+        public Path getArtifactPath() {
+            return artifactPath;
+        }
+
+        @NonNull
+        public URL getRepository() {
+            return repository;
+        }
+
+        @NonNull
+        public URL getArtifactUrl() {
+            return artifactUrl;
+        }
+
+        /**
+         * Gets artifact size, as announced by repository
+         *
+         * @return Artifact size in bytes, or {@code -1} if unknown
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isOptional() {
+            return optional;
+        }
+
+        @Override
+        public String toString() {
+            return "Artifact{" +
+                    "dependency=" + dependency +
+                    ", artifactUrl=" + artifactUrl +
+                    ", size=" + size +
+                    '}';
+        }
+    }
+
+    /**
+     * Collects artifacts to download while dependency graphs are being resolved
+     */
+    static final class Collector {
+        // Resolution is kept apart from regular downloads, as its results do not have artifacts downloaded
+        private final InFlightDownloads inFlightDownloads = new InFlightDownloads();
+        private final Queue<Artifact> artifacts = new ConcurrentLinkedQueue<>();
+
+        @NonNull
+        InFlightDownloads getInFlightDownloads() {
+            return inFlightDownloads;
+        }
+
+        void add(@NonNull Artifact artifact) {
+            artifacts.add(artifact);
+        }
+
+        /**
+         * Builds download plan
+         *
+         * @param resolved Resolved declared dependencies
+         * @param mediator Version mediator
+         * @return Download plan
+         */
+        @NonNull
+        DownloadPlan build(@NonNull Map<Dependency, DownloadResult> resolved, @NonNull VersionMediator mediator) {
+            ResolvedGraph graph = ResolvedGraph.of(resolved.values(), mediator);
+            List<Artifact> sorted = new ArrayList<>(artifacts.size());
+            for (Artifact artifact : artifacts) {
+                if (graph.isSelected(artifact.dependency)) {
+                    sorted.add(artifact);
+                } else {
+                    logger.debug("{} lost version mediation, not downloading it", artifact.dependency);
+                }
+            }
+            sorted.sort(LARGEST_FIRST);
+            return new DownloadPlan(Collections.unmodifiableMap(resolved), Collections.unmodifiableList(sorted), graph);
+        }
+    }
+}
@@ -26,15 +26,14 @@
 package eu.mikroskeem.picomaven;
 
 import eu.mikroskeem.picomaven.artifact.Dependency;
+import eu.mikroskeem.picomaven.artifact.VersionMediator;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.net.URL;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 
@@ -51,50 +50,63 @@ public final class DownloadResult {
     private final boolean success;
     private final boolean optional;
     private final Exception downloadException;
+    private final URL repository;
+    private final URL artifactUrl;
+    private final VersionMediator mediator;
 
     @MonotonicNonNull
     private volatile List<Path> downloadedFiles = null;
 
     DownloadResult(@NonNull Dependency dependency,
-                          @NonNull Collection<DownloadResult> transitiveDependencies,
+                          @NonNull List<DownloadResult> transitiveDependencies,
                           @NonNull Path artifactPath,
                           boolean success,
                           boolean optional,
                           @Nullable Exception downloadException) {
+        this(dependency, transitiveDependencies, artifactPath, success, optional, downloadException, null, null,
+                VersionMediator.NEAREST_WINS);
+    }
+
+    DownloadResult(@NonNull Dependency dependency,
+                   @NonNull List<DownloadResult> transitiveDependencies,
+                   @NonNull Path artifactPath,
+                   boolean success,
+                   boolean optional,
+                   @Nullable Exception downloadException,
+                   @Nullable URL repository,
+                   @Nullable URL artifactUrl,
+                   @NonNull VersionMediator mediator) {
         this.dependency = dependency;
-        this.transitiveDependencies = new ArrayList<>(transitiveDependencies);
+        // Lists are built for this result only, no need to copy them
+        this.transitiveDependencies = Collections.unmodifiableList(transitiveDependencies);
         this.artifactPath = artifactPath;
         this.success = success;
         this.optional = optional;
         this.downloadException = downloadException;
+        this.repository = repository;
+        this.artifactUrl = artifactUrl;
+        this.mediator = mediator;
     }
 
     /**
-     * Recursively gets all files related to this {@link Dependency} - itself and transitive
-     * dependencies (if {@link Dependency#isTransitive()} is {@code true})
+     * Gets all files related to this {@link Dependency} - itself and transitive dependencies
+     * (if {@link Dependency#isTransitive()} is {@code true}), in classpath order. When several versions of
+     * the same artifact are present, only the one picked by configured {@link VersionMediator} is included
      *
-     * @return All files related to this dependency
+     * @return All files related to this dependency, without duplicates
      */
     @NonNull
     public List<Path> getAllDownloadedFiles() {
         List<Path> files = downloadedFiles;
         if (files == null) {
-            synchronized (this) {
-                if (downloadedFiles == null) {
-                    downloadedFiles = files = new LinkedList<>();
-                    files.add(getArtifactPath());
-
-                    for (DownloadResult transitiveDependency : getTransitiveDependencies()) {
-                        if (!transitiveDependency.isSuccess()) {
-                            continue;
-                        }
-                        files.addAll(transitiveDependency.getAllDownloadedFiles());
-                    }
-                }
-            }
+            // Result never changes, so racing threads compute the same list. Not locking avoids pinning virtual threads
+            files = success
+                    ? ResolvedGraph.of(Collections.singletonList(this), mediator).getClasspath()
+                    : Collections.singletonList(artifactPath);
+            downloadedFiles = files;
         }
 
-        return Collections.unmodifiableList(files);
+        return files;
     }
 
     /**
@@ -114,7 +126,7 @@ public final class DownloadResult {
      */
     @NonNull
     public List<DownloadResult> getTransitiveDependencies() {
-        return Collections.unmodifiableList(transitiveDependencies);
+        return transitiveDependencies;
     }
 
     /**
@@ -156,6 +168,38 @@ public final class DownloadResult {
         return downloadException;
     }
 
+    /**
+     * Gets repository where this artifact was downloaded from. Might be unknown for
+     * artifacts which were downloaded by older PicoMaven versions
+     *
+     * @return Repository URL, or {@code null} if unknown
+     */
+    @Nullable
+    public URL getRepository() {
+        return repository;
+    }
+
+    /**
+     * Gets URL where this artifact was downloaded from. Might be unknown for
+     * artifacts which were downloaded by older PicoMaven versions
+     *
+     * @return Artifact URL, or {@code null} if unknown
+     */
+    @Nullable
+    public URL getArtifactUrl() {
+        return artifactUrl;
+    }
+
+    /**
+     * Gets version mediator used to pick versions for {@link #getAllDownloadedFiles()}
+     *
+     * @return Version mediator
+     */
+    @NonNull
+    VersionMediator getVersionMediator() {
+        return mediator;
+    }
+
     @Override
     public String toString() {
         return "DownloadResult{" +
@@ -186,10 +230,21 @@ public final class DownloadResult {
     static DownloadResult ofSuccess(@NonNull Dependency dependency,
                                     @NonNull Path artifactPath,
                                     boolean optional,
-                                    @NonNull Collection<DownloadResult> transitiveDependencies) {
+                                    @NonNull List<DownloadResult> transitiveDependencies) {
         return new DownloadResult(dependency, transitiveDependencies, artifactPath, true, optional, null);
     }
 
+    static DownloadResult ofSuccess(@NonNull Dependency dependency,
+                                    @NonNull Path artifactPath,
+                                    boolean optional,
+                                    @NonNull List<DownloadResult> transitiveDependencies,
+                                    @Nullable URL repository,
+                                    @Nullable URL artifactUrl,
+                                    @NonNull VersionMediator mediator) {
+        return new DownloadResult(dependency, transitiveDependencies, artifactPath, true, optional, null,
+                repository, artifactUrl, mediator);
+    }
+
     static DownloadResult ofFailure(@NonNull Dependency dependency,
                                     @NonNull Path artifactPath,
                                     boolean optional,
@@ -31,10 +31,13 @@ import eu.mikroskeem.picomaven.artifact.Dependency;
 import eu.mikroskeem.picomaven.artifact.TransitiveDependencyProcessor;
 import eu.mikroskeem.picomaven.internal.DataProcessor;
 import eu.mikroskeem.picomaven.internal.FileUtils;
+import eu.mikroskeem.picomaven.internal.MultiDigest;
 import eu.mikroskeem.picomaven.internal.SneakyThrow;
 import eu.mikroskeem.picomaven.internal.StreamUtils;
 import eu.mikroskeem.picomaven.internal.TaskUtils;
 import eu.mikroskeem.picomaven.internal.UrlUtils;
+import eu.mikroskeem.picomaven.transport.Transport;
+import eu.mikroskeem.picomaven.transport.Transports;
 import org.apache.maven.artifact.repository.metadata.Metadata;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.Repository;
@@ -47,357 +50,899 @@ import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.ConnectException;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
-import static eu.mikroskeem.picomaven.PicoMaven.REMOTE_CHECKSUM_ALGOS;
-
 /**
+ * Downloads a dependency along with its transitive dependencies.
+ *
+ * <p>Download is composed of {@link CompletableFuture} stages, and no stage waits for another download to finish.
+ * Blocking I/O is done only in stages running on the configured {@link ExecutorService}, so amount of threads
+ * needed does not depend on dependency graph depth.</p>
+ *
  * @author Mark Vainomaa
  */
 public final class DownloaderTask implements Supplier<DownloadResult> {
     private static final Logger logger = LoggerFactory.getLogger(DownloaderTask.class);
+    // How many times an interrupted artifact download is continued
+    private static final int MAX_DOWNLOAD_ATTEMPTS = 3;
 
+    private final DownloadContext context;
     private final ExecutorService executorService;
+    private final Transport transport;
     private final Dependency dependency;
+    // Root dependency this download was started for
+    private final Dependency root;
+    // Distance from the root dependency
+    private final int depth;
     private final Path downloadPath;
+    private final Path artifactPomDownloadPath;
+    // Either the sanitized POM or a binary descriptor
+    private final Path artifactDescriptorPath;
+    private final Path artifactDownloadPath;
     // Whether dependency downloading failure is fatal or not
     private final boolean optional;
     private final Set<URL> repositoryUrls;
     private final List<TransitiveDependencyProcessor> transitiveDependencyProcessors;
-    private final Deque<CompletableFuture<DownloadResult>> transitiveDownloads;
-
-    private final boolean isChild;
+    private final InFlightDownloads inFlightDownloads;
+    // Known artifact location from lockfile, skips the lookup
+    private final ArtifactLocation pinned;
+    // Download plan being put together, artifacts are not downloaded if set
+    private final DownloadPlan.Collector plan;
 
     public DownloaderTask(ExecutorService executorService, Dependency dependency, Path downloadPath, List<URL> repositoryUrls,
                           List<TransitiveDependencyProcessor> dependencyProcessors) {
-        this(executorService, dependency, downloadPath,
-                Collections.synchronizedSet(new HashSet<>(repositoryUrls)),
-                false,
-                new ConcurrentLinkedDeque<>(), dependencyProcessors, false);
+        this(new DownloadContext(new PicoMaven.Builder()
+                        .withDownloadPath(downloadPath)
+                        .withTransitiveDependencyProcessors(dependencyProcessors)
+                        .withMaxRequestsPerHost(Integer.MAX_VALUE),
+                executorService, Transports.urlConnection()), dependency, repositoryUrls);
+    }
+
+    DownloaderTask(DownloadContext context, Dependency dependency, List<URL> repositoryUrls) {
+        this(context, dependency, dependency, 0, new CopyOnWriteArraySet<>(repositoryUrls), false, null, null);
+    }
+
+    DownloaderTask(DownloadContext context, Dependency dependency, List<URL> repositoryUrls, DownloadPlan.@NonNull Collector plan) {
+        this(context, dependency, dependency, 0, new CopyOnWriteArraySet<>(repositoryUrls), false, null, plan);
     }
 
-    private DownloaderTask(ExecutorService executorService, Dependency dependency, Path downloadPath,
-                           Set<URL> repositoryUrls, boolean optional, Deque<CompletableFuture<DownloadResult>> transitiveDownloads,
-                           List<TransitiveDependencyProcessor> dependencyProcessors, boolean isChild) {
-        this.executorService = executorService;
+    DownloaderTask(DownloadContext context, Dependency dependency, List<URL> repositoryUrls, boolean optional,
+                   @Nullable URL pinnedRepository, @Nullable URL pinnedPomUrl, @Nullable URL pinnedArtifactUrl) {
+        this(context, dependency, dependency, 0, new CopyOnWriteArraySet<>(repositoryUrls), optional,
+                pinnedRepository != null && pinnedArtifactUrl != null
+                        ? new ArtifactLocation(pinnedRepository, pinnedPomUrl, pinnedArtifactUrl) : null, null);
+    }
+
+    private DownloaderTask(DownloadContext context, Dependency dependency, Dependency root, int depth, Set<URL> repositoryUrls,
+                           boolean optional, @Nullable ArtifactLocation pinned, DownloadPlan.@Nullable Collector plan) {
+        this.context = context;
+        this.executorService = context.getExecutorService();
+        this.transport = context.getTransport();
         this.dependency = dependency;
-        this.downloadPath = downloadPath;
+        this.root = root;
+        this.depth = depth;
+        this.downloadPath = context.getDownloadPath();
+        this.artifactPomDownloadPath = UrlUtils.formatLocalPath(downloadPath, dependency, "pom");
+        this.artifactDescriptorPath = context.getDescriptorPath(dependency);
+        this.artifactDownloadPath = UrlUtils.formatLocalPath(downloadPath, dependency, "jar");
         this.optional = optional;
         this.repositoryUrls = repositoryUrls;
-        this.transitiveDownloads = transitiveDownloads;
-        this.transitiveDependencyProcessors = dependencyProcessors;
-        this.isChild = isChild;
+        this.transitiveDependencyProcessors = context.getTransitiveDependencyProcessors();
+        this.inFlightDownloads = plan != null ? plan.getInFlightDownloads() : context.getInFlightDownloads();
+        this.pinned = pinned;
+        this.plan = plan;
     }
 
     private DownloaderTask(DownloaderTask parent, Dependency dependency, boolean optional) {
-        this(parent.executorService, dependency, parent.downloadPath, parent.repositoryUrls,
-                optional, parent.transitiveDownloads, parent.transitiveDependencyProcessors, true);
+        this(parent.context, dependency, parent.root, parent.depth + 1, parent.repositoryUrls, optional, null, parent.plan);
     }
 
+    /**
+     * Downloads the dependency and waits until it's done. Must not be called from a task running on the
+     * downloader {@link ExecutorService}, use {@link #start()} there instead
+     *
+     * @return Download result
+     */
     @Override
     public DownloadResult get() {
+        return TaskUtils.getUninterruptibly(start());
+    }
+
+    /**
+     * Starts downloading the dependency
+     *
+     * @return Future completing with download result. Never completes exceptionally
+     */
+    @NonNull
+    CompletableFuture<DownloadResult> start() {
+        return CompletableFuture.supplyAsync(this::begin, executorService)
+                .thenCompose(Function.identity())
+                .exceptionally(this::failure);
+    }
+
+    @NonNull
+    private CompletableFuture<DownloadResult> begin() {
         logger.trace("Trying to download dependency {}", dependency);
-        Path artifactPomDownloadPath = UrlUtils.formatLocalPath(downloadPath, dependency, "pom");
-        Path artifactDownloadPath = UrlUtils.formatLocalPath(downloadPath, dependency, "jar");
-        List<DownloadResult> transitive = new LinkedList<>();
-        URL artifactPomUrl;
-        URL artifactUrl;
 
-        try {
-            // Check if artifact already exists
-            if (Files.exists(artifactDownloadPath)) {
-                logger.debug("{} is already downloaded", dependency);
+        // Put together already downloaded dependency graph without parsing POMs, if nothing has changed
+        GraphIndex graphIndex;
+        if (dependency.isTransitive() && (graphIndex = context.getGraphIndex()) != null) {
+            DownloadResult indexed;
+            if ((indexed = graphIndex.resolve(downloadPath, dependency, optional, context.getVersionSelection().getMediator())) != null && isVerified(indexed)
+                    && !isSnapshotUpdateRequired(indexed)) {
+                logger.debug("{} dependency graph is up to date", dependency);
+                return CompletableFuture.completedFuture(indexed);
+            }
+        }
+
+        // Check if artifact already exists
+        boolean snapshot = isSnapshot(dependency);
+        ArtifactOrigin origin = snapshot ? ArtifactOrigin.read(artifactDownloadPath) : null;
+        boolean updateRequired = snapshot && isSnapshotUpdateRequired(origin);
+        if (Files.exists(artifactDownloadPath) && !updateRequired && verifyCached()) {
+            logger.debug("{} is already downloaded", dependency);
+            return cached();
+        }
 
-                if (dependency.isTransitive() && Files.exists(artifactPomDownloadPath)) {
-                    transitive.addAll(downloadTransitive(null, artifactPomDownloadPath.toUri().toURL()));
+        // Download straight from known location, if there is one
+        ArtifactLocation known = pinned;
+        if (known == null && origin != null && !updateRequired) {
+            // Snapshot was resolved recently enough, no need to look at metadata again
+            known = new ArtifactLocation(origin.getRepository(), origin.getPomUrl(), origin.getArtifactUrl());
+        }
+        if (known != null) {
+            ArtifactLocation location = known;
+            return request(location.repository, () -> downloadDependency(location.repository, location.pomUrl, location.artifactUrl)).thenCompose(result -> {
+                if (result.isSuccess()) {
+                    return CompletableFuture.completedFuture(result);
+                }
+                logger.warn("{} could not be downloaded from known URL {}, looking it up from repositories",
+                        dependency, location.artifactUrl);
+                return lookup();
+            });
+        }
+
+        return lookup();
+    }
+
+    @NonNull
+    private CompletableFuture<DownloadResult> cached() {
+        CompletableFuture<List<DownloadResult>> transitive = CompletableFuture.completedFuture(Collections.emptyList());
+        if (dependency.isTransitive()) {
+            Model model;
+            try {
+                model = readDescriptor();
+            } catch (IOException e) {
+                // Transitive dependencies would be silently lost otherwise
+                logger.warn("{} stored POM is unreadable, downloading it again: {}", dependency, e.getMessage());
+                try {
+                    Files.deleteIfExists(artifactDescriptorPath);
+                } catch (IOException ignored) {
                 }
-                return DownloadResult.ofSuccess(dependency, artifactDownloadPath, optional, transitive);
+                return lookup();
+            }
+            if (model == null) {
+                // Artifact was downloaded without transitive dependencies before, so its POM was not stored
+                logger.debug("{} has no stored POM, downloading it again", dependency);
+                return lookup();
             }
+            transitive = downloadTransitive(CompletableFuture.completedFuture(model));
+        }
+        ArtifactOrigin origin = ArtifactOrigin.read(artifactDownloadPath);
+        return transitive.thenApply(downloads -> DownloadResult.ofSuccess(dependency, artifactDownloadPath, optional,
+                downloads, origin != null ? origin.getRepository() : null, origin != null ? origin.getArtifactUrl() : null,
+                context.getVersionSelection().getMediator()));
+    }
 
-            // Iterate through repositories until the artifact is found
-            for (URL repository : repositoryUrls) {
-                logger.debug("Trying repository {} for {}", repository, dependency);
-                Metadata groupMetadata = null;
-                Metadata artifactMetadata = null;
+    @Nullable
+    private Model readDescriptor() throws IOException {
+        Model model;
+        if (context.isBinaryDescriptors() && (model = ArtifactDescriptor.read(artifactDescriptorPath)) != null) {
+            return model;
+        }
 
-                // Do dumb check whether we can download artifact without parsing XML at all
-                if (!dependency.getVersion().endsWith("-SNAPSHOT")) {
-                    logger.trace("Attempting to download artifact without parsing XML");
-                    artifactPomUrl = UrlUtils.buildDirectArtifactUrl(repository, dependency, "pom");
-                    artifactUrl = UrlUtils.buildDirectArtifactUrl(repository, dependency, "jar");
+        // Stored POM is already an effective model. Also used when descriptor is missing, e.g. when
+        // artifact was downloaded before binary descriptors were enabled
+        return DataProcessor.getPom(artifactPomDownloadPath);
+    }
 
-                    try {
-                        DownloadResult result = downloadDependency(repository, artifactPomUrl, artifactUrl, transitive);
-                        if (!result.isSuccess() && result.getDownloadException() != null) {
-                            SneakyThrow.rethrow(result.getDownloadException());
-                            throw null;
-                        }
-                        return result;
-                    } catch (SocketTimeoutException | UnknownHostException e) {
-                        logger.warn("Connection to {} failed", repository, e);
-                        continue;
-                    } catch (IOException e) {
-                        // Non-fatal error, continue
-                        logger.trace("{} direct artifact URL {} did not work, trying to fetch XML", dependency, artifactUrl);
-                    }
+    private static boolean isSnapshot(@NonNull Dependency dependency) {
+        return dependency.getVersion().endsWith("-SNAPSHOT");
+    }
+
+    private boolean isSnapshotUpdateRequired(@Nullable ArtifactOrigin origin) {
+        long resolved = origin != null ? origin.getResolved() : 0;
+        UpdatePolicy policy = context.getSnapshotUpdatePolicy(origin != null ? origin.getRepository() : null);
+        return policy.isUpdateRequired(resolved, System.currentTimeMillis());
+    }
+
+    private boolean isSnapshotUpdateRequired(@NonNull DownloadResult indexed) {
+        // Indexed graph shares nodes between paths, so each one is checked only once
+        Set<DownloadResult> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<DownloadResult> pending = new ArrayDeque<>();
+        pending.push(indexed);
+        DownloadResult result;
+        while ((result = pending.poll()) != null) {
+            if (!visited.add(result)) {
+                continue;
+            }
+            if (isSnapshot(result.getDependency())
+                    && isSnapshotUpdateRequired(ArtifactOrigin.read(result.getArtifactPath()))) {
+                return true;
+            }
+            for (DownloadResult transitive : result.getTransitiveDependencies()) {
+                if (transitive.isSuccess()) {
+                    pending.push(transitive);
                 }
+            }
+        }
+        return false;
+    }
+
+    private boolean isVerified(@NonNull DownloadResult indexed) {
+        // Artifacts which are not known to be intact get verified by their own tasks instead
+        CacheVerifier cacheVerifier;
+        if ((cacheVerifier = context.getCacheVerifier()) == null) {
+            return true;
+        }
+        for (Path artifact : indexed.getAllDownloadedFiles()) {
+            if (!cacheVerifier.isVerified(artifact)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean verifyCached() {
+        // Checksums defined for the dependency, e.g. pinned by a lockfile, are verified even without cache verification
+        CacheVerifier cacheVerifier = context.getCacheVerifier();
+        List<ArtifactChecksum> checksums = dependency.getChecksums();
+        if (cacheVerifier == null && checksums.isEmpty()) {
+            return true;
+        }
+        try {
+            if (cacheVerifier != null
+                    ? cacheVerifier.verify(artifactDownloadPath, checksums)
+                    : CacheVerifier.matches(artifactDownloadPath, checksums)) {
+                return true;
+            }
+            logger.warn("{} is corrupted, downloading it again", dependency);
+            Files.deleteIfExists(artifactDownloadPath);
+        } catch (IOException e) {
+            logger.warn("Failed to verify {}, downloading it again", dependency, e);
+        }
+        return false;
+    }
 
-                // Try to find group metadata xml and grab artifact metadata xml URL from it
-                URL groupMetaURI = UrlUtils.buildGroupMetaURL(repository, dependency);
-                logger.trace("{} group meta URL: {}", dependency, groupMetaURI);
+    /**
+     * Runs work which makes requests to given repository, within repository host's request limit
+     *
+     * @param repository Repository URL
+     * @param work Work to run
+     * @return Future of work result
+     */
+    @NonNull
+    private <T> CompletableFuture<T> request(@NonNull URL repository, @NonNull Supplier<CompletableFuture<T>> work) {
+        return CompletableFuture.supplyAsync(work, requestExecutor(repository)).thenCompose(Function.identity());
+    }
+
+    @NonNull
+    private Executor requestExecutor(@NonNull URL url) {
+        return context.getRequestScheduler().executor(root, url);
+    }
+
+    @NonNull
+    private CompletableFuture<DownloadResult> lookup() {
+        // Probe several repositories at once if configured so
+        List<URL> repositories = getRepositories();
+        int parallelism = context.getRepositoryLookupParallelism();
+        if (parallelism > 1 && repositories.size() > 1) {
+            return downloadHedged(repositories, parallelism, 0);
+        }
+        return downloadSequential(repositories, 0);
+    }
+
+    @NonNull
+    private List<URL> getRepositories() {
+        // Transitive dependencies might add new repositories meanwhile. Only repositories which can have
+        // this artifact are looked at
+        List<URL> repositories = context.getRepositoryRoutes().route(dependency.getGroupId(), new ArrayList<>(repositoryUrls));
+
+        // Skip repositories which are known not to have this artifact
+        NegativeLookupCache negativeLookupCache;
+        if ((negativeLookupCache = context.getNegativeLookupCache()) != null) {
+            repositories.removeIf(repository -> {
+                if (negativeLookupCache.isKnownMiss(repository, dependency)) {
+                    logger.trace("{} is known to be missing from repository {}, skipping", dependency, repository);
+                    return true;
+                }
+                return false;
+            });
+        }
+        return repositories;
+    }
+
+    private void recordMiss(@NonNull URL repository) {
+        NegativeLookupCache negativeLookupCache;
+        if ((negativeLookupCache = context.getNegativeLookupCache()) != null) {
+            negativeLookupCache.recordMiss(repository, dependency);
+        }
+    }
+
+    @NonNull
+    private CompletableFuture<DownloadResult> downloadSequential(@NonNull List<URL> repositories, int index) {
+        // No repositories left to try
+        if (index == repositories.size()) {
+            return CompletableFuture.completedFuture(failure(new IOException("Not found")));
+        }
+
+        URL repository = repositories.get(index);
+        logger.debug("Trying repository {} for {}", repository, dependency);
+
+        // Artifact is located first, so that POM and transitive dependencies are fetched only once it's known to exist
+        return CompletableFuture.supplyAsync(() -> probe(repository, null), requestExecutor(repository)).thenCompose(location -> {
+            if (location == null) {
+                return downloadSequential(repositories, index + 1);
+            }
+            return request(repository, () -> downloadDependency(repository, location.pomUrl, location.artifactUrl)).thenCompose(result -> {
+                if (!result.isSuccess() && isConnectionFailure(result.getDownloadException())) {
+                    logger.warn("Connection to {} failed", repository, result.getDownloadException());
+                    return downloadSequential(repositories, index + 1);
+                }
+                return CompletableFuture.completedFuture(result);
+            });
+        });
+    }
+
+    @NonNull
+    private CompletableFuture<DownloadResult> downloadHedged(@NonNull List<URL> repositories, int parallelism, int offset) {
+        // No repositories left to try
+        if (offset >= repositories.size()) {
+            return CompletableFuture.completedFuture(failure(new IOException("Not found")));
+        }
+
+        List<URL> batch = repositories.subList(offset, Math.min(offset + parallelism, repositories.size()));
+        logger.debug("Probing repositories {} for {}", batch, dependency);
+
+        // Probe all repositories in this batch at once
+        AtomicBoolean settled = new AtomicBoolean(false);
+        List<CompletableFuture<ArtifactLocation>> probes = new ArrayList<>(batch.size());
+        for (URL repository : batch) {
+            probes.add(CompletableFuture.supplyAsync(() -> probe(repository, settled), requestExecutor(repository)));
+        }
+
+        // Pick the first repository in configured order which has the artifact
+        return firstFound(probes, settled, 0).thenCompose(location -> {
+            if (location == null) {
+                return downloadHedged(repositories, parallelism, offset + parallelism);
+            }
+            logger.debug("Found {} from repository {}", dependency, location.repository);
+            return request(location.repository, () -> downloadDependency(location.repository, location.pomUrl, location.artifactUrl));
+        });
+    }
+
+    @NonNull
+    private static CompletableFuture<ArtifactLocation> firstFound(@NonNull List<CompletableFuture<ArtifactLocation>> probes,
+                                                                  @NonNull AtomicBoolean settled, int index) {
+        if (index == probes.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return probes.get(index).thenCompose(location -> {
+            if (location == null) {
+                return firstFound(probes, settled, index + 1);
+            }
+
+            // Cancel remaining lookups
+            settled.set(true);
+            for (int i = index + 1; i < probes.size(); i++) {
+                probes.get(i).cancel(false);
+            }
+            return CompletableFuture.completedFuture(location);
+        });
+    }
+
+    @Nullable
+    private ArtifactLocation probe(@NonNull URL repository, @Nullable AtomicBoolean settled) {
+        try {
+            // Check whether artifact is available without parsing XML at all
+            if (!isSnapshot(dependency)) {
+                URL artifactUrl = UrlUtils.buildDirectArtifactUrl(repository, dependency, "jar");
                 try {
-                    if ((groupMetadata = DataProcessor.getMetadata(groupMetaURI)) != null) {
-                        URL artifactMetaURI = UrlUtils.buildArtifactMetaURL(repository, groupMetadata, dependency);
-                        logger.trace("{} artifact meta URL: {}", dependency, artifactMetaURI);
-                        artifactMetadata = DataProcessor.getMetadata(artifactMetaURI);
-                    } else {
-                        throw new FileNotFoundException();
-                    }
-                } catch (SocketTimeoutException | UnknownHostException e) {
+                    transport.head(artifactUrl).close();
+                    return new ArtifactLocation(repository, UrlUtils.buildDirectArtifactUrl(repository, dependency, "pom"), artifactUrl);
+                } catch (SocketTimeoutException | UnknownHostException | ConnectException e) {
                     logger.warn("Connection to {} failed", repository, e);
-                    continue;
-                } catch (FileNotFoundException e) {
-                    logger.debug("{} not found in repository {}", dependency, repository);
-                    continue;
+                    return null;
                 } catch (IOException e) {
-                    // Skip this repository
-                    continue;
+                    logger.trace("{} direct artifact URL {} did not work, trying to fetch XML", dependency, artifactUrl);
                 }
+            }
 
-                // Figure out artifact URL and attempt to download it
-                artifactPomUrl = UrlUtils.buildArtifactURL(repository, artifactMetadata, dependency, "pom");
-                artifactUrl = UrlUtils.buildArtifactURL(repository, artifactMetadata, dependency, "jar");
-                return downloadDependency(repository, artifactPomUrl, artifactUrl, transitive);
+            // Another repository already won
+            if (settled != null && settled.get()) {
+                return null;
             }
 
-            // No repositories left to try
-            throw new IOException("Not found");
+            return locateFromMetadata(repository);
+        } catch (SocketTimeoutException | UnknownHostException | ConnectException e) {
+            logger.warn("Connection to {} failed", repository, e);
+        } catch (FileNotFoundException e) {
+            logger.debug("{} not found in repository {}", dependency, repository);
+            recordMiss(repository);
         } catch (IOException e) {
-            return DownloadResult.ofFailure(dependency, artifactDownloadPath, optional, e);
+            logger.debug("{} not found in repository {}", dependency, repository);
         }
+        return null;
     }
 
-    private DownloadResult downloadDependency(URL repository, URL artifactPomUrl, URL artifactUrl, List<DownloadResult> transitive) throws IOException {
-        Path artifactPomDownloadPath = UrlUtils.formatLocalPath(downloadPath, dependency, "pom");
-        Path artifactDownloadPath = UrlUtils.formatLocalPath(downloadPath, dependency, "jar");
+    @NonNull
+    private ArtifactLocation locateFromMetadata(@NonNull URL repository) throws IOException {
+        // Try to find group metadata xml and grab artifact metadata xml URL from it
+        URL groupMetaURI = UrlUtils.buildGroupMetaURL(repository, dependency);
+        logger.trace("{} group meta URL: {}", dependency, groupMetaURI);
+        Metadata groupMetadata;
+        Metadata artifactMetadata;
+        if ((groupMetadata = getMetadata(groupMetaURI)) != null) {
+            URL artifactMetaURI = UrlUtils.buildArtifactMetaURL(repository, groupMetadata, dependency);
+            logger.trace("{} artifact meta URL: {}", dependency, artifactMetaURI);
+            artifactMetadata = getMetadata(artifactMetaURI);
+        } else {
+            throw new FileNotFoundException();
+        }
 
-        if (dependency.isTransitive()) {
-            try {
-                logger.trace("Downloading {} POM from {}", dependency, artifactPomUrl);
-                transitive.addAll(downloadTransitive(artifactPomDownloadPath, artifactPomUrl));
-            } catch (SocketTimeoutException | UnknownHostException e) {
-                logger.warn("Connection to {} failed", repository, e);
-                return DownloadResult.ofFailure(dependency, artifactDownloadPath, optional, e);
-            } catch (FileNotFoundException e) {
-                logger.trace("{} POM not found", dependency);
+        // Figure out artifact URL
+        return new ArtifactLocation(repository,
+                UrlUtils.buildArtifactURL(repository, artifactMetadata, dependency, "pom"),
+                UrlUtils.buildArtifactURL(repository, artifactMetadata, dependency, "jar"));
+    }
+
+    @Nullable
+    private Metadata getMetadata(@NonNull URL url) throws IOException {
+        MetadataCache metadataCache;
+        if ((metadataCache = context.getMetadataCache()) != null) {
+            return metadataCache.get(transport, url);
+        }
+        return DataProcessor.getMetadata(transport, url);
+    }
+
+    @NonNull
+    private CompletableFuture<DownloadResult> downloadDependency(@NonNull URL repository, @Nullable URL artifactPomUrl,
+                                                                 @NonNull URL artifactUrl) {
+        // Resolved snapshot might be the one already downloaded
+        ArtifactOrigin origin;
+        if (isSnapshot(dependency) && Files.exists(artifactDownloadPath)
+                && (origin = ArtifactOrigin.read(artifactDownloadPath)) != null
+                && origin.getArtifactUrl().toString().equals(artifactUrl.toString())) {
+            logger.debug("{} is up to date", dependency);
+            writeOrigin(repository, artifactUrl, artifactPomUrl);
+            return cached();
+        }
+
+        // POM is fetched and transitive dependencies are downloaded while artifact itself is downloading
+        CompletableFuture<List<DownloadResult>> transitive = CompletableFuture.completedFuture(Collections.emptyList());
+        if (dependency.isTransitive() && artifactPomUrl != null) {
+            logger.trace("Downloading {} POM from {}", dependency, artifactPomUrl);
+            transitive = CompletableFuture.supplyAsync(() -> fetchPomOrNull(repository, artifactPomUrl), requestExecutor(artifactPomUrl))
+                    .thenCompose(model -> model != null
+                            ? downloadTransitive(resolveModel(model))
+                            : CompletableFuture.completedFuture(Collections.emptyList()));
+        }
+
+        // Graph is being resolved for a download plan, artifact is downloaded later
+        if (plan != null) {
+            return plan(repository, artifactPomUrl, artifactUrl, transitive);
+        }
+
+        // Checksum file is fetched meanwhile as well, if repository is known not to send checksum headers
+        RemoteChecksums.Sidecar sidecar = null;
+        if (dependency.getChecksums().isEmpty() && context.getRemoteChecksums().isSidecarExpected(repository)) {
+            sidecar = context.getRemoteChecksums().fetchSidecar(requestExecutor(artifactUrl), repository, artifactUrl);
+        }
+
+        CompletableFuture<List<DownloadResult>> transitiveDownloads = transitive;
+        logger.trace("Downloading {} from {}", dependency, artifactUrl);
+        CompletableFuture<Void> download = null;
+        PartialDownload partial = PartialDownload.open(artifactDownloadPath, artifactUrl);
+        for (int attempt = 1; download == null; attempt++) {
+            try (Transport.Response response = partial.request(transport)) {
+                download = downloadArtifact(dependency, repository, artifactUrl, partial, response, sidecar);
             } catch (IOException e) {
-                logger.warn("Failed to download {} POM: {}", dependency, e.getMessage());
+                // Continue interrupted download, as long as it makes progress
+                PartialDownload next = PartialDownload.open(artifactDownloadPath, artifactUrl);
+                if (e instanceof FileNotFoundException || attempt >= MAX_DOWNLOAD_ATTEMPTS || next.getOffset() <= partial.getOffset()) {
+                    return CompletableFuture.completedFuture(downloadFailure(repository, e));
+                }
+                logger.debug("{} download was interrupted at {} bytes, resuming: {}", dependency, next.getOffset(), e.getMessage());
+                partial = next;
             }
         }
 
-        logger.trace("Downloading {} from {}", dependency, artifactUrl);
-        try (InputStream is = UrlUtils.openConnection(artifactUrl).getInputStream()) {
-            downloadArtifact(dependency, artifactUrl, artifactDownloadPath, is);
-            return DownloadResult.ofSuccess(dependency, artifactDownloadPath, optional, transitive);
-        } catch (FileNotFoundException e) {
-            logger.debug("{} not found in repository {}", dependency, repository);
-            return DownloadResult.ofFailure(dependency, artifactDownloadPath, optional, e);
+        return download.thenCompose(ignored -> {
+            writeOrigin(repository, artifactUrl, artifactPomUrl);
+            return transitiveDownloads.thenApply(downloads -> DownloadResult.ofSuccess(dependency, artifactDownloadPath,
+                    optional, downloads, repository, artifactUrl, context.getVersionSelection().getMediator()));
+        }).exceptionally(e -> downloadFailure(repository, TaskUtils.unwrap(e)));
+    }
+
+    @NonNull
+    private CompletableFuture<DownloadResult> plan(@NonNull URL repository, @Nullable URL artifactPomUrl, @NonNull URL artifactUrl,
+                                                   @NonNull CompletableFuture<List<DownloadResult>> transitive) {
+        // Artifact is only checked to exist, it's downloaded once the whole graph is resolved
+        long size;
+        try (Transport.Response response = transport.head(artifactUrl)) {
+            size = response.getContentLength();
         } catch (IOException e) {
+            return CompletableFuture.completedFuture(downloadFailure(repository, e));
+        }
+        logger.trace("{} is {} bytes", dependency, size);
+
+        DownloadPlan.Artifact artifact = new DownloadPlan.Artifact(dependency, artifactDownloadPath, repository,
+                artifactPomUrl, artifactUrl, size, optional);
+        return transitive.thenApply(downloads -> {
+            plan.add(artifact);
+            return DownloadResult.ofSuccess(dependency, artifactDownloadPath, optional, downloads, repository, artifactUrl,
+                    context.getVersionSelection().getMediator());
+        }).exceptionally(e -> downloadFailure(repository, TaskUtils.unwrap(e)));
+    }
+
+    private void writeOrigin(@NonNull URL repository, @NonNull URL artifactUrl, @Nullable URL artifactPomUrl) {
+        try {
+            new ArtifactOrigin(repository, artifactUrl, artifactPomUrl, System.currentTimeMillis()).write(artifactDownloadPath);
+        } catch (IOException e) {
+            logger.warn("Failed to record where {} was downloaded from", dependency, e);
+        }
+    }
+
+    @NonNull
+    private DownloadResult downloadFailure(@NonNull URL repository, @NonNull Throwable e) {
+        if (e instanceof FileNotFoundException) {
+            logger.debug("{} not found in repository {}", dependency, repository);
+        } else {
             logger.debug("{} download failed: {}", dependency, e);
-            return DownloadResult.ofFailure(dependency, artifactDownloadPath, optional, e);
         }
+        return failure(e);
     }
 
     @NonNull
-    private List<DownloadResult> downloadTransitive(@Nullable Path pomPath, @NonNull URL artifactPomUrl) throws IOException {
-        List<CompletableFuture<DownloadResult>> transitive = Collections.emptyList();
-        Model model;
-        if ((model = DataProcessor.getPom(artifactPomUrl)) != null) {
-            // Write model to disk
-            if (pomPath != null) {
-                Path pomPathTemp = pomPath.resolveSibling(pomPath.getFileName() + ".tmp");
-                Files.createDirectories(pomPath.getParent());
-                try (BufferedWriter w = Files.newBufferedWriter(pomPathTemp, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
-                    DataProcessor.serializeModel(model, w, true);
-                }
+    private DownloadResult failure(@NonNull Throwable e) {
+        Throwable cause = TaskUtils.unwrap(e);
+        return DownloadResult.ofFailure(dependency, artifactDownloadPath, optional,
+                cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+    }
+
+    private static boolean isConnectionFailure(@Nullable Throwable e) {
+        return e instanceof SocketTimeoutException || e instanceof UnknownHostException || e instanceof ConnectException;
+    }
 
-                Files.move(pomPathTemp, pomPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    @Nullable
+    private Model fetchPomOrNull(@NonNull URL repository, @NonNull URL artifactPomUrl) {
+        try {
+            Model model;
+            if ((model = DataProcessor.getPom(transport, artifactPomUrl)) == null) {
+                logger.trace("{} POM not found", dependency);
             }
+            return model;
+        } catch (SocketTimeoutException | UnknownHostException | ConnectException e) {
+            // Fails the whole download, as artifact would be missing its dependencies
+            logger.warn("Connection to {} failed", repository, e);
+            SneakyThrow.rethrow(e);
+            return null;
+        } catch (IOException e) {
+            logger.warn("Failed to download {} POM: {}", dependency, e.getMessage());
+            return null;
+        }
+    }
 
-            // Grab all dependencies
-            if (!model.getDependencies().isEmpty()) {
-                // Add all repositories from transitive POM
-                if (!model.getRepositories().isEmpty()) {
-                    for (Repository repository : model.getRepositories()) {
-                        try {
-                            URL url = new URL(repository.getUrl());
-                            logger.debug("Adding new repository URL {}", url);
-                            repositoryUrls.add(url);
-                        } catch (MalformedURLException e) {
-                            logger.warn(
-                                    "URL '{}' referenced by dependency {}:{}:{} is invalid",
-                                    repository.getUrl(),
-                                    model.getGroupId(), model.getArtifactId(), model.getVersion(),
-                                    e
-                            );
-                        }
-                    }
+    @NonNull
+    private CompletableFuture<Model> resolveModel(@NonNull Model model) {
+        return context.getModelResolver().resolve(model, root, repositoryUrls).handle((effective, e) -> {
+            if (e != null) {
+                logger.warn("Failed to build {} effective model: {}", dependency, TaskUtils.unwrap(e).toString());
+                effective = model;
+            }
+
+            // Effective model is stored, so that parents are not needed once dependency is downloaded
+            try {
+                if (context.isBinaryDescriptors()) {
+                    ArtifactDescriptor.write(artifactDescriptorPath, effective);
+                } else {
+                    writePom(effective);
                 }
+            } catch (IOException ex) {
+                logger.warn("Failed to write {} POM", dependency, ex);
+            }
+            return effective;
+        });
+    }
 
-                transitive = new ArrayList<>(model.getDependencies().size());
-                for (org.apache.maven.model.Dependency modelDependency : model.getDependencies()) {
-                    // Apply filters
-                    TransitiveDependencyProcessor.DownloadableTransitiveDependency dep = new TransitiveDependencyProcessor.DownloadableTransitiveDependency(
-                            dependency,
-                            modelDependency.getGroupId(),
-                            modelDependency.getArtifactId(),
-                            modelDependency.getVersion(),
-                            modelDependency.getClassifier(),
-                            modelDependency.getScope(),
-                            "true".equalsIgnoreCase(modelDependency.getOptional())
-                    );
-                    for (TransitiveDependencyProcessor processor : this.transitiveDependencyProcessors) {
-                        processor.accept(dep);
-                    }
+    private void writePom(@NonNull Model model) throws IOException {
+        Path pomPathTemp = artifactPomDownloadPath.resolveSibling(artifactPomDownloadPath.getFileName() + ".tmp");
+        Files.createDirectories(artifactPomDownloadPath.getParent());
+        try (BufferedWriter w = Files.newBufferedWriter(pomPathTemp, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            DataProcessor.serializeModel(model, w, true);
+        }
 
-                    // Filtered, do not download
-                    if (!dep.isAllowed()) {
-                        continue;
-                    }
+        Files.move(pomPathTemp, artifactPomDownloadPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
 
-                    // Ignore certain scopes
-                    if (!DataProcessor.RELEVANT_STRING_SCOPE_PREDICATE.test(dep.getScope())) {
-                        continue;
-                    }
+    @NonNull
+    private CompletableFuture<List<DownloadResult>> downloadTransitive(@NonNull CompletableFuture<Model> model) {
+        return model.thenCompose(this::downloadTransitive0)
+                .whenComplete((result, e) -> inFlightDownloads.finished(dependency));
+    }
+
+    @NonNull
+    private CompletableFuture<List<DownloadResult>> downloadTransitive0(@NonNull Model model) {
+        List<CompletableFuture<DownloadResult>> transitive = Collections.emptyList();
+        List<Boolean> transitiveOptional = Collections.emptyList();
 
-                    // Build PicoMaven dependency object
-                    Dependency transitiveDependency = new Dependency(
-                            fixupIdentifiers(dependency, dep.getGroupId()),
-                            dep.getArtifactId(),
-                            fixupIdentifiers(dependency, dep.getVersion()),
-                            dep.getClassifier(),
-                            true,
-                            Collections.emptyList()
-                    );
-
-                    // Validate
+        // Grab all dependencies
+        if (!model.getDependencies().isEmpty()) {
+            // Add all repositories from transitive POM
+            if (!model.getRepositories().isEmpty()) {
+                for (Repository repository : model.getRepositories()) {
                     try {
-                        Objects.requireNonNull(transitiveDependency.getGroupId(), "Group id cannot be null");
-                        Objects.requireNonNull(transitiveDependency.getArtifactId(), "Artifact id cannot be null");
-                        Objects.requireNonNull(transitiveDependency.getVersion(), "Version cannot be null");
-                    } catch (NullPointerException e) {
-                        logger.warn("{} transitive dependency {} is invalid: {}", dependency, transitiveDependency, e.getMessage());
-                        continue;
+                        URL url = new URL(repository.getUrl());
+                        logger.debug("Adding new repository URL {}", url);
+                        repositoryUrls.add(url);
+                    } catch (MalformedURLException e) {
+                        logger.warn(
+                                "URL '{}' referenced by dependency {}:{}:{} is invalid",
+                                repository.getUrl(),
+                                model.getGroupId(), model.getArtifactId(), model.getVersion(),
+                                e
+                        );
                     }
+                }
+            }
+
+            transitive = new ArrayList<>(model.getDependencies().size());
+            transitiveOptional = new ArrayList<>(model.getDependencies().size());
+            for (org.apache.maven.model.Dependency modelDependency : model.getDependencies()) {
+                // Apply filters
+                TransitiveDependencyProcessor.DownloadableTransitiveDependency dep = new TransitiveDependencyProcessor.DownloadableTransitiveDependency(
+                        dependency,
+                        modelDependency.getGroupId(),
+                        modelDependency.getArtifactId(),
+                        modelDependency.getVersion(),
+                        modelDependency.getClassifier(),
+                        modelDependency.getScope(),
+                        "true".equalsIgnoreCase(modelDependency.getOptional())
+                );
+                for (TransitiveDependencyProcessor processor : this.transitiveDependencyProcessors) {
+                    processor.accept(dep);
+                }
+
+                // Filtered, do not download
+                if (!dep.isAllowed()) {
+                    continue;
+                }
 
-                    logger.debug("{} requires transitive dependency {}", dependency, transitiveDependency);
+                // Ignore certain scopes
+                if (!DataProcessor.RELEVANT_STRING_SCOPE_PREDICATE.test(dep.getScope())) {
+                    continue;
+                }
 
-                    DownloaderTask task = new DownloaderTask(this, transitiveDependency, dep.isOptional());
-                    CompletableFuture<DownloadResult> future = CompletableFuture.supplyAsync(task, executorService);
-                    transitiveDownloads.add(future);
-                    transitive.add(future);
+                // Build PicoMaven dependency object
+                Dependency declaredDependency = new Dependency(
+                        fixupIdentifiers(dependency, dep.getGroupId()),
+                        dep.getArtifactId(),
+                        fixupIdentifiers(dependency, dep.getVersion()),
+                        dep.getClassifier(),
+                        true,
+                        Collections.emptyList()
+                );
+
+                // Validate
+                try {
+                    Objects.requireNonNull(declaredDependency.getGroupId(), "Group id cannot be null");
+                    Objects.requireNonNull(declaredDependency.getArtifactId(), "Artifact id cannot be null");
+                    Objects.requireNonNull(declaredDependency.getVersion(), "Version cannot be null");
+                } catch (NullPointerException e) {
+                    logger.warn("{} transitive dependency {} is invalid: {}", dependency, declaredDependency, e.getMessage());
+                    continue;
+                }
+                if (declaredDependency.getVersion().contains("${")) {
+                    logger.warn("{} transitive dependency {} has unresolved version", dependency, declaredDependency);
+                    continue;
                 }
+
+                // Version which is already known to lose would not end up on classpath, use the winner instead
+                Dependency transitiveDependency = context.getVersionSelection().mediate(declaredDependency, depth + 1);
+                if (transitiveDependency != declaredDependency) {
+                    logger.debug("{} transitive dependency {} is replaced with {}", dependency, declaredDependency,
+                            transitiveDependency.getVersion());
+                }
+
+                logger.debug("{} requires transitive dependency {}", dependency, transitiveDependency);
+
+                // Depending on a dependency which (indirectly) depends on us would never complete
+                if (!inFlightDownloads.await(dependency, transitiveDependency)) {
+                    logger.debug("{} transitive dependency {} forms a cycle, skipping", dependency, transitiveDependency);
+                    continue;
+                }
+
+                // Join already running download if present
+                transitive.add(inFlightDownloads.computeIfAbsent(transitiveDependency,
+                        key -> new DownloaderTask(this, transitiveDependency, dep.isOptional()).start()));
+                transitiveOptional.add(dep.isOptional());
             }
+        }
 
-            // Wait until all futures are done
-            TaskUtils.waitForAllFuturesUninterruptibly(transitive);
+        // Collect download results once all of them are done
+        List<CompletableFuture<DownloadResult>> futures = transitive;
+        List<Boolean> futuresOptional = transitiveOptional;
+        return TaskUtils.waitForAll(futures).thenApply(ignored -> {
             logger.trace("{} transitive dependencies download finished", dependency);
-
-            // Collect download results
-            List<DownloadResult> downloads = new ArrayList<>(transitive.size());
-            for (Future<DownloadResult> future : transitive) {
-                DownloadResult res = SneakyThrow.get(future::get);
+            List<DownloadResult> downloads = new ArrayList<>(futures.size());
+            for (int i = 0; i < futures.size(); i++) {
+                DownloadResult res = futures.get(i).join();
 
                 if (!res.isSuccess()) {
-                    if (res.isOptional()) {
+                    // Same download might be shared with requesters which consider it optional differently
+                    if (futuresOptional.get(i)) {
                         continue;
                     }
                     logger.trace("Failed to download {}: {}", res.getDependency(), res.getDownloadException().getMessage());
                 }
                 downloads.add(res);
             }
-
             return downloads;
-        } else {
-            throw new FileNotFoundException();
-        }
+        });
     }
 
-    private void downloadArtifact(@NonNull Dependency dependency, @NonNull URL artifactUrl,
-                                  @NonNull Path target, @NonNull InputStream is) throws IOException {
-        // Copy artifact into memory
-        final byte[] artifactBytes = StreamUtils.readBytes(is);
-
-        // Check specified checksums
-        List<CompletableFuture<Boolean>> checksumFutures;
-        if (!dependency.getChecksums().isEmpty()) {
+    @NonNull
+    private CompletableFuture<Void> downloadArtifact(@NonNull Dependency dependency, @NonNull URL repository,
+                                                     @NonNull URL artifactUrl, @NonNull PartialDownload partial,
+                                                     Transport.@NonNull Response response,
+                                                     RemoteChecksums.@Nullable Sidecar sidecar) throws IOException {
+        // Figure out what checksums to verify against
+        List<ArtifactChecksum> localChecksums = dependency.getChecksums();
+        CompletableFuture<List<ArtifactChecksum>> checksums;
+        Set<ChecksumAlgo> algos = EnumSet.noneOf(ChecksumAlgo.class);
+        ArtifactChecksum headerChecksum;
+        if (!localChecksums.isEmpty()) {
             logger.trace("{} has checksums set, using them to check consistency", dependency);
-            checksumFutures = new ArrayList<>(dependency.getChecksums().size());
-            for (ArtifactChecksum checksum : dependency.getChecksums()) {
-                checksumFutures.add(CompletableFuture.supplyAsync(
-                        () -> DataProcessor.verifyChecksum(checksum, artifactBytes),
-                        this.executorService
-                ));
+            for (ArtifactChecksum checksum : localChecksums) {
+                algos.add(checksum.getAlgo());
             }
+            checksums = CompletableFuture.completedFuture(localChecksums);
+        } else if ((headerChecksum = RemoteChecksums.fromHeaders(response)) != null) {
+            logger.trace("{} repository sent {} checksum {}", dependency, headerChecksum.getAlgo().name(), headerChecksum.getChecksum());
+            context.getRemoteChecksums().recordHeaders(repository, true);
+            algos.add(headerChecksum.getAlgo());
+            checksums = CompletableFuture.completedFuture(Collections.singletonList(headerChecksum));
         } else {
-            // Attempt to fetch remote checksums and verify them
+            // Fetch checksum file while artifact is being downloaded, unless it's already being fetched.
+            // It's not known yet which one repository has, so digest with every candidate
             logger.trace("{} does not have any checksums defined locally, fetching them from remote repository", dependency);
-            checksumFutures = new ArrayList<>(REMOTE_CHECKSUM_ALGOS.length);
-            for (ChecksumAlgo remoteChecksumAlgo : REMOTE_CHECKSUM_ALGOS) {
-                checksumFutures.add(DataProcessor.getArtifactChecksum(executorService, artifactUrl, remoteChecksumAlgo).thenApply(checksum -> {
-                    if (checksum != null) {
-                        logger.trace("{} repository {} checksum is {}", dependency, checksum.getAlgo().name(), checksum.getChecksum());
-                        return DataProcessor.verifyChecksum(checksum, artifactBytes);
+            context.getRemoteChecksums().recordHeaders(repository, false);
+            RemoteChecksums.Sidecar fetch = sidecar != null
+                    ? sidecar : context.getRemoteChecksums().fetchSidecar(requestExecutor(artifactUrl), repository, artifactUrl);
+            algos.addAll(fetch.getCandidates());
+            checksums = fetch.getChecksum().thenApply(checksum -> {
+                if (checksum == null) {
+                    return Collections.emptyList();
+                }
+                logger.trace("{} repository {} checksum is {}", dependency, checksum.getAlgo().name(), checksum.getChecksum());
+                return Collections.singletonList(checksum);
+            });
+        }
+
+        Path target = partial.getTarget();
+        CompletableFuture<Map<ChecksumAlgo, byte[]>> digests;
+        if (SegmentedDownload.isApplicable(response, context.getSegmentedDownloadThreshold())) {
+            // Segments arrive out of order, so artifact is digested as a whole once all of them are in
+            try {
+                digests = SegmentedDownload.download(transport, requestExecutor(artifactUrl), artifactUrl, partial,
+                        response, context.getDownloadSegments()).thenApply(ignored -> SneakyThrow.get(() -> {
+                    try (MultiDigest digest = new MultiDigest(algos)) {
+                        FileUtils.digestMapped(partial.getPath(), digest);
+                        return digest.finish();
                     }
-                    return null;
                 }));
+            } catch (IOException e) {
+                partial.discard();
+                throw e;
+            }
+        } else {
+            // Stream artifact into partial file, digesting it on the fly
+            try (InputStream is = response.getBody(); MultiDigest digest = new MultiDigest(algos)) {
+                try (FileChannel channel = partial.begin(response)) {
+                    if (partial.getOffset() > 0) {
+                        // Digest data downloaded by previous attempts first
+                        FileUtils.digestMapped(partial.getPath(), digest);
+                    }
+                    StreamUtils.transfer(is, channel, digest);
+                    partial.checkComplete(channel);
+                }
+                digests = CompletableFuture.completedFuture(digest.finish());
+            } catch (IOException e) {
+                partial.interrupted();
+                throw e;
             }
         }
 
-        // Wait for checksum queries to finish
-        boolean checksumVerified = false;
-        TaskUtils.waitForAllUninterruptibly(checksumFutures);
+        // Verify once checksum is known
+        return digests.thenCombine(checksums, (computed, verified) -> SneakyThrow.get(() -> {
+            if (!MultiDigest.verify(verified, computed)) {
+                throw new IOException("Checksum mismatch");
+            }
 
-        // Verify checksums
-        for (CompletableFuture<Boolean> future : checksumFutures) {
-            Boolean artifactChecksumResult;
-            if ((artifactChecksumResult = future.getNow(null)) != null) {
-                if (!artifactChecksumResult) {
-                    throw new IOException("Checksum mismatch");
-                }
-                checksumVerified = true;
+            if (verified.isEmpty()) {
+                logger.debug("{}'s {} checksums weren't available remotely", dependency, RemoteChecksums.ALGOS);
             }
-        }
 
-        if (!checksumVerified) {
-            logger.debug("{}'s {} checksums weren't available remotely", dependency, REMOTE_CHECKSUM_ALGOS);
-        }
+            // Move into place
+            partial.complete();
+            writeChecksums(target, verified, computed);
+            CacheVerifier cacheVerifier;
+            if ((cacheVerifier = context.getCacheVerifier()) != null) {
+                cacheVerifier.record(target);
+            }
 
-        // Copy
-        FileUtils.writeAtomicReplace(target, artifactBytes);
+            // Download success!
+            logger.debug("{} download succeeded!", dependency);
+            return (Void) null;
+        })).whenComplete((ignored, e) -> {
+            if (e != null) {
+                try {
+                    // Failed download can be continued later on, data which doesn't match checksums can't
+                    if (digests.isCompletedExceptionally()) {
+                        partial.interrupted();
+                    } else {
+                        partial.discard();
+                    }
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+        });
+    }
 
-        // Download success!
-        logger.debug("{} download succeeded!", dependency);
+    private void writeChecksums(@NonNull Path target, @NonNull List<ArtifactChecksum> verified,
+                                @NonNull Map<ChecksumAlgo, byte[]> computed) {
+        // Keep verified checksums next to artifact, so it can be verified again without network access
+        for (ChecksumAlgo algo : ChecksumAlgo.values()) {
+            Path checksumPath = target.resolveSibling(target.getFileName() + "." + algo.getExt());
+            try {
+                if (verified.stream().anyMatch(checksum -> checksum.getAlgo() == algo)) {
+                    FileUtils.writeAtomicReplace(checksumPath, DataProcessor.toHex(computed.get(algo)).getBytes(StandardCharsets.US_ASCII));
+                } else {
+                    // Would not match the new artifact anymore
+                    Files.deleteIfExists(checksumPath);
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to write {} {} checksum", dependency, algo.name(), e);
+            }
+        }
     }
 
     private String fixupIdentifiers(@NonNull Dependency parent, String identifier) {
@@ -414,4 +959,16 @@ public final class DownloaderTask implements Supplier<DownloadResult> {
     private static class TransitiveDependencyNotFoundException extends Exception {
 
     }
+
+    private static final class ArtifactLocation {
+        private final URL repository;
+        private final URL pomUrl;
+        private final URL artifactUrl;
+
+        private ArtifactLocation(@NonNull URL repository, @Nullable URL pomUrl, @NonNull URL artifactUrl) {
+            this.repository = repository;
+            this.pomUrl = pomUrl;
+            this.artifactUrl = artifactUrl;
+        }
+    }
 }
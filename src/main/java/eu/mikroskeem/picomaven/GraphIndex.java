@@ -0,0 +1,350 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.Dependency;
+import eu.mikroskeem.picomaven.artifact.VersionMediator;
+import eu.mikroskeem.picomaven.internal.FileUtils;
+import eu.mikroskeem.picomaven.internal.UrlUtils;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Persistent index of already resolved dependency graphs. Stores coordinates, edges and sizes and
+ * modification times of downloaded artifacts and POMs (or their descriptors), so that a fully downloaded graph can be put
+ * together by statting files instead of parsing POMs and spawning downloader tasks.
+ *
+ * <p>Index is stored in a binary file:</p>
+ * <pre>
+ * int magic, int version, int node count
+ * node: UTF coordinate, long jar size, long jar mtime, long pom size, long pom mtime,
+ *       UTF repository, UTF artifact URL, int edge count, edge: int node index, boolean optional
+ * </pre>
+ * Missing POM is recorded with size and mtime of {@code -1}, unknown origin with empty strings.
+ *
+ * @author Mark Vainomaa
+ */
+final class GraphIndex {
+    private static final Logger logger = LoggerFactory.getLogger(GraphIndex.class);
+    private static final int MAGIC = 0x50474958; // PGIX
+    private static final int VERSION = 1;
+
+    private final Path file;
+    // Extension of stored dependency metadata, which is checked for changes along with the artifact
+    private final String descriptorExtension;
+    private final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+
+    private GraphIndex(@NonNull Path file, @NonNull String descriptorExtension) {
+        this.file = file;
+        this.descriptorExtension = descriptorExtension;
+    }
+
+    /**
+     * Puts together download result for given dependency and all of its transitive dependencies, if all of them
+     * are downloaded and unchanged since they were indexed
+     *
+     * @param downloadPath Download path
+     * @param dependency Dependency
+     * @param optional Whether dependency is optional
+     * @param mediator Version mediator of results
+     * @return Download result, or {@code null} if dependency graph is not indexed or something has changed
+     */
+    @Nullable
+    DownloadResult resolve(@NonNull Path downloadPath, @NonNull Dependency dependency, boolean optional,
+                           @NonNull VersionMediator mediator) {
+        Map<String, DownloadResult> resolved = new HashMap<>();
+        try {
+            return resolve(downloadPath, dependency, InFlightDownloads.key(dependency), optional, mediator, resolved);
+        } catch (IOException e) {
+            logger.trace("{} dependency graph index is not usable: {}", dependency, e.getMessage());
+            return null;
+        }
+    }
+
+    @NonNull
+    private DownloadResult resolve(@NonNull Path downloadPath, @NonNull Dependency dependency, @NonNull String key,
+                                   boolean optional, @NonNull VersionMediator mediator,
+                                   @NonNull Map<String, DownloadResult> resolved) throws IOException {
+        DownloadResult result;
+        if ((result = resolved.get(key)) != null) {
+            return result.isOptional() == optional ? result : copy(result, optional);
+        }
+
+        Node node;
+        if ((node = nodes.get(key)) == null) {
+            throw new IOException(key + " is not indexed");
+        }
+
+        Path artifactPath = UrlUtils.formatLocalPath(downloadPath, dependency, "jar");
+        if (!node.artifact.matches(artifactPath) || !node.pom.matches(UrlUtils.formatLocalPath(downloadPath, dependency, descriptorExtension))) {
+            throw new IOException(key + " has changed");
+        }
+
+        // Edges are acyclic, as cycles are never waited for during resolution
+        List<DownloadResult> transitive = new ArrayList<>(node.edges.size());
+        for (Edge edge : node.edges) {
+            transitive.add(resolve(downloadPath, Dependency.fromString(edge.key), edge.key, edge.optional, mediator, resolved));
+        }
+
+        result = DownloadResult.ofSuccess(dependency, artifactPath, optional, transitive, node.repository, node.artifactUrl, mediator);
+        resolved.put(key, result);
+        return result;
+    }
+
+    @NonNull
+    private static DownloadResult copy(@NonNull DownloadResult result, boolean optional) {
+        return DownloadResult.ofSuccess(result.getDependency(), result.getArtifactPath(), optional,
+                result.getTransitiveDependencies(), result.getRepository(), result.getArtifactUrl(), result.getVersionMediator());
+    }
+
+    /**
+     * Records given download result along with its transitive dependencies. Failed downloads are not
+     * recorded, and neither are the dependencies depending on them
+     *
+     * @param downloadPath Download path
+     * @param result Download result
+     */
+    void record(@NonNull Path downloadPath, @NonNull DownloadResult result) {
+        record(downloadPath, result, new HashMap<>());
+    }
+
+    private boolean record(@NonNull Path downloadPath, @NonNull DownloadResult result, @NonNull Map<String, Boolean> recorded) {
+        String key = InFlightDownloads.key(result.getDependency());
+        Boolean existing;
+        if ((existing = recorded.get(key)) != null) {
+            return existing;
+        }
+        // Non-transitive dependencies do not know their edges
+        if (!result.isSuccess() || !result.getDependency().isTransitive()) {
+            recorded.put(key, false);
+            return false;
+        }
+        recorded.put(key, false);
+
+        List<Edge> edges = new ArrayList<>(result.getTransitiveDependencies().size());
+        for (DownloadResult transitive : result.getTransitiveDependencies()) {
+            if (!record(downloadPath, transitive, recorded)) {
+                return false;
+            }
+            edges.add(new Edge(InFlightDownloads.key(transitive.getDependency()), transitive.isOptional()));
+        }
+
+        Node node;
+        try {
+            node = new Node(
+                    Stamp.of(result.getArtifactPath()),
+                    Stamp.of(UrlUtils.formatLocalPath(downloadPath, result.getDependency(), descriptorExtension)),
+                    result.getRepository(), result.getArtifactUrl(), edges);
+        } catch (IOException e) {
+            logger.trace("Failed to index {}: {}", key, e.getMessage());
+            return false;
+        }
+
+        if (!node.equals(nodes.put(key, node))) {
+            dirty = true;
+        }
+        recorded.put(key, true);
+        return true;
+    }
+
+    /**
+     * Writes index to disk, if anything has changed
+     *
+     * @throws IOException If writing fails
+     */
+    void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+
+        Map<String, Node> snapshot = new HashMap<>(nodes);
+        List<String> keys = new ArrayList<>(snapshot.keySet());
+        Map<String, Integer> indices = new HashMap<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            indices.put(keys.get(i), i);
+        }
+
+        Path temporary = FileUtils.getTemporaryFileName(file);
+        Files.createDirectories(file.getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keys.size());
+            for (String key : keys) {
+                Node node = snapshot.get(key);
+                out.writeUTF(key);
+                node.artifact.write(out);
+                node.pom.write(out);
+                out.writeUTF(node.repository != null ? node.repository.toString() : "");
+                out.writeUTF(node.artifactUrl != null ? node.artifactUrl.toString() : "");
+                out.writeInt(node.edges.size());
+                for (Edge edge : node.edges) {
+                    // Edge target was recorded along with this node
+                    out.writeInt(indices.getOrDefault(edge.key, -1));
+                    out.writeBoolean(edge.optional);
+                }
+            }
+        }
+        FileUtils.moveAtomicReplace(temporary, file);
+    }
+
+    /**
+     * Loads graph index from disk. Unreadable or missing index file results in an empty index
+     *
+     * @param file Index file
+     * @param descriptorExtension Extension of stored dependency metadata, {@code pom} or {@link ArtifactDescriptor#EXTENSION}
+     * @return Graph index
+     */
+    @NonNull
+    static GraphIndex load(@NonNull Path file, @NonNull String descriptorExtension) {
+        GraphIndex index = new GraphIndex(file, descriptorExtension);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.debug("Ignoring graph index {} of unknown format", file);
+                return index;
+            }
+
+            int count = in.readInt();
+            String[] keys = new String[count];
+            Node[] nodes = new Node[count];
+            int[][] edgeTargets = new int[count][];
+            boolean[][] edgeOptional = new boolean[count][];
+            for (int i = 0; i < count; i++) {
+                keys[i] = in.readUTF();
+                Stamp artifact = Stamp.read(in);
+                Stamp pom = Stamp.read(in);
+                String repository = in.readUTF();
+                String artifactUrl = in.readUTF();
+                int edgeCount = in.readInt();
+                edgeTargets[i] = new int[edgeCount];
+                edgeOptional[i] = new boolean[edgeCount];
+                for (int j = 0; j < edgeCount; j++) {
+                    edgeTargets[i][j] = in.readInt();
+                    edgeOptional[i][j] = in.readBoolean();
+                }
+                nodes[i] = new Node(artifact, pom,
+                        repository.isEmpty() ? null : new URL(repository),
+                        artifactUrl.isEmpty() ? null : new URL(artifactUrl),
+                        new ArrayList<>(edgeCount));
+            }
+
+            // Resolve edges once all coordinates are known
+            nodes:
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < edgeTargets[i].length; j++) {
+                    int target = edgeTargets[i][j];
+                    if (target < 0 || target >= count) {
+                        continue nodes;
+                    }
+                    nodes[i].edges.add(new Edge(keys[target], edgeOptional[i][j]));
+                }
+                index.nodes.put(keys[i], nodes[i]);
+            }
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            logger.warn("Failed to read graph index {}", file, e);
+            index.nodes.clear();
+        }
+        return index;
+    }
+
+    private static final class Node {
+        private final Stamp artifact;
+        private final Stamp pom;
+        private final URL repository;
+        private final URL artifactUrl;
+        private final List<Edge> edges;
+
+        private Node(@NonNull Stamp artifact, @NonNull Stamp pom, @Nullable URL repository,
+                     @Nullable URL artifactUrl, @NonNull List<Edge> edges) {
+            this.artifact = artifact;
+            this.pom = pom;
+            this.repository = repository;
+            this.artifactUrl = artifactUrl;
+            this.edges = edges;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Node)) return false;
+            Node node = (Node) o;
+            // URL#equals resolves host names, compare string forms instead
+            return artifact.equals(node.artifact) && pom.equals(node.pom) &&
+                    String.valueOf(repository).equals(String.valueOf(node.repository)) &&
+                    String.valueOf(artifactUrl).equals(String.valueOf(node.artifactUrl)) &&
+                    edges.equals(node.edges);
+        }
+
+        @Override
+        public int hashCode() {
+            return artifact.hashCode() * 31 + pom.hashCode();
+        }
+    }
+
+    private static final class Edge {
+        private final String key;
+        private final boolean optional;
+
+        private Edge(@NonNull String key, boolean optional) {
+            this.key = key;
+            this.optional = optional;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Edge)) return false;
+            Edge edge = (Edge) o;
+            return optional == edge.optional && key.equals(edge.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + (optional ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.ArtifactChecksum;
+import eu.mikroskeem.picomaven.artifact.Dependency;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Resolver-wide table of dependency downloads, keyed by coordinate. Every requester of the same
+ * artifact joins the same future, so each artifact is resolved exactly once per {@link PicoMaven} run.
+ * Dependencies which are not resolved transitively or which have predefined checksums are downloaded
+ * separately, as joining a download of a differently shaped or unverified dependency would not be correct.
+ * Such downloads of the same coordinate run one after another, since they write into the same files.
+ *
+ * @author Mark Vainomaa
+ */
+final class InFlightDownloads {
+    private final ConcurrentMap<String, CompletableFuture<DownloadResult>> downloads = new ConcurrentHashMap<>();
+
+    // Last download started for each coordinate
+    private final ConcurrentMap<String, CompletableFuture<DownloadResult>> latest = new ConcurrentHashMap<>();
+
+    // Which coordinates are currently waiting for which, used to detect dependency cycles
+    private final Map<String, Set<String>> waiting = new HashMap<>();
+
+    /**
+     * Gets existing download future for given dependency, or starts a new one
+     *
+     * @param dependency Dependency to download
+     * @param starter Function to start a new download with
+     * @return Download future
+     */
+    @NonNull
+    CompletableFuture<DownloadResult> computeIfAbsent(@NonNull Dependency dependency,
+                                                      @NonNull Function<String, CompletableFuture<DownloadResult>> starter) {
+        return downloads.computeIfAbsent(downloadKey(dependency), key -> latest.compute(key(dependency), (coordinate, previous) ->
+                previous == null ? starter.apply(key) : previous.handle((result, e) -> key).thenCompose(starter)));
+    }
+
+    /**
+     * Records that {@code requester} is going to wait for {@code dependency}
+     *
+     * @param requester Dependency which waits
+     * @param dependency Dependency to wait for
+     * @return Whether waiting is allowed. {@code false} is returned when waiting would form a cycle
+     */
+    boolean await(@NonNull Dependency requester, @NonNull Dependency dependency) {
+        String from = key(requester);
+        String to = key(dependency);
+        synchronized (waiting) {
+            if (reaches(to, from)) {
+                return false;
+            }
+            waiting.computeIfAbsent(from, k -> new HashSet<>()).add(to);
+            return true;
+        }
+    }
+
+    /**
+     * Records that given dependency is not waiting for anything anymore
+     *
+     * @param requester Dependency which finished waiting
+     */
+    void finished(@NonNull Dependency requester) {
+        synchronized (waiting) {
+            waiting.remove(key(requester));
+        }
+    }
+
+    private boolean reaches(@NonNull String from, @NonNull String to) {
+        Set<String> visited = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(from);
+        String current;
+        while ((current = queue.poll()) != null) {
+            if (current.equals(to)) {
+                return true;
+            }
+            if (!visited.add(current)) {
+                continue;
+            }
+            Set<String> next = waiting.get(current);
+            if (next != null) {
+                queue.addAll(next);
+            }
+        }
+        return false;
+    }
+
+    @NonNull
+    static String key(@NonNull Dependency dependency) {
+        @Nullable String classifier = dependency.getClassifier();
+        return dependency.getGroupId() + ':' + dependency.getArtifactId() + ':' + dependency.getVersion() +
+                (classifier != null ? ":" + classifier : "");
+    }
+
+    @NonNull
+    private static String downloadKey(@NonNull Dependency dependency) {
+        if (dependency.isTransitive() && dependency.getChecksums().isEmpty()) {
+            return key(dependency);
+        }
+
+        StringBuilder key = new StringBuilder(key(dependency));
+        if (!dependency.isTransitive()) {
+            key.append(";intransitive");
+        }
+        for (ArtifactChecksum checksum : dependency.getChecksums()) {
+            key.append(';').append(checksum.getAlgo().getExt()).append('=').append(checksum.getChecksum());
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.ArtifactChecksum;
+import eu.mikroskeem.picomaven.artifact.ArtifactChecksums;
+import eu.mikroskeem.picomaven.artifact.Dependency;
+import eu.mikroskeem.picomaven.internal.DataProcessor;
+import eu.mikroskeem.picomaven.internal.FileUtils;
+import eu.mikroskeem.picomaven.internal.MultiDigest;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pinned dependency graph. Lists every resolved artifact selected by version mediation along with the repository
+ * it came from, its exact URL and SHA-256 checksum, so it can be downloaded again without looking at POMs or metadata.
+ *
+ * <p>Format is line based and tab separated:</p>
+ * <pre>
+ * picomaven-lockfile 1
+ * artifact &lt;index&gt; &lt;coordinate&gt; &lt;optional&gt; &lt;repository&gt; &lt;url&gt; &lt;sha256&gt; &lt;children&gt;
+ * root &lt;index&gt;
+ * </pre>
+ * Entries only reference entries listed before them. Unknown repository, URL or children are written as {@code -}.
+ *
+ * @author Mark Vainomaa
+ */
+final class Lockfile {
+    private static final String HEADER = "picomaven-lockfile 1";
+    private static final String NONE = "-";
+
+    private final List<Entry> entries;
+    private final Map<String, Integer> roots;
+
+    private Lockfile(@NonNull List<Entry> entries, @NonNull Map<String, Integer> roots) {
+        this.entries = entries;
+        this.roots = roots;
+    }
+
+    @NonNull
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Finds entry index for given root dependency
+     *
+     * @param dependency Root dependency
+     * @return Entry index, or {@code null} if given dependency is not a root in this lockfile
+     */
+    @Nullable
+    Integer findRoot(@NonNull Dependency dependency) {
+        return roots.get(InFlightDownloads.key(dependency));
+    }
+
+    /**
+     * Builds lockfile from download results. Versions which lost version mediation are left out, along with
+     * dependencies only they bring in
+     *
+     * @param results Root download results
+     * @param graph Graph resolved from given results
+     * @return Lockfile
+     * @throws IOException If artifact checksum cannot be calculated, or if any of required downloads failed
+     */
+    @NonNull
+    static Lockfile of(@NonNull Collection<DownloadResult> results, @NonNull ResolvedGraph graph) throws IOException {
+        Map<String, Integer> indices = new HashMap<>();
+        Set<String> visiting = new HashSet<>();
+        List<Entry> entries = new ArrayList<>();
+        Map<String, Integer> roots = new LinkedHashMap<>();
+        for (DownloadResult result : results) {
+            roots.put(InFlightDownloads.key(result.getDependency()), add(result, graph, indices, visiting, entries));
+        }
+        return new Lockfile(entries, roots);
+    }
+
+    private static int add(@NonNull DownloadResult result, @NonNull ResolvedGraph graph, @NonNull Map<String, Integer> indices,
+                           @NonNull Set<String> visiting, @NonNull List<Entry> entries) throws IOException {
+        String key = InFlightDownloads.key(result.getDependency());
+        Integer existing = indices.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (!result.isSuccess()) {
+            throw new IOException("Cannot lock failed download of " + key, result.getDownloadException());
+        }
+        if (!visiting.add(key)) {
+            throw new IOException("Dependency graph has a cycle at " + key);
+        }
+
+        // Children are added first, so that every entry only references entries before it
+        List<Integer> children = new ArrayList<>(result.getTransitiveDependencies().size());
+        for (DownloadResult transitive : result.getTransitiveDependencies()) {
+            if (transitive.isSuccess() ? !graph.isSelected(transitive.getDependency()) : transitive.isOptional()) {
+                continue;
+            }
+            children.add(add(transitive, graph, indices, visiting, entries));
+        }
+        visiting.remove(key);
+
+        byte[] sha256;
+        try (MultiDigest digest = new MultiDigest(Collections.singleton(ArtifactChecksum.ChecksumAlgo.SHA256))) {
+            FileUtils.digest(result.getArtifactPath(), digest);
+            sha256 = digest.finish().get(ArtifactChecksum.ChecksumAlgo.SHA256);
+        }
+        int index = entries.size();
+        entries.add(new Entry(key, result.isOptional(), result.getRepository(), result.getArtifactUrl(),
+                DataProcessor.toHex(sha256), children));
+        indices.put(key, index);
+        return index;
+    }
+
+    /**
+     * Writes lockfile
+     *
+     * @param path Lockfile path
+     * @throws IOException If writing fails
+     */
+    void write(@NonNull Path path) throws IOException {
+        Path temporary = FileUtils.getTemporaryFileName(path);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                StringBuilder children = new StringBuilder();
+                for (int child : entry.children) {
+                    if (children.length() > 0) {
+                        children.append(',');
+                    }
+                    children.append(child);
+                }
+                writer.write(String.join("\t", "artifact", String.valueOf(i), entry.coordinate,
+                        String.valueOf(entry.optional),
+                        entry.repository != null ? entry.repository.toString() : NONE,
+                        entry.artifactUrl != null ? entry.artifactUrl.toString() : NONE,
+                        entry.sha256,
+                        children.length() > 0 ? children.toString() : NONE));
+                writer.newLine();
+            }
+            for (int root : roots.values()) {
+                writer.write("root\t" + root);
+                writer.newLine();
+            }
+        }
+        FileUtils.moveAtomicReplace(temporary, path);
+    }
+
+    /**
+     * Reads lockfile
+     *
+     * @param path Lockfile path
+     * @return Lockfile
+     * @throws IOException If reading fails or lockfile is malformed
+     */
+    @NonNull
+    static Lockfile read(@NonNull Path path) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Map<String, Integer> roots = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Unsupported lockfile " + path);
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\t");
+                try {
+                    if ("artifact".equals(parts[0]) && parts.length == 8) {
+                        if (Integer.parseInt(parts[1]) != entries.size()) {
+                            throw new IOException("Lockfile entries are out of order");
+                        }
+                        List<Integer> children = new ArrayList<>();
+                        if (!NONE.equals(parts[7])) {
+                            for (String child : parts[7].split(",")) {
+                                children.add(Integer.parseInt(child));
+                            }
+                        }
+                        entries.add(new Entry(parts[2], Boolean.parseBoolean(parts[3]),
+                                NONE.equals(parts[4]) ? null : new URL(parts[4]),
+                                NONE.equals(parts[5]) ? null : new URL(parts[5]),
+                                parts[6], children));
+                    } else if ("root".equals(parts[0]) && parts.length == 2) {
+                        int root = Integer.parseInt(parts[1]);
+                        roots.put(entries.get(root).coordinate, root);
+                    } else {
+                        throw new IOException("Malformed lockfile line '" + line + "'");
+                    }
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    throw new IOException("Malformed lockfile line '" + line + "'", e);
+                }
+            }
+        }
+
+        // Validate references. Entries may only reference entries before them, which rules out cycles
+        for (int i = 0; i < entries.size(); i++) {
+            for (int child : entries.get(i).children) {
+                if (child < 0 || child >= i) {
+                    throw new IOException("Lockfile entry " + entries.get(i).coordinate + " references invalid entry " + child);
+                }
+            }
+        }
+        return new Lockfile(entries, roots);
+    }
+
+    /**
+     * Single pinned artifact
+     */
+    static final class Entry {
+        private final String coordinate;
+        private final boolean optional;
+        private final URL repository;
+        private final URL artifactUrl;
+        private final String sha256;
+        private final List<Integer> children;
+
+        private Entry(@NonNull String coordinate, boolean optional, @Nullable URL repository,
+                      @Nullable URL artifactUrl, @NonNull String sha256, @NonNull List<Integer> children) {
+            this.coordinate = coordinate;
+            this.optional = optional;
+            this.repository = repository;
+            this.artifactUrl = artifactUrl;
+            this.sha256 = sha256;
+            this.children = Collections.unmodifiableList(children);
+        }
+
+        /**
+         * Builds dependency for downloading this entry. Transitive dependencies are not looked up and
+         * artifact is verified against pinned checksum
+         *
+         * @return Dependency
+         */
+        @NonNull
+        Dependency toPinnedDependency() {
+            Dependency dependency = toDependency();
+            return new Dependency(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion(),
+                    dependency.getClassifier(), false, Collections.singletonList(ArtifactChecksums.sha256HexSumOf(sha256)));
+        }
+
+        @NonNull
+        Dependency toDependency() {
+            return Dependency.fromString(coordinate);
+        }
+
+        boolean isOptional() {
+            return optional;
+        }
+
+        @Nullable
+        URL getRepository() {
+            return repository;
+        }
+
+        @Nullable
+        URL getArtifactUrl() {
+            return artifactUrl;
+        }
+
+        @NonNull
+        List<Integer> getChildren() {
+            return children;
+        }
+    }
+}
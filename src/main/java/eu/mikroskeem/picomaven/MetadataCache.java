@@ -0,0 +1,198 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.ArtifactChecksum;
+import eu.mikroskeem.picomaven.internal.DataProcessor;
+import eu.mikroskeem.picomaven.internal.FileUtils;
+import eu.mikroskeem.picomaven.internal.StreamUtils;
+import eu.mikroskeem.picomaven.transport.Transport;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * On-disk cache of {@code maven-metadata.xml} files. Cached copies are revalidated with conditional
+ * requests ({@code If-None-Match} and {@code If-Modified-Since}), so unchanged metadata costs a
+ * header-only exchange. Each metadata URL is revalidated once per run.
+ *
+ * <p>Every metadata file is cached in its own file, named after SHA-1 of its URL:</p>
+ * <pre>
+ * int magic, int version, UTF URL, UTF ETag, UTF Last-Modified, int length, byte[length] metadata XML
+ * </pre>
+ * Missing validators are stored as empty strings.
+ *
+ * @author Mark Vainomaa
+ */
+final class MetadataCache {
+    private static final Logger logger = LoggerFactory.getLogger(MetadataCache.class);
+    private static final int MAGIC = 0x504d4443; // PMDC
+    private static final int VERSION = 1;
+
+    private final Path directory;
+    private final ConcurrentMap<String, Entry> revalidated = new ConcurrentHashMap<>();
+
+    MetadataCache(@NonNull Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets metadata, from cache if it has not changed remotely
+     *
+     * @param transport Transport to use
+     * @param url Metadata URL
+     * @return Parsed metadata, or {@code null} if it does not exist
+     * @throws IOException If request fails
+     */
+    @Nullable
+    Metadata get(@NonNull Transport transport, @NonNull URL url) throws IOException {
+        String key = url.toString();
+        Entry entry;
+        if ((entry = revalidated.get(key)) != null) {
+            return entry.metadata;
+        }
+
+        Path file = directory.resolve(fileName(key));
+        Entry cached = read(file, key);
+        Map<String, String> headers = new HashMap<>(2);
+        if (cached != null) {
+            if (!cached.etag.isEmpty()) {
+                headers.put("If-None-Match", cached.etag);
+            }
+            if (!cached.lastModified.isEmpty()) {
+                headers.put("If-Modified-Since", cached.lastModified);
+            }
+        }
+
+        Transport.Response response = transport.request("GET", url, headers);
+        if (response.getStatusCode() == 304 && cached != null) {
+            response.close();
+            logger.trace("{} has not changed", url);
+            revalidated.put(key, cached);
+            return cached.metadata;
+        }
+
+        byte[] body;
+        try (Transport.Response success = Transport.expectSuccess(response, url); InputStream is = success.getBody()) {
+            body = StreamUtils.readBytes(is);
+            entry = new Entry(header(success, "ETag"), header(success, "Last-Modified"), body,
+                    DataProcessor.readMetadata(new ByteArrayInputStream(body)));
+        } catch (FileNotFoundException e) {
+            Files.deleteIfExists(file);
+            revalidated.put(key, Entry.MISSING);
+            return null;
+        }
+
+        revalidated.put(key, entry);
+        if (!entry.etag.isEmpty() || !entry.lastModified.isEmpty()) {
+            try {
+                write(file, key, entry);
+            } catch (IOException e) {
+                logger.warn("Failed to cache metadata {}", url, e);
+            }
+        }
+        return entry.metadata;
+    }
+
+    private static void write(@NonNull Path file, @NonNull String url, @NonNull Entry entry) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(entry.body.length + 256);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(url);
+            out.writeUTF(entry.etag);
+            out.writeUTF(entry.lastModified);
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+        }
+        FileUtils.writeAtomicReplace(file, buffer.toByteArray());
+    }
+
+    @Nullable
+    private static Entry read(@NonNull Path file, @NonNull String url) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !url.equals(in.readUTF())) {
+                return null;
+            }
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new Entry(etag, lastModified, body, DataProcessor.readMetadata(new ByteArrayInputStream(body)));
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            logger.debug("Ignoring unreadable cached metadata {}: {}", file, e.getMessage());
+        }
+        return null;
+    }
+
+    @NonNull
+    private static String header(Transport.@NonNull Response response, @NonNull String name) {
+        String value = response.getHeader(name);
+        return value != null ? value : "";
+    }
+
+    @NonNull
+    private static String fileName(@NonNull String url) {
+        byte[] digest = ArtifactChecksum.ChecksumAlgo.SHA1.getMessageDigest().digest(url.getBytes(StandardCharsets.UTF_8));
+        return DataProcessor.toHex(digest);
+    }
+
+    private static final class Entry {
+        private static final Entry MISSING = new Entry("", "", new byte[0], null);
+
+        private final String etag;
+        private final String lastModified;
+        private final byte[] body;
+        private final Metadata metadata;
+
+        private Entry(@NonNull String etag, @NonNull String lastModified, byte @NonNull [] body, @Nullable Metadata metadata) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+            this.metadata = metadata;
+        }
+    }
+}
@@ -0,0 +1,627 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.Dependency;
+import eu.mikroskeem.picomaven.internal.DataProcessor;
+import eu.mikroskeem.picomaven.internal.FileUtils;
+import eu.mikroskeem.picomaven.internal.SneakyThrow;
+import eu.mikroskeem.picomaven.internal.TaskUtils;
+import eu.mikroskeem.picomaven.internal.UrlUtils;
+import eu.mikroskeem.picomaven.transport.Transport;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.Repository;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Builds effective models out of downloaded POMs: parent POMs are inherited from, properties are
+ * interpolated, BOMs are imported and dependency management is applied to dependencies.
+ * <p>
+ * Parents and BOMs are usually shared by many artifacts, so they are fetched and parsed only once per
+ * run, and raw copies of them are kept on disk for later runs. Cached {@code -SNAPSHOT} parents and BOMs
+ * are checked for updates according to {@link UpdatePolicy} of the repository they came from.
+ *
+ * @author Mark Vainomaa
+ */
+final class ModelResolver {
+    private static final Logger logger = LoggerFactory.getLogger(ModelResolver.class);
+    // Properties referring to other properties are expanded at most this deep
+    private static final int MAX_INTERPOLATION_DEPTH = 16;
+
+    private final Transport transport;
+    private final RequestScheduler requestScheduler;
+    private final RepositoryRoutes repositoryRoutes;
+    private final Path modelsPath;
+    @Nullable
+    private final MetadataCache metadataCache;
+    private final Function<@Nullable URL, UpdatePolicy> snapshotUpdatePolicies;
+    // Models with their parents merged in, not interpolated yet
+    private final ConcurrentMap<String, CompletableFuture<Model>> inherited = new ConcurrentHashMap<>();
+    // Effective models of imported BOMs
+    private final ConcurrentMap<String, CompletableFuture<Model>> boms = new ConcurrentHashMap<>();
+    // Which models being loaded are waiting for which, used to detect cycles between models loaded for
+    // different callers. Models are named by cache and coordinate, e.g. "parent:group:artifact:version"
+    private final Map<String, Set<String>> waiting = new HashMap<>();
+
+    ModelResolver(@NonNull Transport transport, @NonNull RequestScheduler requestScheduler,
+                  @NonNull RepositoryRoutes repositoryRoutes, @NonNull Path modelsPath,
+                  @Nullable MetadataCache metadataCache,
+                  @NonNull Function<@Nullable URL, UpdatePolicy> snapshotUpdatePolicies) {
+        this.transport = transport;
+        this.requestScheduler = requestScheduler;
+        this.repositoryRoutes = repositoryRoutes;
+        this.modelsPath = modelsPath;
+        this.metadataCache = metadataCache;
+        this.snapshotUpdatePolicies = snapshotUpdatePolicies;
+    }
+
+    /**
+     * Builds effective model of given POM. Parents and BOMs which cannot be found are skipped with a warning
+     *
+     * @param model Model as read from POM
+     * @param root Root dependency the work is done for
+     * @param repositories Repositories to look parents and BOMs up from
+     * @return Future completing with effective model. Given model is not modified
+     */
+    @NonNull
+    CompletableFuture<Model> resolve(@NonNull Model model, @NonNull Dependency root, @NonNull Collection<URL> repositories) {
+        Set<String> chain = Collections.singleton(key(model.getGroupId() != null ? model.getGroupId() : parentGroupId(model),
+                model.getArtifactId(), model.getVersion() != null ? model.getVersion() : parentVersion(model)));
+        return effective(model, root, new ArrayList<>(repositories), chain, null);
+    }
+
+    @NonNull
+    private CompletableFuture<Model> effective(@NonNull Model model, @NonNull Dependency root,
+                                               @NonNull List<URL> repositories, @NonNull Set<String> chain,
+                                               @Nullable String requester) {
+        return inherit(model, root, repositories, chain, requester).thenCompose(inherited -> {
+            Model effective = inherited.clone();
+            interpolate(effective);
+            return importBoms(effective, root, repositories, chain, requester);
+        }).thenApply(effective -> {
+            applyManagement(effective);
+            return effective;
+        });
+    }
+
+    @NonNull
+    private CompletableFuture<Model> inherit(@NonNull Model model, @NonNull Dependency root,
+                                             @NonNull List<URL> repositories, @NonNull Set<String> chain,
+                                             @Nullable String requester) {
+        Parent parent = model.getParent();
+        if (parent == null || parent.getGroupId() == null || parent.getArtifactId() == null || parent.getVersion() == null) {
+            return CompletableFuture.completedFuture(model);
+        }
+
+        String key = key(parent.getGroupId(), parent.getArtifactId(), parent.getVersion());
+        if (chain.contains(key)) {
+            logger.warn("{}:{} parent {} forms a cycle, ignoring it", model.getGroupId(), model.getArtifactId(), key);
+            return CompletableFuture.completedFuture(model);
+        }
+
+        return inherited(parent, root, repositories, extend(chain, key), requester).handle((parentModel, e) -> {
+            if (e != null) {
+                logger.warn("Failed to resolve {} parent POM {}: {}", model.getArtifactId(), key, TaskUtils.unwrap(e).toString());
+                return model;
+            }
+            return merge(model, parentModel);
+        });
+    }
+
+    @NonNull
+    private CompletableFuture<Model> inherited(@NonNull Parent parent, @NonNull Dependency root,
+                                               @NonNull List<URL> repositories, @NonNull Set<String> chain,
+                                               @Nullable String requester) {
+        Dependency coordinate = new Dependency(parent.getGroupId(), parent.getArtifactId(), parent.getVersion());
+        String name = "parent:" + key(coordinate);
+        return memoize(inherited, key(coordinate), name, requester, () -> fetch(coordinate, root, repositories)
+                .thenCompose(model -> inherit(model, root, repositories, chain, name)));
+    }
+
+    @NonNull
+    private CompletableFuture<Model> importBoms(@NonNull Model model, @NonNull Dependency root,
+                                                @NonNull List<URL> repositories, @NonNull Set<String> chain,
+                                                @Nullable String requester) {
+        DependencyManagement management = model.getDependencyManagement();
+        if (management == null) {
+            return CompletableFuture.completedFuture(model);
+        }
+
+        // Imports are replaced with BOM contents, in declaration order
+        List<org.apache.maven.model.Dependency> declared = management.getDependencies();
+        List<CompletableFuture<Model>> imports = new ArrayList<>();
+        for (org.apache.maven.model.Dependency dependency : declared) {
+            if (!isImport(dependency)) {
+                continue;
+            }
+
+            String key = key(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion());
+            if (chain.contains(key) || dependency.getVersion() == null || dependency.getVersion().contains("${")) {
+                logger.warn("{}:{} cannot import BOM {}", model.getGroupId(), model.getArtifactId(), key);
+                imports.add(CompletableFuture.completedFuture(null));
+                continue;
+            }
+
+            Dependency coordinate = new Dependency(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion());
+            Set<String> bomChain = extend(chain, key);
+            String name = "bom:" + key;
+            imports.add(memoize(boms, key, name, requester, () -> fetch(coordinate, root, repositories)
+                    .thenCompose(bom -> effective(bom, root, repositories, bomChain, name)))
+                    .handle((bom, e) -> {
+                        if (e != null) {
+                            logger.warn("Failed to import {}:{} BOM {}: {}", model.getGroupId(), model.getArtifactId(),
+                                    key, TaskUtils.unwrap(e).toString());
+                            return null;
+                        }
+                        return bom;
+                    }));
+        }
+        if (imports.isEmpty()) {
+            return CompletableFuture.completedFuture(model);
+        }
+
+        return TaskUtils.waitForAll(imports).thenApply(ignored -> {
+            Map<String, org.apache.maven.model.Dependency> managed = new LinkedHashMap<>();
+            int index = 0;
+            for (org.apache.maven.model.Dependency dependency : declared) {
+                if (!isImport(dependency)) {
+                    managed.putIfAbsent(managementKey(dependency), dependency);
+                }
+            }
+            for (org.apache.maven.model.Dependency dependency : declared) {
+                Model bom;
+                if (!isImport(dependency) || (bom = imports.get(index++).join()) == null
+                        || bom.getDependencyManagement() == null) {
+                    continue;
+                }
+                // Directly managed dependencies and earlier imports take precedence
+                for (org.apache.maven.model.Dependency imported : bom.getDependencyManagement().getDependencies()) {
+                    managed.putIfAbsent(managementKey(imported), imported);
+                }
+            }
+            management.setDependencies(new ArrayList<>(managed.values()));
+            return model;
+        });
+    }
+
+    @NonNull
+    private CompletableFuture<Model> fetch(@NonNull Dependency coordinate, @NonNull Dependency root,
+                                           @NonNull List<URL> repositories) {
+        Path path = UrlUtils.formatLocalPath(modelsPath, coordinate, "pom");
+        if (!isSnapshot(coordinate) || !isSnapshotUpdateRequired(ArtifactOrigin.read(path))) {
+            try {
+                Model model;
+                if ((model = DataProcessor.getPom(path)) != null) {
+                    return CompletableFuture.completedFuture(model);
+                }
+            } catch (IOException e) {
+                logger.debug("Cached POM {} is unreadable: {}", path, e.getMessage());
+            }
+        }
+        return fetch(coordinate, root, repositoryRoutes.route(coordinate.getGroupId(), repositories), 0, path);
+    }
+
+    @NonNull
+    private CompletableFuture<Model> fetch(@NonNull Dependency coordinate, @NonNull Dependency root,
+                                           @NonNull List<URL> repositories, int index, @NonNull Path path) {
+        if (index == repositories.size()) {
+            CompletableFuture<Model> future = new CompletableFuture<>();
+            future.completeExceptionally(new FileNotFoundException(coordinate + " POM was not found from any repository"));
+            return future;
+        }
+
+        URL repository = repositories.get(index);
+        logger.trace("Downloading POM {} from {}", coordinate, repository);
+        return CompletableFuture.supplyAsync(() -> SneakyThrow.get(() -> {
+            URL url = locate(repository, coordinate);
+            Model model;
+            if ((model = DataProcessor.getPom(transport, url)) != null) {
+                write(model, path, isSnapshot(coordinate) ? new ArtifactOrigin(repository, url, url, System.currentTimeMillis()) : null);
+            }
+            return model;
+        }), requestScheduler.executor(root, repository)).handle((model, e) -> {
+            if (e != null) {
+                logger.debug("Failed to download {} POM from {}: {}", coordinate, repository, TaskUtils.unwrap(e).toString());
+            }
+            return model;
+        }).thenCompose(model -> model != null
+                ? CompletableFuture.completedFuture(model)
+                : fetch(coordinate, root, repositories, index + 1, path));
+    }
+
+    /**
+     * Finds URL of given POM. Snapshots are resolved to timestamped builds using repository metadata,
+     * same way as artifacts are
+     */
+    @NonNull
+    private URL locate(@NonNull URL repository, @NonNull Dependency coordinate) throws IOException {
+        if (!coordinate.getVersion().endsWith("-SNAPSHOT")) {
+            return UrlUtils.buildDirectArtifactUrl(repository, coordinate, "pom");
+        }
+
+        // Without metadata, repository might still have a non-unique snapshot
+        Metadata groupMetadata = getMetadata(UrlUtils.buildGroupMetaURL(repository, coordinate));
+        Metadata artifactMetadata = groupMetadata != null
+                ? getMetadata(UrlUtils.buildArtifactMetaURL(repository, groupMetadata, coordinate))
+                : null;
+        return UrlUtils.buildArtifactURL(repository, artifactMetadata, coordinate, "pom");
+    }
+
+    @Nullable
+    private Metadata getMetadata(@NonNull URL url) throws IOException {
+        if (metadataCache != null) {
+            return metadataCache.get(transport, url);
+        }
+        return DataProcessor.getMetadata(transport, url);
+    }
+
+    private boolean isSnapshotUpdateRequired(@Nullable ArtifactOrigin origin) {
+        long resolved = origin != null ? origin.getResolved() : 0;
+        UpdatePolicy policy = snapshotUpdatePolicies.apply(origin != null ? origin.getRepository() : null);
+        return policy.isUpdateRequired(resolved, System.currentTimeMillis());
+    }
+
+    private static boolean isSnapshot(@NonNull Dependency coordinate) {
+        return coordinate.getVersion().endsWith("-SNAPSHOT");
+    }
+
+    private static void write(@NonNull Model model, @NonNull Path path, @Nullable ArtifactOrigin origin) {
+        try {
+            Path temporary = FileUtils.getTemporaryFileName(path);
+            Files.createDirectories(path.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                DataProcessor.serializeModel(model, writer, false);
+            }
+            FileUtils.moveAtomicReplace(temporary, path);
+            if (origin != null) {
+                origin.write(path);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to cache POM {}", path, e);
+        }
+    }
+
+    /**
+     * Gets model from given cache, loading it if needed. Model which is being loaded already can only be
+     * waited for if it's not waiting for the requester itself, otherwise neither of them would ever complete
+     *
+     * @param cache Cache to look model up from
+     * @param key Cache key
+     * @param name Name of the model in {@link #waiting}
+     * @param requester Name of the model which is going to wait for this one, or {@code null} if it's not cached
+     * @param loader Loader to load the model with
+     * @return Future completing with the model, or failing if waiting for it would form a cycle
+     */
+    @NonNull
+    private CompletableFuture<Model> memoize(@NonNull ConcurrentMap<String, CompletableFuture<Model>> cache,
+                                             @NonNull String key, @NonNull String name, @Nullable String requester,
+                                             @NonNull Supplier<CompletableFuture<Model>> loader) {
+        CompletableFuture<Model> existing;
+        if ((existing = cache.get(key)) != null) {
+            return await(requester, name, existing);
+        }
+
+        // Loading may need other entries, so it can't happen inside computeIfAbsent
+        CompletableFuture<Model> future = new CompletableFuture<>();
+        if ((existing = cache.putIfAbsent(key, future)) != null) {
+            return await(requester, name, existing);
+        }
+        CompletableFuture<Model> awaited = await(requester, name, future);
+        try {
+            loader.get().whenComplete((model, e) -> {
+                if (e != null) {
+                    future.completeExceptionally(TaskUtils.unwrap(e));
+                } else {
+                    future.complete(model);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return awaited;
+    }
+
+    @NonNull
+    private CompletableFuture<Model> await(@Nullable String requester, @NonNull String name,
+                                           @NonNull CompletableFuture<Model> future) {
+        if (requester == null || future.isDone()) {
+            return future;
+        }
+
+        synchronized (waiting) {
+            if (requester.equals(name) || reaches(name, requester)) {
+                CompletableFuture<Model> cycle = new CompletableFuture<>();
+                cycle.completeExceptionally(new IllegalStateException(requester + " and " + name + " form a cycle"));
+                return cycle;
+            }
+            waiting.computeIfAbsent(requester, k -> new HashSet<>()).add(name);
+        }
+        return future.whenComplete((model, e) -> {
+            synchronized (waiting) {
+                Set<String> awaited;
+                if ((awaited = waiting.get(requester)) != null && awaited.remove(name) && awaited.isEmpty()) {
+                    waiting.remove(requester);
+                }
+            }
+        });
+    }
+
+    private boolean reaches(@NonNull String from, @NonNull String to) {
+        Set<String> visited = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(from);
+        String current;
+        while ((current = queue.poll()) != null) {
+            if (current.equals(to)) {
+                return true;
+            }
+            if (!visited.add(current)) {
+                continue;
+            }
+            Set<String> next = waiting.get(current);
+            if (next != null) {
+                queue.addAll(next);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Merges parent model into a copy of child model, child taking precedence
+     */
+    @NonNull
+    private static Model merge(@NonNull Model child, @NonNull Model parent) {
+        Model merged = child.clone();
+        if (merged.getGroupId() == null) {
+            merged.setGroupId(parent.getGroupId());
+        }
+        if (merged.getVersion() == null) {
+            merged.setVersion(parent.getVersion());
+        }
+
+        Properties properties = new Properties();
+        properties.putAll(parent.getProperties());
+        properties.putAll(child.getProperties());
+        merged.setProperties(properties);
+
+        merged.setDependencies(mergeDependencies(child.getDependencies(), parent.getDependencies()));
+        if (parent.getDependencyManagement() != null) {
+            DependencyManagement management = new DependencyManagement();
+            management.setDependencies(mergeDependencies(
+                    child.getDependencyManagement() != null ? child.getDependencyManagement().getDependencies() : Collections.emptyList(),
+                    parent.getDependencyManagement().getDependencies()));
+            merged.setDependencyManagement(management);
+        }
+
+        List<Repository> repositories = new ArrayList<>(child.getRepositories());
+        Set<String> urls = new HashSet<>();
+        for (Repository repository : repositories) {
+            urls.add(repository.getUrl());
+        }
+        for (Repository repository : parent.getRepositories()) {
+            if (urls.add(repository.getUrl())) {
+                repositories.add(repository.clone());
+            }
+        }
+        merged.setRepositories(repositories);
+        return merged;
+    }
+
+    @NonNull
+    private static List<org.apache.maven.model.Dependency> mergeDependencies(@NonNull List<org.apache.maven.model.Dependency> child,
+                                                                           @NonNull List<org.apache.maven.model.Dependency> parent) {
+        Map<String, org.apache.maven.model.Dependency> merged = new LinkedHashMap<>();
+        for (org.apache.maven.model.Dependency dependency : child) {
+            merged.putIfAbsent(managementKey(dependency), dependency.clone());
+        }
+        for (org.apache.maven.model.Dependency dependency : parent) {
+            merged.putIfAbsent(managementKey(dependency), dependency.clone());
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    private static void interpolate(@NonNull Model model) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String name : model.getProperties().stringPropertyNames()) {
+            values.put(name, model.getProperties().getProperty(name));
+        }
+        putProjectValue(values, "groupId", model.getGroupId());
+        putProjectValue(values, "artifactId", model.getArtifactId());
+        putProjectValue(values, "version", model.getVersion());
+        if (model.getParent() != null) {
+            putProjectValue(values, "parent.groupId", model.getParent().getGroupId());
+            putProjectValue(values, "parent.artifactId", model.getParent().getArtifactId());
+            putProjectValue(values, "parent.version", model.getParent().getVersion());
+            putValue(values, "parent.version", model.getParent().getVersion());
+        }
+
+        model.setGroupId(interpolate(model.getGroupId(), values));
+        model.setVersion(interpolate(model.getVersion(), values));
+        interpolate(model.getDependencies(), values);
+        if (model.getDependencyManagement() != null) {
+            interpolate(model.getDependencyManagement().getDependencies(), values);
+        }
+        for (Repository repository : model.getRepositories()) {
+            repository.setUrl(interpolate(repository.getUrl(), values));
+        }
+    }
+
+    private static void interpolate(@NonNull List<org.apache.maven.model.Dependency> dependencies, @NonNull Map<String, String> values) {
+        for (org.apache.maven.model.Dependency dependency : dependencies) {
+            dependency.setGroupId(interpolate(dependency.getGroupId(), values));
+            dependency.setArtifactId(interpolate(dependency.getArtifactId(), values));
+            dependency.setVersion(interpolate(dependency.getVersion(), values));
+            dependency.setClassifier(interpolate(dependency.getClassifier(), values));
+            dependency.setType(interpolate(dependency.getType(), values));
+            dependency.setScope(interpolate(dependency.getScope(), values));
+            dependency.setOptional(interpolate(dependency.getOptional(), values));
+        }
+    }
+
+    private static void putProjectValue(@NonNull Map<String, String> values, @NonNull String name, @Nullable String value) {
+        putValue(values, "project." + name, value);
+        putValue(values, "pom." + name, value);
+    }
+
+    private static void putValue(@NonNull Map<String, String> values, @NonNull String name, @Nullable String value) {
+        if (value != null) {
+            values.put(name, value);
+        }
+    }
+
+    /**
+     * Replaces {@code ${...}} expressions in given value. Unknown expressions are left as-is
+     */
+    @Nullable
+    static String interpolate(@Nullable String value, @NonNull Map<String, String> values) {
+        for (int depth = 0; value != null && value.contains("${") && depth < MAX_INTERPOLATION_DEPTH; depth++) {
+            StringBuilder result = new StringBuilder(value.length());
+            int position = 0;
+            int start;
+            boolean replaced = false;
+            while ((start = value.indexOf("${", position)) != -1) {
+                int end = value.indexOf('}', start + 2);
+                if (end == -1) {
+                    break;
+                }
+                String replacement = values.get(value.substring(start + 2, end));
+                result.append(value, position, start);
+                if (replacement != null) {
+                    result.append(replacement);
+                    replaced = true;
+                } else {
+                    result.append(value, start, end + 1);
+                }
+                position = end + 1;
+            }
+            result.append(value, position, value.length());
+            value = result.toString();
+            if (!replaced) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Fills in versions, scopes and optionality of dependencies from dependency management
+     */
+    private static void applyManagement(@NonNull Model model) {
+        DependencyManagement management = model.getDependencyManagement();
+        if (management == null || management.getDependencies().isEmpty()) {
+            return;
+        }
+
+        Map<String, org.apache.maven.model.Dependency> managed = new LinkedHashMap<>();
+        for (org.apache.maven.model.Dependency dependency : management.getDependencies()) {
+            managed.putIfAbsent(managementKey(dependency), dependency);
+        }
+        for (org.apache.maven.model.Dependency dependency : model.getDependencies()) {
+            org.apache.maven.model.Dependency managedDependency;
+            if ((managedDependency = managed.get(managementKey(dependency))) == null) {
+                continue;
+            }
+            if (dependency.getVersion() == null || dependency.getVersion().isEmpty()) {
+                dependency.setVersion(managedDependency.getVersion());
+            }
+            if (dependency.getScope() == null && managedDependency.getScope() != null) {
+                dependency.setScope(managedDependency.getScope());
+            }
+            if (dependency.getOptional() == null && managedDependency.getOptional() != null) {
+                dependency.setOptional(managedDependency.getOptional());
+            }
+        }
+    }
+
+    private static boolean isImport(org.apache.maven.model.@NonNull Dependency dependency) {
+        return "import".equals(dependency.getScope()) && "pom".equals(dependency.getType());
+    }
+
+    @Nullable
+    private static String parentGroupId(@NonNull Model model) {
+        return model.getParent() != null ? model.getParent().getGroupId() : null;
+    }
+
+    @Nullable
+    private static String parentVersion(@NonNull Model model) {
+        return model.getParent() != null ? model.getParent().getVersion() : null;
+    }
+
+    @NonNull
+    private static String managementKey(org.apache.maven.model.@NonNull Dependency dependency) {
+        // Dependency#getManagementKey caches the key, which goes stale once dependency is interpolated
+        return dependency.getGroupId() + ":" + dependency.getArtifactId() + ":" + dependency.getType()
+                + (dependency.getClassifier() != null ? ":" + dependency.getClassifier() : "");
+    }
+
+    @NonNull
+    private static Set<String> extend(@NonNull Set<String> chain, @NonNull String key) {
+        Set<String> extended = new HashSet<>(chain);
+        extended.add(key);
+        return extended;
+    }
+
+    @NonNull
+    private static String key(@NonNull Dependency dependency) {
+        return key(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion());
+    }
+
+    @NonNull
+    private static String key(@Nullable String groupId, @Nullable String artifactId, @Nullable String version) {
+        return groupId + ":" + artifactId + ":" + version;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.Dependency;
+import eu.mikroskeem.picomaven.internal.FileUtils;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Persistent cache of artifacts which were not found from given repositories. Entries expire after
+ * configured amount of time, so artifacts published later on will be picked up eventually.
+ *
+ * @author Mark Vainomaa
+ */
+final class NegativeLookupCache {
+    private static final Logger logger = LoggerFactory.getLogger(NegativeLookupCache.class);
+
+    private final Path file;
+    private final long ttl;
+    private final ConcurrentMap<String, Long> misses = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+
+    private NegativeLookupCache(@NonNull Path file, long ttl) {
+        this.file = file;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns whether given repository is known not to have given dependency
+     *
+     * @param repository Repository URL
+     * @param dependency Dependency
+     * @return Whether lookup from given repository can be skipped
+     */
+    boolean isKnownMiss(@NonNull URL repository, @NonNull Dependency dependency) {
+        Long timestamp = misses.get(key(repository, dependency));
+        return timestamp != null && System.currentTimeMillis() - timestamp < ttl;
+    }
+
+    /**
+     * Records that given repository does not have given dependency
+     *
+     * @param repository Repository URL
+     * @param dependency Dependency
+     */
+    void recordMiss(@NonNull URL repository, @NonNull Dependency dependency) {
+        misses.put(key(repository, dependency), System.currentTimeMillis());
+        dirty = true;
+    }
+
+    /**
+     * Writes cache to disk, if anything has changed
+     *
+     * @throws IOException If writing fails
+     */
+    void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+
+        Path temporary = FileUtils.getTemporaryFileName(file);
+        Files.createDirectories(file.getParent());
+        long now = System.currentTimeMillis();
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> entry : misses.entrySet()) {
+                // Expired entries are not worth keeping
+                if (now - entry.getValue() >= ttl) {
+                    continue;
+                }
+                writer.write(entry.getValue() + "\t" + entry.getKey());
+                writer.newLine();
+            }
+        }
+        FileUtils.moveAtomicReplace(temporary, file);
+    }
+
+    /**
+     * Loads negative lookup cache from disk. Unreadable or missing cache file results in an empty cache
+     *
+     * @param file Cache file
+     * @param ttl How long misses are remembered, in milliseconds
+     * @return Negative lookup cache
+     */
+    @NonNull
+    static NegativeLookupCache load(@NonNull Path file, long ttl) {
+        NegativeLookupCache cache = new NegativeLookupCache(file, ttl);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 2);
+                if (parts.length != 2) {
+                    continue;
+                }
+                try {
+                    cache.misses.put(parts[1], Long.parseLong(parts[0]));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            logger.warn("Failed to read negative lookup cache {}", file, e);
+        }
+        return cache;
+    }
+
+    @NonNull
+    private static String key(@NonNull URL repository, @NonNull Dependency dependency) {
+        return repository + "\t" + InFlightDownloads.key(dependency);
+    }
+}
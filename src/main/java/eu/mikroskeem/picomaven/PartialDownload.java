@@ -0,0 +1,343 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.internal.FileUtils;
+import eu.mikroskeem.picomaven.transport.Transport;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Artifact download which can be continued after being interrupted. Data is written into
+ * {@code <artifact>.part} file, and URL, validator ({@code ETag} or {@code Last-Modified}) and expected
+ * length of the response into {@code <artifact>.part.meta} file. Next attempt, even from another process,
+ * continues with a {@code Range} request if the server supports it, and starts over otherwise.
+ *
+ * @author Mark Vainomaa
+ */
+final class PartialDownload {
+    private static final Logger logger = LoggerFactory.getLogger(PartialDownload.class);
+
+    private final Path target;
+    private final Path part;
+    private final Path meta;
+    private final URL url;
+    private String validator;
+    private long length;
+    private long offset;
+
+    private PartialDownload(@NonNull Path target, @NonNull URL url, @Nullable String validator, long length, long offset) {
+        this.target = target;
+        this.part = target.resolveSibling(target.getFileName() + ".part");
+        this.meta = target.resolveSibling(target.getFileName() + ".part.meta");
+        this.url = url;
+        this.validator = validator;
+        this.length = length;
+        this.offset = offset;
+    }
+
+    @NonNull
+    Path getTarget() {
+        return target;
+    }
+
+    /**
+     * Gets path of the file where data is downloaded to
+     *
+     * @return Partial file path
+     */
+    @NonNull
+    Path getPath() {
+        return part;
+    }
+
+    /**
+     * Gets amount of bytes already downloaded
+     *
+     * @return Amount of bytes to continue from
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Requests artifact, asking only for the missing part if some of it is already downloaded
+     *
+     * @param transport Transport to use
+     * @return Successful response. Must be passed to {@link #begin(Transport.Response)} and closed after use
+     * @throws IOException If request fails
+     */
+    Transport.@NonNull Response request(@NonNull Transport transport) throws IOException {
+        if (offset == 0) {
+            return transport.get(url);
+        }
+
+        Map<String, String> headers = new HashMap<>(2);
+        headers.put("Range", "bytes=" + offset + "-");
+        headers.put("If-Range", validator);
+        Transport.Response response = transport.request("GET", url, headers);
+        if (response.getStatusCode() == 416) {
+            // Partial file is not valid for the current artifact anymore
+            response.close();
+            discard();
+            response = transport.request("GET", url, Collections.emptyMap());
+        }
+        return Transport.expectSuccess(response, url);
+    }
+
+    /**
+     * Starts receiving response body. Partial file is truncated to where response body continues from.
+     *
+     * @param response Response returned from {@link #request(Transport)}
+     * @return Channel to write response body into, positioned after already downloaded data
+     * @throws IOException If opening partial file fails
+     */
+    @NonNull
+    FileChannel begin(Transport.@NonNull Response response) throws IOException {
+        if (response.getStatusCode() == 206) {
+            if (offset == 0 || getRangeStart(response) != offset) {
+                discard();
+                throw new IOException("Unexpected partial response for " + url);
+            }
+            logger.debug("Resuming download of {} from {} bytes", url, offset);
+            length = getRangeLength(response);
+        } else {
+            offset = 0;
+            validator = response.getHeader("ETag");
+            if (validator == null) {
+                validator = response.getHeader("Last-Modified");
+            }
+            length = response.getContentLength();
+        }
+
+        Files.createDirectories(part.getParent());
+        writeMeta();
+        FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.truncate(offset);
+            channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Starts receiving an artifact in several segments. Partial file is preallocated to the full length,
+     * and since it will have gaps until all segments are done, it's not continued from if interrupted.
+     *
+     * @param response Response returned from {@link #request(Transport)}, with a known content length
+     * @return Channel to write segments into at their offsets
+     * @throws IOException If opening partial file fails
+     */
+    @NonNull
+    FileChannel beginSegmented(Transport.@NonNull Response response) throws IOException {
+        offset = 0;
+        validator = response.getHeader("ETag");
+        if (validator == null) {
+            validator = response.getHeader("Last-Modified");
+        }
+        length = response.getContentLength();
+
+        Files.createDirectories(part.getParent());
+        Files.deleteIfExists(meta);
+        FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            if (length > 0) {
+                channel.write(ByteBuffer.wrap(new byte[1]), length - 1);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Turns failed segmented download into one which can be continued with a single request. Only given
+     * amount of bytes from the beginning of partial file are kept, since the rest might have gaps
+     *
+     * @param downloaded Amount of bytes downloaded without gaps from the beginning
+     * @throws IOException If partial file cannot be truncated
+     */
+    void keepSegments(long downloaded) throws IOException {
+        if (validator == null) {
+            discard();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.WRITE)) {
+            channel.truncate(downloaded);
+        }
+        offset = downloaded;
+        writeMeta();
+    }
+
+    /**
+     * Gets validator of the artifact being downloaded
+     *
+     * @return {@code ETag} or {@code Last-Modified} value, or {@code null} if server sent neither
+     */
+    @Nullable
+    String getValidator() {
+        return validator;
+    }
+
+    /**
+     * Makes sure that whole artifact was received
+     *
+     * @param channel Channel returned from {@link #begin(Transport.Response)}
+     * @throws IOException If response ended prematurely
+     */
+    void checkComplete(@NonNull FileChannel channel) throws IOException {
+        if (length >= 0 && channel.position() != length) {
+            throw new IOException("Premature end of " + url + ": got " + channel.position() + " out of " + length + " bytes");
+        }
+    }
+
+    /**
+     * Moves fully downloaded artifact into place
+     *
+     * @throws IOException If moving fails
+     */
+    void complete() throws IOException {
+        FileUtils.moveAtomicReplace(part, target);
+        Files.deleteIfExists(meta);
+    }
+
+    /**
+     * Deletes downloaded data
+     *
+     * @throws IOException If deleting fails
+     */
+    void discard() throws IOException {
+        offset = 0;
+        Files.deleteIfExists(part);
+        Files.deleteIfExists(meta);
+    }
+
+    /**
+     * Handles interrupted download. Downloaded data is kept only if download can be continued later on
+     *
+     * @throws IOException If deleting fails
+     */
+    void interrupted() throws IOException {
+        if (validator == null) {
+            discard();
+        }
+    }
+
+    private void writeMeta() throws IOException {
+        if (validator == null) {
+            // Without a validator there's no way to tell whether remote artifact has changed meanwhile
+            Files.deleteIfExists(meta);
+            return;
+        }
+        Path temporary = FileUtils.getTemporaryFileName(meta);
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write(url.toString());
+            writer.newLine();
+            writer.write(validator);
+            writer.newLine();
+            writer.write(Long.toString(length));
+            writer.newLine();
+        }
+        FileUtils.moveAtomicReplace(temporary, meta);
+    }
+
+    /**
+     * Opens download of given artifact, picking up previously downloaded data if it's from the same URL
+     *
+     * @param target Artifact path
+     * @param url Artifact URL
+     * @return Partial download
+     */
+    @NonNull
+    static PartialDownload open(@NonNull Path target, @NonNull URL url) {
+        PartialDownload download = new PartialDownload(target, url, null, -1, 0);
+        try (BufferedReader reader = Files.newBufferedReader(download.meta, StandardCharsets.UTF_8)) {
+            String previousUrl = reader.readLine();
+            String validator = reader.readLine();
+            String length = reader.readLine();
+            if (!url.toString().equals(previousUrl) || validator == null || validator.isEmpty() || length == null) {
+                return download;
+            }
+            long expected = Long.parseLong(length);
+            long size = Files.size(download.part);
+            if (size == 0 || (expected >= 0 && size >= expected)) {
+                return download;
+            }
+            return new PartialDownload(target, url, validator, expected, size);
+        } catch (IOException | NumberFormatException e) {
+            // Nothing to continue from
+            return download;
+        }
+    }
+
+    static long getRangeStart(Transport.@NonNull Response response) {
+        // Content-Range: bytes <start>-<end>/<length>
+        String range = response.getHeader("Content-Range");
+        if (range == null || !range.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = range.indexOf('-');
+        try {
+            return dash > 0 ? Long.parseLong(range.substring("bytes ".length(), dash).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long getRangeLength(Transport.@NonNull Response response) {
+        String range = response.getHeader("Content-Range");
+        int slash;
+        if (range == null || (slash = range.lastIndexOf('/')) < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -25,23 +25,30 @@
 
 package eu.mikroskeem.picomaven;
 
-import eu.mikroskeem.picomaven.artifact.ArtifactChecksum;
 import eu.mikroskeem.picomaven.artifact.Dependency;
 import eu.mikroskeem.picomaven.artifact.TransitiveDependencyProcessor;
+import eu.mikroskeem.picomaven.artifact.VersionMediator;
+import eu.mikroskeem.picomaven.internal.PlatformExecutors;
 import eu.mikroskeem.picomaven.internal.SneakyThrow;
 import eu.mikroskeem.picomaven.internal.TaskUtils;
+import eu.mikroskeem.picomaven.internal.UrlUtils;
+import eu.mikroskeem.picomaven.transport.Transport;
+import eu.mikroskeem.picomaven.transport.Transports;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -58,24 +65,47 @@ import java.util.stream.Collectors;
  */
 public class PicoMaven implements Closeable {
     private static final Logger logger = LoggerFactory.getLogger(PicoMaven.class);
-    static final ArtifactChecksum.ChecksumAlgo[] REMOTE_CHECKSUM_ALGOS = new ArtifactChecksum.ChecksumAlgo[]{
-            ArtifactChecksum.ChecksumAlgo.MD5,
-            ArtifactChecksum.ChecksumAlgo.SHA1
-    };
 
     private final Path downloadPath;
     private final List<Dependency> dependencyList;
     private final List<URL> repositoryUrls;
     private final ExecutorService executorService;
     private final boolean shouldCloseExecutorService;
+    private final Transport transport;
+    private final boolean shouldCloseTransport;
     private final List<TransitiveDependencyProcessor> transitiveDependencyProcessors;
     private final List<CompletableFuture<DownloadResult>> downloadTasks;
+    private final DownloadContext downloadContext;
+    private final Path lockfilePath;
+    private final boolean twoPhaseDownloads;
 
     public Map<@NonNull Dependency, @NonNull CompletableFuture<@Nullable DownloadResult>> downloadAllArtifacts() {
+        Lockfile lockfile = readLockfile();
+        List<CompletableFuture<DownloadResult>> pinned = lockfile != null ? downloadPinned(lockfile) : null;
+
+        // Resolve everything first, then download according to the plan
+        CompletableFuture<Map<Dependency, CompletableFuture<DownloadResult>>> planned = null;
+        if (twoPhaseDownloads && lockfile == null) {
+            planned = planAsync().thenApply(plan -> plan.execute(downloadContext, repositoryUrls));
+        } else {
+            mediateDeclared();
+        }
+
         Map<Dependency, CompletableFuture<DownloadResult>> tasks = new LinkedHashMap<>(dependencyList.size());
         for (final Dependency dependency : dependencyList) {
-            DownloaderTask task = new DownloaderTask(executorService, dependency, downloadPath, repositoryUrls, transitiveDependencyProcessors);
-            CompletableFuture<DownloadResult> future = CompletableFuture.supplyAsync(task, executorService);
+            Integer root;
+            CompletableFuture<DownloadResult> future;
+            if (planned != null) {
+                future = planned.thenCompose(downloads -> downloads.get(dependency));
+            } else if (pinned != null && (root = lockfile.findRoot(dependency)) != null) {
+                future = pinned.get(root).thenApply(result -> copyResult(result, dependency, result.getTransitiveDependencies(), result.isOptional()));
+            } else {
+                // Download might have been started already by a requester which considers it optional
+                future = downloadContext.getInFlightDownloads().computeIfAbsent(dependency,
+                        key -> new DownloaderTask(downloadContext, dependency, repositoryUrls).start())
+                        .thenApply(result -> !result.isOptional() ? result :
+                                copyResult(result, dependency, result.getTransitiveDependencies(), false));
+            }
             tasks.put(dependency, future);
             this.downloadTasks.add(future);
         }
@@ -83,12 +113,199 @@ public class PicoMaven implements Closeable {
         return Collections.unmodifiableMap(tasks);
     }
 
+    /**
+     * Resolves dependency graphs of all declared dependencies by fetching only POMs, and plans downloading
+     * artifacts which are not downloaded yet. Artifact sizes are looked up with {@code HEAD} requests, so that
+     * artifacts can be downloaded largest first. Lockfile is not used here. Must not be called from a task running
+     * on the downloader {@link ExecutorService}
+     *
+     * @return Download plan, to be passed to {@link #downloadAllArtifacts(DownloadPlan)}
+     */
+    @NonNull
+    public DownloadPlan plan() {
+        return TaskUtils.getUninterruptibly(planAsync());
+    }
+
+    /**
+     * Downloads artifacts according to given plan
+     *
+     * @param plan Download plan, as returned by {@link #plan()}
+     * @return Download futures of declared dependencies
+     */
+    public Map<@NonNull Dependency, @NonNull CompletableFuture<@Nullable DownloadResult>> downloadAllArtifacts(@NonNull DownloadPlan plan) {
+        Map<Dependency, CompletableFuture<DownloadResult>> tasks = plan.execute(downloadContext, repositoryUrls);
+        this.downloadTasks.addAll(tasks.values());
+        return Collections.unmodifiableMap(tasks);
+    }
+
+    @NonNull
+    private CompletableFuture<DownloadPlan> planAsync() {
+        mediateDeclared();
+        DownloadPlan.Collector collector = new DownloadPlan.Collector();
+        Map<Dependency, CompletableFuture<DownloadResult>> resolving = new LinkedHashMap<>(dependencyList.size());
+        for (Dependency dependency : dependencyList) {
+            resolving.put(dependency, collector.getInFlightDownloads().computeIfAbsent(dependency,
+                    key -> new DownloaderTask(downloadContext, dependency, repositoryUrls, collector).start()));
+        }
+        return TaskUtils.waitForAll(resolving.values()).thenApply(ignored -> {
+            Map<Dependency, DownloadResult> resolved = new LinkedHashMap<>(resolving.size());
+            resolving.forEach((dependency, future) -> resolved.put(dependency, future.join()));
+            return collector.build(resolved, downloadContext.getVersionSelection().getMediator());
+        });
+    }
+
+    private void mediateDeclared() {
+        // Declared dependencies are nearest of all, and they are always downloaded as declared
+        for (Dependency dependency : dependencyList) {
+            downloadContext.getVersionSelection().mediate(dependency, 0);
+        }
+    }
+
+    /**
+     * Waits until all downloads are completed and puts together a graph of all downloaded dependencies
+     *
+     * @return Resolved dependency graph, with declared dependencies as roots
+     */
+    @NonNull
+    public ResolvedGraph getResolvedGraph() {
+        TaskUtils.waitForAllUninterruptibly(this.downloadTasks);
+        List<DownloadResult> results = new ArrayList<>(this.downloadTasks.size());
+        for (CompletableFuture<DownloadResult> task : this.downloadTasks) {
+            if (!task.isCompletedExceptionally()) {
+                results.add(task.join());
+            }
+        }
+        return ResolvedGraph.of(results, downloadContext.getVersionSelection().getMediator());
+    }
+
+    /**
+     * Waits until all downloads are completed and puts together a classpath of all downloaded dependency graphs.
+     * Every artifact is included only once, in the version selected by configured {@link VersionMediator},
+     * and artifacts nearer to declared dependencies come first. Dependencies which failed to download are left out.
+     *
+     * @return Artifact paths in classpath order
+     * @see ResolvedGraph#getClasspath()
+     */
+    @NonNull
+    public List<@NonNull Path> getClasspath() {
+        return getResolvedGraph().getClasspath();
+    }
+
+    /**
+     * Waits until all downloads are completed and writes a lockfile pinning every artifact on the classpath, along
+     * with its URL and SHA-256 checksum. Lockfile can be passed to {@link Builder#withLockfile(Path)} later on
+     * to download the same artifacts again without resolving dependency graph.
+     *
+     * @param path Lockfile path
+     * @throws IOException If writing lockfile fails, or some required artifacts failed to download
+     */
+    public void writeLockfile(@NonNull Path path) throws IOException {
+        TaskUtils.waitForAllUninterruptibly(this.downloadTasks);
+        List<DownloadResult> results = new ArrayList<>(this.downloadTasks.size());
+        for (CompletableFuture<DownloadResult> task : this.downloadTasks) {
+            results.add(task.join());
+        }
+        Lockfile.of(results, ResolvedGraph.of(results, downloadContext.getVersionSelection().getMediator())).write(path);
+    }
+
+    @Nullable
+    private Lockfile readLockfile() {
+        if (lockfilePath == null || Files.notExists(lockfilePath)) {
+            return null;
+        }
+        try {
+            return Lockfile.read(lockfilePath);
+        } catch (IOException e) {
+            logger.warn("Failed to read lockfile {}, resolving dependencies instead", lockfilePath, e);
+            return null;
+        }
+    }
+
+    @NonNull
+    private List<CompletableFuture<DownloadResult>> downloadPinned(@NonNull Lockfile lockfile) {
+        // Everything is known upfront, so download all artifacts at once
+        List<Lockfile.Entry> entries = lockfile.getEntries();
+        List<CompletableFuture<DownloadResult>> downloads = new ArrayList<>(entries.size());
+        for (Lockfile.Entry entry : entries) {
+            DownloaderTask task = new DownloaderTask(downloadContext, entry.toPinnedDependency(), repositoryUrls,
+                    entry.isOptional(), entry.getRepository(), null, entry.getArtifactUrl());
+            downloads.add(task.start());
+        }
+
+        // Rebuild dependency trees from the flat downloads. Lockfile lists children before their parents
+        List<CompletableFuture<DownloadResult>> trees = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Lockfile.Entry entry = entries.get(i);
+            List<CompletableFuture<DownloadResult>> children = new ArrayList<>(entry.getChildren().size());
+            for (int child : entry.getChildren()) {
+                children.add(trees.get(child));
+            }
+            Dependency dependency = entry.toDependency();
+            trees.add(downloads.get(i).thenCombine(CompletableFuture.allOf(children.toArray(new CompletableFuture<?>[0])), (result, ignored) -> {
+                List<DownloadResult> transitive = new ArrayList<>(children.size());
+                for (CompletableFuture<DownloadResult> child : children) {
+                    DownloadResult childResult = child.join();
+                    if (!childResult.isSuccess() && childResult.isOptional()) {
+                        continue;
+                    }
+                    transitive.add(childResult);
+                }
+                return copyResult(result, dependency, transitive, result.isOptional());
+            }));
+        }
+        return trees;
+    }
+
+    @NonNull
+    private static DownloadResult copyResult(@NonNull DownloadResult result, @NonNull Dependency dependency,
+                                             @NonNull List<DownloadResult> transitive, boolean optional) {
+        return new DownloadResult(dependency, transitive, result.getArtifactPath(), result.isSuccess(),
+                optional, result.getDownloadException(), result.getRepository(), result.getArtifactUrl(),
+                result.getVersionMediator());
+    }
+
     /**
      * Waits until all downloads are completed and shuts down {@link ExecutorService} if configured to do so
      */
     @Override
     public void close() {
         TaskUtils.waitForAllUninterruptibly(this.downloadTasks);
+        NegativeLookupCache negativeLookupCache;
+        if ((negativeLookupCache = downloadContext.getNegativeLookupCache()) != null) {
+            try {
+                negativeLookupCache.save();
+            } catch (IOException e) {
+                logger.warn("Failed to save negative lookup cache", e);
+            }
+        }
+        GraphIndex graphIndex;
+        if ((graphIndex = downloadContext.getGraphIndex()) != null) {
+            for (CompletableFuture<DownloadResult> task : this.downloadTasks) {
+                if (!task.isCompletedExceptionally()) {
+                    graphIndex.record(downloadPath, task.join());
+                }
+            }
+            try {
+                graphIndex.save();
+            } catch (IOException e) {
+                logger.warn("Failed to save graph index", e);
+            }
+        }
+        CacheVerifier cacheVerifier;
+        if ((cacheVerifier = downloadContext.getCacheVerifier()) != null) {
+            try {
+                cacheVerifier.save();
+            } catch (IOException e) {
+                logger.warn("Failed to save verified artifacts", e);
+            }
+        }
+        if (shouldCloseTransport) {
+            try {
+                transport.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close transport", e);
+            }
+        }
         if (shouldCloseExecutorService) {
             executorService.shutdown();
             try {
@@ -99,28 +316,50 @@ public class PicoMaven implements Closeable {
         }
     }
 
-    private PicoMaven(Path downloadPath, List<Dependency> dependencyList, List<URL> repositoryUrls,
-                      ExecutorService executorService, boolean shouldCloseExecutorService,
-                      List<TransitiveDependencyProcessor> dependencyProcessors) {
-        this.downloadPath = downloadPath;
-        this.dependencyList = dependencyList;
-        this.repositoryUrls = repositoryUrls;
+    private PicoMaven(Builder builder, ExecutorService executorService, boolean shouldCloseExecutorService,
+                      Transport transport, boolean shouldCloseTransport) {
+        this.downloadPath = builder.downloadPath;
+        this.dependencyList = builder.dependencies;
+        this.repositoryUrls = new ArrayList<>(builder.repositories);
         this.executorService = executorService;
         this.shouldCloseExecutorService = shouldCloseExecutorService;
-        this.transitiveDependencyProcessors = dependencyProcessors;
+        this.transport = transport;
+        this.shouldCloseTransport = shouldCloseTransport;
+        this.transitiveDependencyProcessors = builder.dependencyProcessors;
         this.downloadTasks = new ArrayList<>(this.dependencyList.size());
+        this.downloadContext = new DownloadContext(builder, executorService, transport);
+        this.lockfilePath = builder.lockfilePath;
+        this.twoPhaseDownloads = builder.twoPhaseDownloads;
     }
 
     /**
      * {@link PicoMaven} builder
      */
     public static class Builder {
-        private Path downloadPath = null;
+        // Package-private settings are read by DownloadContext
+        Path downloadPath = null;
         private List<Dependency> dependencies = null;
         private List<URL> repositories = null;
         private ExecutorService executorService = null;
         private boolean shouldCloseExecutorService = false;
-        private List<TransitiveDependencyProcessor> dependencyProcessors = null;
+        List<TransitiveDependencyProcessor> dependencyProcessors = null;
+        private Transport transport = null;
+        int repositoryLookupParallelism = 1;
+        int maxRequestsPerHost = 8;
+        long negativeLookupCacheTtl = 0;
+        boolean graphIndex = false;
+        boolean verifyCache = false;
+        long segmentedDownloadThreshold = 0;
+        int downloadSegments = 1;
+        boolean metadataCache = false;
+        final Map<String, UpdatePolicy> snapshotUpdatePolicies = new HashMap<>();
+        UpdatePolicy defaultSnapshotUpdatePolicy = UpdatePolicy.NEVER;
+        VersionMediator versionMediator = VersionMediator.NEAREST_WINS;
+        boolean binaryDescriptors = false;
+        private boolean virtualThreads = false;
+        private Path lockfilePath = null;
+        private boolean twoPhaseDownloads = false;
+        final List<RepositoryRoutes.Rule> routingRules = new ArrayList<>();
 
         /**
          * Set download path
@@ -196,6 +435,20 @@ public class PicoMaven implements Closeable {
             return this;
         }
 
+        /**
+         * Set whether downloads should run on virtual threads, one per task, instead of a pool of platform threads.
+         * Requires Java 21 or newer, platform threads are used on older runtimes. Has no effect when
+         * {@link ExecutorService} is set using {@link #withExecutorService(ExecutorService)}.
+         *
+         * @param value Whether to use virtual threads, {@code false} by default
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withVirtualThreads(boolean value) {
+            this.virtualThreads = value;
+            return this;
+        }
+
         /**
          * Set whether {@link ExecutorService} should be shut down or not after {@link PicoMaven} close.
          *
@@ -214,6 +467,262 @@ public class PicoMaven implements Closeable {
             return this;
         }
 
+        /**
+         * Set {@link Transport} what to use to fetch data from repositories. By default, a pooling transport
+         * from {@link Transports#pooled()} is created and closed along with {@link PicoMaven}
+         *
+         * @param transport {@link Transport} instance
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withTransport(@Nullable Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Set how many repositories should be probed for an artifact at the same time. Artifact is downloaded
+         * from the first repository in configured order which has it, and remaining lookups are cancelled.
+         *
+         * @param repositories Amount of repositories to probe at once, {@code 1} (default) tries repositories one by one
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withRepositoryLookupParallelism(int repositories) {
+            if (repositories < 1) throw new IllegalArgumentException("Repository lookup parallelism must be at least 1");
+            this.repositoryLookupParallelism = repositories;
+            return this;
+        }
+
+        /**
+         * Set how many requests can be made to a single repository host at once. Requests exceeding the limit
+         * are queued, and queued requests are served in turns for each root dependency.
+         *
+         * @param requests Maximum amount of requests in flight per host, {@code 8} by default
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withMaxRequestsPerHost(int requests) {
+            if (requests < 1) throw new IllegalArgumentException("Maximum requests per host must be at least 1");
+            this.maxRequestsPerHost = requests;
+            return this;
+        }
+
+        /**
+         * Enable persistent cache of repositories which did not have an artifact. Such repositories are
+         * skipped for that artifact until the entry expires. Cache is stored under download path.
+         *
+         * @param duration How long misses are remembered, {@code 0} disables the cache (default)
+         * @param unit Duration unit
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withNegativeLookupCache(long duration, @NonNull TimeUnit unit) {
+            if (duration < 0) throw new IllegalArgumentException("Negative lookup cache duration cannot be negative");
+            this.negativeLookupCacheTtl = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Enable index of already resolved dependency graphs. When all artifacts of a dependency graph are
+         * already downloaded and unchanged, graph is put together from the index without parsing any POMs.
+         * Index is stored under download path. Note that index does not know about changes in
+         * {@link TransitiveDependencyProcessor}s, so it should be cleared when they change.
+         *
+         * @param value Whether to use graph index, {@code false} by default
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withGraphIndex(boolean value) {
+            this.graphIndex = value;
+            return this;
+        }
+
+        /**
+         * Enable verification of already downloaded artifacts. Artifacts are checked against their checksums
+         * before use, and corrupted ones are downloaded again. Artifacts which have not changed since last
+         * verification are not read again.
+         *
+         * @param value Whether to verify already downloaded artifacts, {@code false} by default
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withCacheVerification(boolean value) {
+            this.verifyCache = value;
+            return this;
+        }
+
+        /**
+         * Enable cache of repository metadata files. Cached metadata is revalidated with conditional requests
+         * once per {@link PicoMaven} instance, and reused if it has not changed. Cache is stored under download path.
+         *
+         * @param value Whether to cache metadata, {@code false} by default
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withMetadataCache(boolean value) {
+            this.metadataCache = value;
+            return this;
+        }
+
+        /**
+         * Set how often already resolved {@code -SNAPSHOT} dependencies are checked for updates. Until then,
+         * snapshot is used as-is, or downloaded straight from where it was resolved from last time.
+         *
+         * @param policy Update policy, {@link UpdatePolicy#NEVER} by default
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withSnapshotUpdatePolicy(@NonNull UpdatePolicy policy) {
+            this.defaultSnapshotUpdatePolicy = policy;
+            return this;
+        }
+
+        /**
+         * Set how often {@code -SNAPSHOT} dependencies resolved from given repository are checked for updates,
+         * overriding {@link #withSnapshotUpdatePolicy(UpdatePolicy)}
+         *
+         * @param repository Repository URI
+         * @param policy Update policy
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withSnapshotUpdatePolicy(@NonNull URI repository, @NonNull UpdatePolicy policy) {
+            this.snapshotUpdatePolicies.put(UrlUtils.repositoryKey(SneakyThrow.get(repository::toURL)), policy);
+            return this;
+        }
+
+        /**
+         * Enable segmented downloads of large artifacts. Artifacts at least given size, as announced by
+         * {@code Content-Length}, are downloaded as several concurrent {@code Range} requests, if repository
+         * supports them. Segment requests count towards {@link #withMaxRequestsPerHost(int)} limit.
+         *
+         * @param threshold Minimum artifact size in bytes, {@code 0} disables segmented downloads (default)
+         * @param segments Amount of segments to split artifacts into, at least {@code 2}
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withSegmentedDownloads(long threshold, int segments) {
+            if (threshold < 0) throw new IllegalArgumentException("Segmented download threshold cannot be negative");
+            if (segments < 2) throw new IllegalArgumentException("There must be at least 2 segments");
+            this.segmentedDownloadThreshold = threshold;
+            this.downloadSegments = segments;
+            return this;
+        }
+
+        /**
+         * Set how a single version is picked when dependency graph refers to several versions of the same artifact.
+         * Versions which are already known to lose are not downloaded. See {@link PicoMaven#getClasspath()}
+         * <p>
+         * As artifacts are downloaded while the graph is still being resolved, a version which is seen first but
+         * loses later on is still downloaded, along with its dependencies, and only left out of the classpath.
+         * Same goes for versions which lose only because of how far they were seen at, as a shorter path to them
+         * might turn up later. With {@link VersionMediator#NEAREST_WINS}, only versions losing to declared
+         * dependencies are known to lose right away.
+         * Enable {@link #withTwoPhaseDownloads(boolean)} to not download losing versions at all.
+         *
+         * @param mediator Version mediator, {@link VersionMediator#NEAREST_WINS} by default
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withVersionMediator(@NonNull VersionMediator mediator) {
+            this.versionMediator = mediator;
+            return this;
+        }
+
+        /**
+         * Store dependency metadata of downloaded artifacts as compact checksummed binary descriptors instead
+         * of sanitized POMs, so that already downloaded artifacts' transitive dependencies are found without
+         * parsing XML. Sanitized POMs written earlier are still read if there is no descriptor.
+         *
+         * @param value Whether to use binary descriptors, {@code false} by default
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withBinaryDescriptors(boolean value) {
+            this.binaryDescriptors = value;
+            return this;
+        }
+
+        /**
+         * Set lockfile to download artifacts from. Artifacts listed in the lockfile are downloaded straight from
+         * their pinned URLs and verified against pinned checksums, without fetching any POMs or metadata.
+         * Dependencies missing from the lockfile are resolved as usual. Lockfile is ignored if it does not exist.
+         *
+         * @param lockfile Lockfile path, as written by {@link PicoMaven#writeLockfile(Path)}
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withLockfile(@Nullable Path lockfile) {
+            this.lockfilePath = lockfile;
+            return this;
+        }
+
+        /**
+         * Use given repository only for artifacts of given groups. Group {@code com.example} also covers its
+         * subgroups like {@code com.example.foo}, and {@code *} covers every group. When several rules match
+         * an artifact, the one for the most specific group wins.
+         *
+         * @param repository Repository URI
+         * @param groups Group id patterns
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withRepositoryIncludes(@NonNull URI repository, @NonNull String... groups) {
+            return withRoutingRules(RepositoryRoutes.Kind.INCLUDE, repository, groups);
+        }
+
+        /**
+         * Never look up artifacts of given groups from given repository. See {@link #withRepositoryIncludes(URI, String...)}
+         * for group pattern syntax
+         *
+         * @param repository Repository URI
+         * @param groups Group id patterns
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withRepositoryExcludes(@NonNull URI repository, @NonNull String... groups) {
+            return withRoutingRules(RepositoryRoutes.Kind.EXCLUDE, repository, groups);
+        }
+
+        /**
+         * Look up artifacts of given groups only from given repository, similarly to Maven's {@code mirrorOf}.
+         * If several repositories are exclusive for the same group, all of them are used. See
+         * {@link #withRepositoryIncludes(URI, String...)} for group pattern syntax
+         *
+         * @param repository Repository URI
+         * @param groups Group id patterns
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withExclusiveRepository(@NonNull URI repository, @NonNull String... groups) {
+            return withRoutingRules(RepositoryRoutes.Kind.EXCLUSIVE, repository, groups);
+        }
+
+        @NonNull
+        private Builder withRoutingRules(RepositoryRoutes.@NonNull Kind kind, @NonNull URI repository, @NonNull String... groups) {
+            URL url = SneakyThrow.get(repository::toURL);
+            for (String group : groups) {
+                this.routingRules.add(new RepositoryRoutes.Rule(kind, url, group));
+            }
+            return this;
+        }
+
+        /**
+         * Enable two-phase downloads. Whole dependency graph is resolved first by fetching only POMs, and
+         * artifacts are downloaded only after that, largest first, skipping versions which lose version mediation.
+         * See {@link PicoMaven#plan()}.
+         * Not used when downloading from a lockfile.
+         *
+         * @param value Whether to resolve dependency graphs before downloading artifacts, {@code false} by default
+         * @return this (for chaining)
+         */
+        @NonNull
+        public Builder withTwoPhaseDownloads(boolean value) {
+            this.twoPhaseDownloads = value;
+            return this;
+        }
+
         /**
          * Build {@link PicoMaven} instance
          *
@@ -224,13 +733,26 @@ public class PicoMaven implements Closeable {
             if (downloadPath == null) throw new IllegalStateException("Download path cannot be unset!");
             if (dependencies == null) dependencies = Collections.emptyList();
             if (repositories == null) repositories = Collections.emptyList();
+            // Builder may be reused, so don't store created executor service
+            ExecutorService executorService = this.executorService;
+            boolean shouldCloseExecutorService = this.shouldCloseExecutorService;
             if (executorService == null) {
-                executorService = Executors.newCachedThreadPool();
+                if (virtualThreads && (executorService = PlatformExecutors.createVirtualThreadPerTask()) == null) {
+                    logger.warn("Virtual threads are not supported by this Java runtime, using platform threads instead");
+                }
+                if (executorService == null) {
+                    executorService = Executors.newCachedThreadPool();
+                }
                 shouldCloseExecutorService = true;
             }
             if (dependencyProcessors == null) dependencyProcessors = Collections.emptyList();
-            return new PicoMaven(downloadPath, dependencies, new ArrayList<>(repositories),
-                    executorService, shouldCloseExecutorService, dependencyProcessors);
+            boolean shouldCloseTransport = false;
+            Transport transport = this.transport;
+            if (transport == null) {
+                transport = Transports.pooled();
+                shouldCloseTransport = true;
+            }
+            return new PicoMaven(this, executorService, shouldCloseExecutorService, transport, shouldCloseTransport);
         }
     }
 }
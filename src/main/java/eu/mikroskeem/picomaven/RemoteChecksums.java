@@ -0,0 +1,187 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.ArtifactChecksum;
+import eu.mikroskeem.picomaven.artifact.ArtifactChecksum.ChecksumAlgo;
+import eu.mikroskeem.picomaven.internal.DataProcessor;
+import eu.mikroskeem.picomaven.transport.Transport;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Figures out which remote checksum to verify an artifact against, using as few requests as possible.
+ * Checksum headers sent along with the artifact (Nexus, Artifactory) are used when present. Otherwise only
+ * the strongest checksum file the repository is known to provide is fetched, while artifact is downloading.
+ * Once repository is known not to send checksum headers, checksum file is fetched alongside the artifact request.
+ *
+ * @author Mark Vainomaa
+ */
+final class RemoteChecksums {
+    /**
+     * Supported remote checksum algorithms, strongest first
+     */
+    static final List<ChecksumAlgo> ALGOS = Arrays.asList(ChecksumAlgo.SHA256, ChecksumAlgo.SHA1, ChecksumAlgo.MD5);
+
+    private final Transport transport;
+    // Strongest checksum file each repository is known to provide
+    private final ConcurrentMap<String, ChecksumAlgo> sidecarAlgos = new ConcurrentHashMap<>();
+    // Whether each repository has sent checksum headers along with artifacts
+    private final ConcurrentMap<String, Boolean> headerSupport = new ConcurrentHashMap<>();
+
+    RemoteChecksums(@NonNull Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Gets strongest checksum from artifact response headers
+     *
+     * @param response Artifact response
+     * @return Checksum, or {@code null} if repository did not send any
+     */
+    @Nullable
+    static ArtifactChecksum fromHeaders(Transport.@NonNull Response response) {
+        for (ChecksumAlgo algo : ALGOS) {
+            String value = response.getHeader(headerName(algo));
+            if (value != null && !(value = value.trim()).isEmpty()) {
+                return new ArtifactChecksum(algo, ArtifactChecksum.ChecksumEncoding.HEX, value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records whether repository sent checksum headers along with an artifact
+     *
+     * @param repository Repository URL
+     * @param sent Whether checksum headers were present
+     */
+    void recordHeaders(@NonNull URL repository, boolean sent) {
+        headerSupport.put(repository.toString(), sent);
+    }
+
+    /**
+     * Gets whether checksum file is going to be needed for artifacts from given repository, so that it can be
+     * fetched before artifact response headers have arrived
+     *
+     * @param repository Repository URL
+     * @return Whether repository is known not to send checksum headers
+     */
+    boolean isSidecarExpected(@NonNull URL repository) {
+        return Boolean.FALSE.equals(headerSupport.get(repository.toString()));
+    }
+
+    /**
+     * Fetches the strongest available checksum file for given artifact. Weaker checksums are tried only if
+     * stronger ones are missing, and repository is remembered not to provide the missing ones
+     *
+     * @param executor Executor to fetch checksums with
+     * @param repository Repository URL
+     * @param artifactUrl Artifact URL
+     * @return Checksum file fetch
+     */
+    @NonNull
+    Sidecar fetchSidecar(@NonNull Executor executor, @NonNull URL repository, @NonNull URL artifactUrl) {
+        ChecksumAlgo strongest = sidecarAlgos.get(repository.toString());
+        List<ChecksumAlgo> candidates = strongest != null ? ALGOS.subList(ALGOS.indexOf(strongest), ALGOS.size()) : ALGOS;
+        return new Sidecar(candidates, fetchSidecar(executor, repository, artifactUrl, candidates, 0));
+    }
+
+    @NonNull
+    private CompletableFuture<@Nullable ArtifactChecksum> fetchSidecar(@NonNull Executor executor, @NonNull URL repository,
+                                                                       @NonNull URL artifactUrl,
+                                                                       @NonNull List<ChecksumAlgo> candidates, int index) {
+        if (index == candidates.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        ChecksumAlgo algo = candidates.get(index);
+        return DataProcessor.getArtifactChecksum(executor, transport, artifactUrl, algo).thenCompose(checksum -> {
+            if (checksum == null) {
+                return fetchSidecar(executor, repository, artifactUrl, candidates, index + 1);
+            }
+
+            // Remember the weakest algorithm needed so far, so that next lookups won't waste requests
+            sidecarAlgos.merge(repository.toString(), algo, (a, b) -> ALGOS.indexOf(a) >= ALGOS.indexOf(b) ? a : b);
+            return CompletableFuture.completedFuture(checksum);
+        });
+    }
+
+    /**
+     * Checksum file fetch in progress
+     */
+    static final class Sidecar {
+        private final List<ChecksumAlgo> candidates;
+        private final CompletableFuture<@Nullable ArtifactChecksum> checksum;
+
+        private Sidecar(@NonNull List<ChecksumAlgo> candidates, @NonNull CompletableFuture<@Nullable ArtifactChecksum> checksum) {
+            this.candidates = candidates;
+            this.checksum = checksum;
+        }
+
+        /**
+         * Gets checksum algorithms which the checksum file might be for, strongest first
+         *
+         * @return Candidate algorithms
+         */
+        @NonNull
+        List<ChecksumAlgo> getCandidates() {
+            return candidates;
+        }
+
+        /**
+         * Gets checksum
+         *
+         * @return Future of checksum, completing with {@code null} if repository does not provide any
+         */
+        @NonNull
+        CompletableFuture<@Nullable ArtifactChecksum> getChecksum() {
+            return checksum;
+        }
+    }
+
+    @NonNull
+    private static String headerName(@NonNull ChecksumAlgo algo) {
+        switch (algo) {
+            case SHA256:
+                return "X-Checksum-Sha256";
+            case SHA1:
+                return "X-Checksum-Sha1";
+            case MD5:
+                return "X-Checksum-Md5";
+            default:
+                throw new IllegalArgumentException(algo.name());
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.internal.UrlUtils;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Routes artifacts to repositories by their group id, so that artifacts are looked up only from repositories
+ * which can possibly have them. Group patterns are kept in a trie of group id segments, so routing a coordinate
+ * takes a single walk down the trie no matter how many rules there are.
+ * <p>
+ * Pattern {@code com.example} matches group {@code com.example} and its subgroups like {@code com.example.foo},
+ * but not {@code com.examples}. Trailing {@code .*} is allowed and ignored, and {@code *} matches every group.
+ * When several patterns match, the most specific one wins.
+ *
+ * @author Mark Vainomaa
+ */
+final class RepositoryRoutes {
+    static final RepositoryRoutes NONE = new RepositoryRoutes(Collections.emptyList());
+
+    private final Node root = new Node();
+    // Repositories which are used only for included groups
+    private final Set<String> includeOnly = new HashSet<>();
+
+    private RepositoryRoutes(@NonNull List<Rule> rules) {
+        for (Rule rule : rules) {
+            Node node = root;
+            for (String segment : rule.segments) {
+                node = node.children.computeIfAbsent(segment, k -> new Node());
+            }
+            switch (rule.kind) {
+                case INCLUDE:
+                    node.verdicts.put(rule.repository, true);
+                    includeOnly.add(rule.repository);
+                    break;
+                case EXCLUDE:
+                    node.verdicts.put(rule.repository, false);
+                    break;
+                case EXCLUSIVE:
+                    if (node.exclusive == null) {
+                        node.exclusive = new LinkedHashSet<>();
+                    }
+                    node.exclusive.add(rule.repository);
+                    break;
+                default:
+                    throw new IllegalStateException(rule.kind.name());
+            }
+        }
+    }
+
+    /**
+     * Picks repositories which can have artifacts of given group
+     *
+     * @param groupId Group id
+     * @param repositories Repositories to pick from
+     * @return Picked repositories, in given order
+     */
+    @NonNull
+    List<URL> route(@NonNull String groupId, @NonNull List<URL> repositories) {
+        if (root.children.isEmpty() && root.verdicts.isEmpty() && root.exclusive == null) {
+            return repositories;
+        }
+
+        // Deeper nodes override whatever shallower ones decided
+        Map<String, Boolean> verdicts = new HashMap<>(root.verdicts);
+        Set<String> exclusive = root.exclusive;
+        Node node = root;
+        int start = 0;
+        while (start <= groupId.length()) {
+            int end = groupId.indexOf('.', start);
+            if (end == -1) {
+                end = groupId.length();
+            }
+            if ((node = node.children.get(groupId.substring(start, end))) == null) {
+                break;
+            }
+            verdicts.putAll(node.verdicts);
+            if (node.exclusive != null) {
+                exclusive = node.exclusive;
+            }
+            start = end + 1;
+        }
+
+        List<URL> routed = new ArrayList<>(repositories.size());
+        for (URL repository : repositories) {
+            String key = UrlUtils.repositoryKey(repository);
+            if (exclusive != null && !exclusive.contains(key)) {
+                continue;
+            }
+            Boolean verdict = verdicts.get(key);
+            if (verdict != null ? verdict : !includeOnly.contains(key)) {
+                routed.add(repository);
+            }
+        }
+        return routed;
+    }
+
+    /**
+     * Builds routes from given rules
+     *
+     * @param rules Routing rules
+     * @return Repository routes
+     */
+    @NonNull
+    static RepositoryRoutes of(@NonNull List<Rule> rules) {
+        return rules.isEmpty() ? NONE : new RepositoryRoutes(rules);
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        // Whether each repository is used for groups matching this node
+        private final Map<String, Boolean> verdicts = new HashMap<>();
+        @Nullable
+        private Set<String> exclusive = null;
+    }
+
+    enum Kind {
+        /**
+         * Repository is used for matching groups, and only for groups included by some rule
+         */
+        INCLUDE,
+        /**
+         * Repository is not used for matching groups
+         */
+        EXCLUDE,
+        /**
+         * Matching groups are looked up only from this repository, or other exclusive ones for the same pattern
+         */
+        EXCLUSIVE
+    }
+
+    /**
+     * Routing rule
+     */
+    static final class Rule {
+        private final Kind kind;
+        private final String repository;
+        private final List<String> segments;
+
+        Rule(@NonNull Kind kind, @NonNull URL repository, @NonNull String pattern) {
+            this.kind = kind;
+            this.repository = UrlUtils.repositoryKey(repository);
+            this.segments = parse(pattern);
+        }
+
+        @NonNull
+        private static List<String> parse(@NonNull String pattern) {
+            String group = pattern.trim();
+            if (group.equals("*")) {
+                return Collections.emptyList();
+            }
+            if (group.endsWith(".*")) {
+                group = group.substring(0, group.length() - 2);
+            }
+            List<String> segments = new ArrayList<>();
+            for (String segment : group.split("\\.", -1)) {
+                if (segment.isEmpty() || segment.contains("*")) {
+                    throw new IllegalArgumentException("Invalid group pattern '" + pattern + "'");
+                }
+                segments.add(segment);
+            }
+            return segments;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.Dependency;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Limits how many requests are made to a single repository host at once. Work exceeding the limit is
+ * queued without blocking any threads, and queued work is taken from root dependencies in turns, so
+ * that a single wide dependency graph can't hold up the others.
+ *
+ * @author Mark Vainomaa
+ */
+final class RequestScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(RequestScheduler.class);
+
+    private final Executor executor;
+    private final int maxRequestsPerHost;
+    private final ConcurrentMap<String, HostQueue> hosts = new ConcurrentHashMap<>();
+
+    RequestScheduler(@NonNull Executor executor, int maxRequestsPerHost) {
+        this.executor = executor;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * Gets how many requests are made to a single host at once
+     *
+     * @return Maximum amount of requests in flight per host
+     */
+    int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    /**
+     * Gets executor for running requests against given URL's host. Every task submitted to it counts as
+     * a single request in flight until the task finishes
+     *
+     * @param root Root dependency the work is done for
+     * @param url URL to be requested
+     * @return Executor
+     */
+    @NonNull
+    Executor executor(@NonNull Dependency root, @NonNull URL url) {
+        // Local files are not limited
+        String host = url.getHost();
+        if (host == null || host.isEmpty()) {
+            return executor;
+        }
+
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        HostQueue queue = hosts.computeIfAbsent(host + ':' + port, k -> new HostQueue());
+        String rootKey = InFlightDownloads.key(root);
+        return task -> queue.submit(rootKey, task);
+    }
+
+    private final class HostQueue {
+        // Pending tasks per root. Iteration order is the order roots are served in
+        private final Map<String, Deque<Runnable>> pending = new LinkedHashMap<>();
+        private int running = 0;
+
+        void submit(@NonNull String root, @NonNull Runnable task) {
+            synchronized (this) {
+                if (running >= maxRequestsPerHost) {
+                    pending.computeIfAbsent(root, k -> new ArrayDeque<>()).add(task);
+                    return;
+                }
+                running++;
+            }
+
+            try {
+                executor.execute(() -> run(task));
+            } catch (RejectedExecutionException e) {
+                release();
+                throw e;
+            }
+        }
+
+        private void run(@NonNull Runnable task) {
+            try {
+                task.run();
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            while (true) {
+                Runnable next;
+                synchronized (this) {
+                    if ((next = poll()) == null) {
+                        running--;
+                        return;
+                    }
+                }
+
+                // Hand the slot over to next task
+                Runnable task = next;
+                try {
+                    executor.execute(() -> run(task));
+                    return;
+                } catch (RejectedExecutionException e) {
+                    logger.warn("Executor rejected queued request", e);
+                }
+            }
+        }
+
+        @Nullable
+        private Runnable poll() {
+            Iterator<Map.Entry<String, Deque<Runnable>>> iterator = pending.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+
+            // Take from the root which has waited the longest, and move it to the back of the line
+            Map.Entry<String, Deque<Runnable>> entry = iterator.next();
+            iterator.remove();
+            Runnable task = entry.getValue().poll();
+            if (!entry.getValue().isEmpty()) {
+                pending.put(entry.getKey(), entry.getValue());
+            }
+            return task;
+        }
+    }
+}
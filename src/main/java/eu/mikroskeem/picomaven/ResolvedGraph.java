@@ -0,0 +1,408 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.Dependency;
+import eu.mikroskeem.picomaven.artifact.VersionMediator;
+import eu.mikroskeem.picomaven.artifact.VersionMediator.Candidate;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolved dependency graph. Every artifact is a single node, identified by its index, and dependencies
+ * between nodes are stored as index arrays. Graph is immutable, and none of the accessors allocate.
+ *
+ * @author Mark Vainomaa
+ */
+public final class ResolvedGraph {
+    private final DownloadResult[] nodes;
+    private final Map<String, Integer> indices;
+    private final int[] roots;
+    // Dependencies of node i are edges[edgeOffsets[i]] until edges[edgeOffsets[i + 1]]
+    private final int[] edgeOffsets;
+    private final int[] edges;
+    private final int[] topologicalOrder;
+    private final int[] classpathOrder;
+    // Whether each node was selected by version mediation
+    private final boolean[] selected;
+    private final List<Path> classpath;
+
+    private ResolvedGraph(@NonNull DownloadResult[] nodes, @NonNull Map<String, Integer> indices, int @NonNull [] roots,
+                          int @NonNull [] edgeOffsets, int @NonNull [] edges, @NonNull VersionMediator mediator) {
+        this.nodes = nodes;
+        this.indices = indices;
+        this.roots = roots;
+        this.edgeOffsets = edgeOffsets;
+        this.edges = edges;
+        this.topologicalOrder = sortTopologically();
+        this.classpathOrder = mediate(mediator);
+        this.selected = new boolean[nodes.length];
+        for (int node : classpathOrder) {
+            selected[node] = true;
+        }
+
+        Set<Path> paths = new HashSet<>(classpathOrder.length * 2);
+        List<Path> classpath = new ArrayList<>(classpathOrder.length);
+        for (int node : classpathOrder) {
+            if (paths.add(nodes[node].getArtifactPath())) {
+                classpath.add(nodes[node].getArtifactPath());
+            }
+        }
+        this.classpath = Collections.unmodifiableList(classpath);
+    }
+
+    /**
+     * Builds a graph out of given download results. Results referring to the same coordinate become a single node
+     *
+     * @param results Root download results
+     * @param mediator Version mediator to put classpath together with
+     * @return Resolved graph
+     */
+    @NonNull
+    static ResolvedGraph of(@NonNull Collection<DownloadResult> results, @NonNull VersionMediator mediator) {
+        // Intern nodes breadth-first, so that nearer nodes get lower indices
+        List<DownloadResult> nodes = new ArrayList<>();
+        Map<String, Integer> indices = new HashMap<>();
+        int[] roots = new int[results.size()];
+        int rootCount = 0;
+        for (DownloadResult result : results) {
+            roots[rootCount++] = intern(result, nodes, indices);
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            for (DownloadResult transitive : nodes.get(i).getTransitiveDependencies()) {
+                intern(transitive, nodes, indices);
+            }
+        }
+
+        int[] edgeOffsets = new int[nodes.size() + 1];
+        for (int i = 0; i < nodes.size(); i++) {
+            edgeOffsets[i + 1] = edgeOffsets[i] + nodes.get(i).getTransitiveDependencies().size();
+        }
+        int[] edges = new int[edgeOffsets[nodes.size()]];
+        for (int i = 0; i < nodes.size(); i++) {
+            int offset = edgeOffsets[i];
+            for (DownloadResult transitive : nodes.get(i).getTransitiveDependencies()) {
+                edges[offset++] = indices.get(InFlightDownloads.key(transitive.getDependency()));
+            }
+        }
+
+        return new ResolvedGraph(nodes.toArray(new DownloadResult[0]), indices,
+                Arrays.copyOf(roots, rootCount), edgeOffsets, edges, mediator);
+    }
+
+    private static int intern(@NonNull DownloadResult result, @NonNull List<DownloadResult> nodes,
+                              @NonNull Map<String, Integer> indices) {
+        String key = InFlightDownloads.key(result.getDependency());
+        Integer index;
+        if ((index = indices.get(key)) == null) {
+            indices.put(key, index = nodes.size());
+            nodes.add(result);
+        }
+        return index;
+    }
+
+    /**
+     * Gets amount of nodes in this graph
+     *
+     * @return Amount of nodes
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Gets index of the node for given dependency
+     *
+     * @param dependency Dependency
+     * @return Node index, or {@code -1} if dependency is not in this graph
+     */
+    public int indexOf(@NonNull Dependency dependency) {
+        Integer index = indices.get(InFlightDownloads.key(dependency));
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Gets whether given dependency was selected by {@link VersionMediator}, i.e whether it's on the classpath
+     *
+     * @param dependency Dependency
+     * @return Whether dependency is in this graph and was selected
+     */
+    boolean isSelected(@NonNull Dependency dependency) {
+        int node = indexOf(dependency);
+        return node >= 0 && selected[node];
+    }
+
+    /**
+     * Gets download result of given node
+     *
+     * @param node Node index
+     * @return Download result
+     */
+    @NonNull
+    public DownloadResult getResult(int node) {
+        return nodes[node];
+    }
+
+    /**
+     * Gets dependency of given node
+     *
+     * @param node Node index
+     * @return Dependency
+     */
+    @NonNull
+    public Dependency getDependency(int node) {
+        return nodes[node].getDependency();
+    }
+
+    /**
+     * Gets artifact path of given node
+     *
+     * @param node Node index
+     * @return Artifact path
+     */
+    @NonNull
+    public Path getArtifactPath(int node) {
+        return nodes[node].getArtifactPath();
+    }
+
+    /**
+     * Returns whether given node was downloaded successfully
+     *
+     * @param node Node index
+     * @return Whether node was downloaded
+     */
+    public boolean isSuccess(int node) {
+        return nodes[node].isSuccess();
+    }
+
+    /**
+     * Gets amount of root nodes, in the order their dependencies were declared in
+     *
+     * @return Amount of root nodes
+     */
+    public int getRootCount() {
+        return roots.length;
+    }
+
+    /**
+     * Gets root node
+     *
+     * @param index Root index, from {@code 0} until {@link #getRootCount()}
+     * @return Node index
+     */
+    public int getRoot(int index) {
+        return roots[index];
+    }
+
+    /**
+     * Gets amount of direct dependencies of given node
+     *
+     * @param node Node index
+     * @return Amount of dependencies
+     */
+    public int getDependencyCount(int node) {
+        return edgeOffsets[node + 1] - edgeOffsets[node];
+    }
+
+    /**
+     * Gets direct dependency of given node
+     *
+     * @param node Node index
+     * @param index Dependency index, from {@code 0} until {@link #getDependencyCount(int)}
+     * @return Node index of the dependency
+     */
+    public int getDependency(int node, int index) {
+        if (index < 0 || index >= getDependencyCount(node)) {
+            throw new IndexOutOfBoundsException("Dependency index " + index + " is out of bounds");
+        }
+        return edges[edgeOffsets[node] + index];
+    }
+
+    /**
+     * Gets node in topological order, where every node comes after its dependencies
+     *
+     * @param index Index in topological order, from {@code 0} until {@link #size()}
+     * @return Node index
+     */
+    public int getTopologicalNode(int index) {
+        return topologicalOrder[index];
+    }
+
+    /**
+     * Gets amount of nodes on classpath
+     *
+     * @return Amount of nodes on classpath
+     */
+    public int getClasspathSize() {
+        return classpathOrder.length;
+    }
+
+    /**
+     * Gets node on classpath
+     *
+     * @param index Index on classpath, from {@code 0} until {@link #getClasspathSize()}
+     * @return Node index
+     */
+    public int getClasspathNode(int index) {
+        return classpathOrder[index];
+    }
+
+    /**
+     * Gets classpath of this graph. Only successfully downloaded nodes are included, every artifact only in the
+     * version selected by {@link VersionMediator}, nearer ones first
+     *
+     * @return Artifact paths in classpath order
+     */
+    @NonNull
+    public List<@NonNull Path> getClasspath() {
+        return classpath;
+    }
+
+    private int @NonNull [] sortTopologically() {
+        // Iterative depth-first search, node is emitted once all of its dependencies are
+        int[] order = new int[nodes.length];
+        int emitted = 0;
+        byte[] state = new byte[nodes.length];
+        int[] stack = new int[nodes.length];
+        int[] position = new int[nodes.length];
+        for (int start = 0; start < nodes.length; start++) {
+            if (state[start] != 0) {
+                continue;
+            }
+            int top = 0;
+            stack[0] = start;
+            position[0] = edgeOffsets[start];
+            state[start] = 1;
+            while (top >= 0) {
+                int node = stack[top];
+                if (position[top] < edgeOffsets[node + 1]) {
+                    int next = edges[position[top]++];
+                    // Cycles are broken at the edge leading back
+                    if (state[next] == 0) {
+                        state[next] = 1;
+                        stack[++top] = next;
+                        position[top] = edgeOffsets[next];
+                    }
+                    continue;
+                }
+                state[node] = 2;
+                order[emitted++] = node;
+                top--;
+            }
+        }
+        return order;
+    }
+
+    private int @NonNull [] mediate(@NonNull VersionMediator mediator) {
+        // Select versions breadth-first. Nodes which lose are not walked past
+        Map<String, Candidate> winners = new HashMap<>();
+        walk((node, depth) -> {
+            String key = artifactKey(nodes[node].getDependency());
+            Candidate candidate = new Candidate(nodes[node].getDependency(), depth);
+            Candidate current;
+            if ((current = winners.get(key)) == null || mediator.select(current, candidate) == candidate) {
+                winners.put(key, candidate);
+                return true;
+            }
+            return false;
+        });
+
+        // Collect winners in the order they are encountered in
+        int[] order = new int[nodes.length];
+        int[] count = new int[1];
+        walk((node, depth) -> {
+            Candidate winner = winners.get(artifactKey(nodes[node].getDependency()));
+            if (winner == null || !winner.getDependency().getVersion().equals(nodes[node].getDependency().getVersion())) {
+                return false;
+            }
+            order[count[0]++] = node;
+            return true;
+        });
+        return Arrays.copyOf(order, count[0]);
+    }
+
+    private void walk(@NonNull Visitor visitor) {
+        int[] queue = new int[nodes.length];
+        int[] depths = new int[nodes.length];
+        boolean[] visited = new boolean[nodes.length];
+        int head = 0;
+        int tail = 0;
+        for (int root : roots) {
+            if (!visited[root]) {
+                visited[root] = true;
+                queue[tail++] = root;
+            }
+        }
+
+        // Losing nodes might be reached again through another path, but are not walked past either
+        while (head < tail) {
+            int node = queue[head];
+            int depth = depths[head++];
+            if (!nodes[node].isSuccess() || !visitor.visit(node, depth)) {
+                continue;
+            }
+            for (int i = edgeOffsets[node]; i < edgeOffsets[node + 1]; i++) {
+                int next = edges[i];
+                if (!visited[next]) {
+                    visited[next] = true;
+                    depths[tail] = depth + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private static String artifactKey(@NonNull Dependency dependency) {
+        @Nullable String classifier = dependency.getClassifier();
+        return dependency.getGroupId() + ':' + dependency.getArtifactId() + (classifier != null ? ":" + classifier : "");
+    }
+
+    @FunctionalInterface
+    private interface Visitor {
+        boolean visit(int node, int depth);
+    }
+
+    @Override
+    public String toString() {
+        return "ResolvedGraph{" +
+                "nodes=" + nodes.length +
+                ", edges=" + edges.length +
+                ", classpath=" + classpath.size() +
+                '}';
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.internal.SneakyThrow;
+import eu.mikroskeem.picomaven.internal.StreamUtils;
+import eu.mikroskeem.picomaven.internal.TaskUtils;
+import eu.mikroskeem.picomaven.transport.Transport;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Downloads a large artifact as several concurrent {@code Range} requests, each written at its own offset
+ * into a preallocated partial file. First segment is read from the response which announced artifact
+ * length, so no request is wasted. If a segment fails, the rest of artifact is downloaded with a single
+ * request, continuing after the segments which were downloaded without gaps.
+ *
+ * @author Mark Vainomaa
+ */
+final class SegmentedDownload {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedDownload.class);
+
+    private SegmentedDownload() {}
+
+    /**
+     * Returns whether given response should be downloaded in segments
+     *
+     * @param response Response to the artifact request
+     * @param threshold Minimum artifact size to download in segments, {@code 0} disables segmented downloads
+     * @return Whether to download in segments
+     */
+    static boolean isApplicable(Transport.@NonNull Response response, long threshold) {
+        return threshold > 0
+                && response.getStatusCode() == 200
+                && response.getContentLength() >= threshold
+                && "bytes".equalsIgnoreCase(response.getHeader("Accept-Ranges"));
+    }
+
+    /**
+     * Downloads artifact into partial file in segments
+     *
+     * @param transport Transport to request segments with
+     * @param executor Executor to request segments on
+     * @param url Artifact URL
+     * @param partial Partial download to write into
+     * @param response Response to the artifact request. Only the first segment is read from it
+     * @param segments Amount of segments to split artifact into
+     * @return Future completing once whole artifact is written
+     * @throws IOException If first segment fails to download
+     */
+    @NonNull
+    static CompletableFuture<Void> download(@NonNull Transport transport, @NonNull Executor executor, @NonNull URL url,
+                                            @NonNull PartialDownload partial, Transport.@NonNull Response response,
+                                            int segments) throws IOException {
+        long length = response.getContentLength();
+        long segmentLength = (length + segments - 1) / segments;
+        logger.debug("Downloading {} ({} bytes) in {} segments", url, length, segments);
+
+        FileChannel channel = partial.beginSegmented(response);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[segments - 1];
+        try {
+            // Fire off the rest before reading first segment
+            for (int i = 1; i < segments; i++) {
+                long start = i * segmentLength;
+                long end = Math.min(start + segmentLength, length);
+                futures[i - 1] = start < end
+                        ? CompletableFuture.supplyAsync(() -> SneakyThrow.get(() -> {
+                            downloadSegment(transport, url, partial, channel, start, end);
+                            return null;
+                        }), executor)
+                        : CompletableFuture.completedFuture(null);
+            }
+
+            try (InputStream is = response.getBody()) {
+                StreamUtils.transferRange(is, channel, 0, Math.min(segmentLength, length));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Let already started segments finish before closing the channel
+            CompletableFuture.allOf(nonNull(futures)).whenComplete((ignored, suppressed) -> close(channel));
+            throw e;
+        }
+
+        return CompletableFuture.allOf(futures).handle((ignored, e) -> {
+            close(channel);
+            if (e == null) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+
+            logger.debug("Segmented download of {} failed, continuing with a single request: {}", url,
+                    TaskUtils.unwrap(e).getMessage());
+            long downloaded = Math.min(segmentLength, length);
+            for (int i = 0; i < futures.length && !futures[i].isCompletedExceptionally(); i++) {
+                downloaded = Math.min((i + 2) * segmentLength, length);
+            }
+            long continueFrom = downloaded;
+
+            // Rest of artifact is requested like any other segment, not on whichever thread failed last
+            return CompletableFuture.supplyAsync(() -> SneakyThrow.get(() -> {
+                resume(transport, url, partial, continueFrom);
+                return (Void) null;
+            }), executor);
+        }).thenCompose(Function.identity());
+    }
+
+    private static void resume(@NonNull Transport transport, @NonNull URL url, @NonNull PartialDownload partial,
+                               long downloaded) throws IOException {
+        partial.keepSegments(downloaded);
+        // Artifact is digested once it's complete, so it's only copied here
+        try (Transport.Response response = partial.request(transport); InputStream is = response.getBody();
+             FileChannel channel = partial.begin(response)) {
+            StreamUtils.transfer(is, channel);
+            partial.checkComplete(channel);
+        }
+    }
+
+    private static void downloadSegment(@NonNull Transport transport, @NonNull URL url, @NonNull PartialDownload partial,
+                                        @NonNull FileChannel channel, long start, long end) throws IOException {
+        Map<String, String> headers = new HashMap<>(2);
+        headers.put("Range", "bytes=" + start + "-" + (end - 1));
+        if (partial.getValidator() != null) {
+            headers.put("If-Range", partial.getValidator());
+        }
+
+        try (Transport.Response response = Transport.expectSuccess(transport.request("GET", url, headers), url)) {
+            if (response.getStatusCode() != 206 || PartialDownload.getRangeStart(response) != start) {
+                throw new IOException("Server did not honor range request for " + url + " segment at " + start);
+            }
+            try (InputStream is = response.getBody()) {
+                StreamUtils.transferRange(is, channel, start, end - start);
+            }
+        }
+    }
+
+    @NonNull
+    private static CompletableFuture<?>[] nonNull(@NonNull CompletableFuture<?>[] futures) {
+        CompletableFuture<?>[] result = futures.clone();
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] == null) {
+                result[i] = CompletableFuture.completedFuture(null);
+            }
+        }
+        return result;
+    }
+
+    private static void close(@NonNull FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close segmented download channel", e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * File size and modification time, used to tell whether file has changed
+ *
+ * @author Mark Vainomaa
+ */
+final class Stamp {
+    private static final Stamp MISSING = new Stamp(-1, -1);
+
+    private final long size;
+    private final long modified;
+
+    private Stamp(long size, long modified) {
+        this.size = size;
+        this.modified = modified;
+    }
+
+    boolean matches(@NonNull Path path) throws IOException {
+        return equals(of(path));
+    }
+
+    void write(@NonNull DataOutputStream out) throws IOException {
+        out.writeLong(size);
+        out.writeLong(modified);
+    }
+
+    @NonNull
+    static Stamp read(@NonNull DataInputStream in) throws IOException {
+        long size = in.readLong();
+        long modified = in.readLong();
+        return size < 0 ? MISSING : new Stamp(size, modified);
+    }
+
+    @NonNull
+    static Stamp of(@NonNull Path path) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Stamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException e) {
+            return MISSING;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Stamp)) return false;
+        Stamp stamp = (Stamp) o;
+        return size == stamp.size && modified == stamp.modified;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(size) * 31 + Long.hashCode(modified);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Policy telling how often already resolved {@code -SNAPSHOT} dependencies are checked for updates,
+ * similar to Maven's {@code updatePolicy} repository setting
+ *
+ * @author Mark Vainomaa
+ */
+public final class UpdatePolicy {
+    /**
+     * Check for updates on every resolution
+     */
+    public static final UpdatePolicy ALWAYS = new UpdatePolicy("always", 0, false);
+
+    /**
+     * Check for updates once a day, on first resolution after midnight
+     */
+    public static final UpdatePolicy DAILY = new UpdatePolicy("daily", 0, true);
+
+    /**
+     * Never check for updates, once snapshot is resolved
+     */
+    public static final UpdatePolicy NEVER = new UpdatePolicy("never", Long.MAX_VALUE, false);
+
+    private final String name;
+    private final long interval;
+    private final boolean daily;
+
+    private UpdatePolicy(@NonNull String name, long interval, boolean daily) {
+        this.name = name;
+        this.interval = interval;
+        this.daily = daily;
+    }
+
+    /**
+     * Check for updates when given amount of time has passed since last check
+     *
+     * @param duration Time between checks
+     * @param unit Duration unit
+     * @return Update policy
+     */
+    @NonNull
+    public static UpdatePolicy interval(long duration, @NonNull TimeUnit unit) {
+        if (duration < 0) throw new IllegalArgumentException("Update interval cannot be negative");
+        return new UpdatePolicy("interval:" + unit.toMinutes(duration), unit.toMillis(duration), false);
+    }
+
+    /**
+     * Returns whether dependency should be checked for updates
+     *
+     * @param lastChecked When dependency was last checked for updates, in milliseconds since epoch
+     * @param now Current time, in milliseconds since epoch
+     * @return Whether to check for updates
+     */
+    public boolean isUpdateRequired(long lastChecked, long now) {
+        if (daily) {
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate checkedDay = Instant.ofEpochMilli(lastChecked).atZone(zone).toLocalDate();
+            return checkedDay.isBefore(Instant.ofEpochMilli(now).atZone(zone).toLocalDate());
+        }
+        return interval == 0 || now - lastChecked >= interval;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdatePolicy{" + name + '}';
+    }
+}
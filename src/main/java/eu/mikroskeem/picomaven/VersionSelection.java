@@ -0,0 +1,95 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.Dependency;
+import eu.mikroskeem.picomaven.artifact.VersionMediator;
+import eu.mikroskeem.picomaven.artifact.VersionMediator.Candidate;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Mediates versions of artifacts referred to by several dependencies.
+ * <p>
+ * While the graph is being resolved, versions which are already known to lose are replaced with the
+ * winning one, so they are never downloaded. Dependencies shared by several paths are resolved once, at
+ * the depth of whichever path reached them first, so a version might still turn out to be nearer than it
+ * was seen at. Such versions are kept, and final selection is made by {@link ResolvedGraph} once the graph
+ * is complete.
+ *
+ * @author Mark Vainomaa
+ */
+final class VersionSelection {
+    private final VersionMediator mediator;
+    // Best version seen so far per artifact
+    private final ConcurrentMap<String, Candidate> selected = new ConcurrentHashMap<>();
+
+    VersionSelection(@NonNull VersionMediator mediator) {
+        this.mediator = mediator;
+    }
+
+    @NonNull
+    VersionMediator getMediator() {
+        return mediator;
+    }
+
+    /**
+     * Offers a version of an artifact found at given depth
+     *
+     * @param dependency Dependency referring to the version
+     * @param depth Distance from the root dependency along the path it was found through. Declared
+     *              dependencies are at depth {@code 0}, which is final
+     * @return Dependency which should be downloaded instead. Either given dependency, or the version which
+     *         is already known to win over it
+     */
+    @NonNull
+    Dependency mediate(@NonNull Dependency dependency, int depth) {
+        Candidate candidate = new Candidate(dependency, depth);
+        Candidate current = selected.merge(key(dependency), candidate, (existing, offered) -> {
+            if (existing.getDependency().getVersion().equals(offered.getDependency().getVersion())) {
+                return offered.getDepth() < existing.getDepth() ? offered : existing;
+            }
+            return mediator.select(existing, offered);
+        });
+
+        // Replace only when the outcome does not depend on the order versions were seen in, nor on how near
+        // the offered version turns out to be. Being nearer is assumed to never make a version lose
+        if (current != candidate && !current.getDependency().getVersion().equals(dependency.getVersion())
+                && mediator.select(depth > 0 ? new Candidate(dependency, 1) : candidate, current) == current) {
+            return new Dependency(current.getDependency());
+        }
+        return dependency;
+    }
+
+    @NonNull
+    private static String key(@NonNull Dependency dependency) {
+        @Nullable String classifier = dependency.getClassifier();
+        return dependency.getGroupId() + ':' + dependency.getArtifactId() + (classifier != null ? ":" + classifier : "");
+    }
+}
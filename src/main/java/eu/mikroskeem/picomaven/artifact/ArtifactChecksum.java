@@ -27,12 +27,12 @@ package eu.mikroskeem.picomaven.artifact;
 
 import eu.mikroskeem.picomaven.internal.SneakyThrow;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
-import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.Base64;
 import java.util.Objects;
-import java.util.function.BiPredicate;
+import java.util.function.Function;
 
 /**
  * An artifact checksum
@@ -43,6 +43,8 @@ public final class ArtifactChecksum {
     private final ChecksumAlgo algo;
     private final ChecksumEncoding encoding;
     private final String checksum;
+    // Decoded checksum, computed on first use
+    private volatile byte @Nullable [] decoded;
 
     /**
      * Constructs a new artifact checksum object
@@ -84,6 +86,21 @@ public final class ArtifactChecksum {
         return checksum;
     }
 
+    /**
+     * Checks whether this checksum matches given digest. Checksum is decoded only once
+     *
+     * @param digest Computed digest bytes
+     * @return Whether checksum matches or not. Malformed checksum never matches
+     */
+    public boolean matches(byte @NonNull [] digest) {
+        byte[] expected = decoded;
+        if (expected == null) {
+            expected = encoding.decode(checksum);
+            decoded = expected = expected != null ? expected : new byte[0];
+        }
+        return expected.length > 0 && MessageDigest.isEqual(digest, expected);
+    }
+
     @Override
     public String toString() {
         return "ArtifactChecksum{" +
@@ -115,7 +132,7 @@ public final class ArtifactChecksum {
         /**
          * SHA-1
          */
-        SHA1("sha1", "SHA1"),
+        SHA1("sha1", "SHA-1"),
 
         /**
          * MD-5
@@ -125,11 +142,14 @@ public final class ArtifactChecksum {
         /**
          * SHA-256
          */
-        SHA256("sha256", "SHA256")
+        SHA256("sha256", "SHA-256")
         ;
 
         private final String ext;
+        // Standard JCA name, not the file extension
         private final String messageDigestAlgo;
+        // Cloning is cheaper than looking up the provider every time
+        private volatile MessageDigest prototype;
 
         ChecksumAlgo(@NonNull String ext, @NonNull String messageDigestAlgo) {
             this.ext = ext;
@@ -153,7 +173,15 @@ public final class ArtifactChecksum {
          */
         @NonNull
         public MessageDigest getMessageDigest() {
-            return SneakyThrow.get(() -> MessageDigest.getInstance(this.messageDigestAlgo));
+            MessageDigest prototype = this.prototype;
+            if (prototype == null) {
+                this.prototype = prototype = SneakyThrow.get(() -> MessageDigest.getInstance(this.messageDigestAlgo));
+            }
+            try {
+                return (MessageDigest) prototype.clone();
+            } catch (CloneNotSupportedException e) {
+                return SneakyThrow.get(() -> MessageDigest.getInstance(this.messageDigestAlgo));
+            }
         }
     }
 
@@ -164,26 +192,48 @@ public final class ArtifactChecksum {
         /**
          * Hex checksum (most common)
          */
-        HEX((md, checksum) -> {
-            StringBuilder sb = new StringBuilder();
-            for (byte b : md.digest()) {
-                sb.append(String.format("%02x", b));
+        HEX(checksum -> {
+            if (checksum.length() % 2 != 0) {
+                return null;
+            }
+            byte[] bytes = new byte[checksum.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                int high = Character.digit(checksum.charAt(i * 2), 16);
+                int low = Character.digit(checksum.charAt(i * 2 + 1), 16);
+                if (high == -1 || low == -1) {
+                    return null;
+                }
+                bytes[i] = (byte) ((high << 4) | low);
             }
-            return sb.toString().equalsIgnoreCase(checksum);
+            return bytes;
         }),
 
         /**
          * Base64 checksum
          */
-        BASE64((md, checksum) -> {
-            return new String(Base64.getEncoder().encode(md.digest()), StandardCharsets.UTF_8).equals(checksum);
+        BASE64(checksum -> {
+            try {
+                return Base64.getDecoder().decode(checksum);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
         }),
         ;
 
-        private final BiPredicate<MessageDigest, String> verifier;
+        private final Function<String, byte[]> decoder;
 
-        ChecksumEncoding(@NonNull BiPredicate<MessageDigest, String> verifier) {
-            this.verifier = verifier;
+        ChecksumEncoding(@NonNull Function<String, byte[]> decoder) {
+            this.decoder = decoder;
+        }
+
+        /**
+         * Decodes checksum into bytes
+         *
+         * @param checksum Checksum to decode
+         * @return Checksum bytes, or {@code null} if checksum is malformed
+         */
+        public byte @Nullable [] decode(@NonNull String checksum) {
+            return decoder.apply(checksum);
         }
 
         /**
@@ -194,7 +244,19 @@ public final class ArtifactChecksum {
          * @return Whether checksums match or not
          */
         public boolean verify(@NonNull MessageDigest md, @NonNull String checksum) {
-            return verifier.test(md, checksum);
+            return verify(md.digest(), checksum);
+        }
+
+        /**
+         * Verifies checksum
+         *
+         * @param digest Computed digest bytes
+         * @param checksum Checksum to check against
+         * @return Whether checksums match or not
+         */
+        public boolean verify(byte @NonNull [] digest, @NonNull String checksum) {
+            byte[] expected = decode(checksum);
+            return expected != null && MessageDigest.isEqual(digest, expected);
         }
     }
 }
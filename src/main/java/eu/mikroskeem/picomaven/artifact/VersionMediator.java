@@ -0,0 +1,92 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven.artifact;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * Picks a single version of an artifact when dependency graph refers to several of them. Artifacts are
+ * told apart by group id, artifact id and classifier
+ *
+ * @author Mark Vainomaa
+ */
+public interface VersionMediator {
+    /**
+     * Maven's rule: version nearest to the root wins, and first declaration wins among equally near ones
+     */
+    VersionMediator NEAREST_WINS = (current, candidate) -> candidate.getDepth() < current.getDepth() ? candidate : current;
+
+    /**
+     * Picks one of two versions of the same artifact. Candidates are offered in breadth-first order, so
+     * {@code current} was encountered before {@code candidate}
+     *
+     * @param current Version selected so far
+     * @param candidate Another version
+     * @return Either {@code current} or {@code candidate}
+     */
+    @NonNull
+    Candidate select(@NonNull Candidate current, @NonNull Candidate candidate);
+
+    /**
+     * Version of an artifact found from dependency graph
+     */
+    final class Candidate {
+        private final Dependency dependency;
+        private final int depth;
+
+        public Candidate(@NonNull Dependency dependency, int depth) {
+            this.dependency = dependency;
+            this.depth = depth;
+        }
+
+        /**
+         * Gets dependency referring to this version
+         *
+         * @return Dependency
+         */
+        @NonNull
+        public Dependency getDependency() {
+            return dependency;
+        }
+
+        /**
+         * Gets distance from the root dependency, root itself being at depth {@code 0}
+         *
+         * @return Depth
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        @Override
+        public String toString() {
+            return "Candidate{" +
+                    "dependency=" + dependency +
+                    ", depth=" + depth +
+                    '}';
+        }
+    }
+}
@@ -26,6 +26,9 @@
 package eu.mikroskeem.picomaven.internal;
 
 import eu.mikroskeem.picomaven.artifact.ArtifactChecksum;
+import eu.mikroskeem.picomaven.artifact.ArtifactChecksum.ChecksumAlgo;
+import eu.mikroskeem.picomaven.transport.Transport;
+import eu.mikroskeem.picomaven.transport.Transports;
 import org.apache.maven.artifact.repository.metadata.Metadata;
 import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
 import org.apache.maven.model.Dependency;
@@ -36,16 +39,21 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Writer;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.security.MessageDigest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.function.Predicate;
@@ -55,28 +63,89 @@ import java.util.stream.Collectors;
  * @author Mark Vainomaa
  */
 public final class DataProcessor {
+    private static final int CHECKSUM_READ_LIMIT = 1024;
+
     private DataProcessor() {}
 
     @Nullable
     public static Metadata getMetadata(@NonNull URL url) throws IOException {
-        try (InputStream is = UrlUtils.openConnection(url).getInputStream()) {
-            return new MetadataXpp3Reader().read(is, false);
+        return getMetadata(Transports.urlConnection(), url);
+    }
+
+    @Nullable
+    public static Metadata getMetadata(@NonNull Transport transport, @NonNull URL url) throws IOException {
+        try (Transport.Response response = transport.get(url); InputStream is = response.getBody()) {
+            return readMetadata(is);
         } catch (FileNotFoundException e) {
             return null;
-        } catch (XmlPullParserException e) {
-            throw new IOException("Unable to parse XML", e);
+        }
+    }
+
+    @NonNull
+    public static Metadata readMetadata(@NonNull InputStream is) throws IOException {
+        byte[] metadata = StreamUtils.readBytes(is);
+        try {
+            return ModelExtractor.readMetadata(metadata);
+        } catch (IOException e) {
+            // Full reader is more lenient, e.g. about undeclared entities
+            try {
+                return new MetadataXpp3Reader().read(new ByteArrayInputStream(metadata), false);
+            } catch (XmlPullParserException ex) {
+                IOException failure = new IOException("Unable to parse XML", ex);
+                failure.addSuppressed(e);
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Reads POM model. POM is read by {@link ModelExtractor}, and only if it fails, by the full model reader
+     *
+     * @param pom POM contents
+     * @return Model
+     * @throws IOException If POM is malformed
+     */
+    @NonNull
+    public static Model readPom(byte @NonNull [] pom) throws IOException {
+        try {
+            return ModelExtractor.readModel(pom);
+        } catch (IOException e) {
+            // Full reader is more lenient, e.g. about undeclared entities
+            try {
+                return new MavenXpp3Reader().read(new ByteArrayInputStream(pom), false);
+            } catch (XmlPullParserException ex) {
+                IOException failure = new IOException("Unable to parse XML", ex);
+                failure.addSuppressed(e);
+                throw failure;
+            }
         }
     }
 
     @Nullable
     public static Model getPom(@NonNull URL url) throws IOException {
-        try (InputStream is = UrlUtils.openConnection(url).getInputStream()) {
-            return new MavenXpp3Reader().read(is, false);
+        return getPom(Transports.urlConnection(), url);
+    }
+
+    @Nullable
+    public static Model getPom(@NonNull Transport transport, @NonNull URL url) throws IOException {
+        byte[] pom;
+        try (Transport.Response response = transport.get(url); InputStream is = response.getBody()) {
+            pom = StreamUtils.readBytes(is);
         } catch (FileNotFoundException e) {
             return null;
-        } catch (XmlPullParserException e) {
-            throw new IOException("Unable to parse XML", e);
         }
+        return readPom(pom);
+    }
+
+    @Nullable
+    public static Model getPom(@NonNull Path path) throws IOException {
+        byte[] pom;
+        try {
+            pom = Files.readAllBytes(path);
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            return null;
+        }
+        return readPom(pom);
     }
 
     public static void serializeModel(@NonNull Model model, @NonNull Writer w, boolean sanitize) throws IOException {
@@ -102,15 +171,18 @@ public final class DataProcessor {
 
     @NonNull
     public static CompletableFuture<@Nullable ArtifactChecksum> getArtifactChecksum(@NonNull Executor executor,
+                                                                                    @NonNull Transport transport,
                                                                                     @NonNull URL artifactUrl,
                                                                                     ArtifactChecksum.ChecksumAlgo cst) {
         final URL url = UrlUtils.createURL(artifactUrl.toString() + "." + cst.getExt());
 
         return CompletableFuture.supplyAsync(() -> {
-            try (BufferedReader is = new BufferedReader(new InputStreamReader(UrlUtils.openConnection(url).getInputStream()))) {
-                String response = is.lines().collect(Collectors.joining("\n"));
-                String[] parts = response.split("\\s", 2); // Checksum could be in '<checksum> <filename>' format, e.g what GNU coreutils output.
-                String checksum = parts.length == 2 ? parts[0] : response;
+            try (Transport.Response checksumResponse = transport.get(url); InputStream is = checksumResponse.getBody()) {
+                // Checksum could be in '<checksum> <filename>' format, e.g what GNU coreutils output.
+                String checksum = readFirstToken(is);
+                if (checksum.isEmpty()) {
+                    throw new IOException("Empty checksum file " + url);
+                }
                 return new ArtifactChecksum(cst, ArtifactChecksum.ChecksumEncoding.HEX, checksum);
             } catch (SocketTimeoutException | UnknownHostException e) {
                 return null;
@@ -123,10 +195,83 @@ public final class DataProcessor {
         }, executor);
     }
 
+    /**
+     * Reads checksum file stored next to an artifact
+     *
+     * @param path Checksum file path
+     * @param algo Checksum algorithm
+     * @return Checksum, or {@code null} if file does not exist or is empty
+     * @throws IOException If reading fails
+     */
+    @Nullable
+    public static ArtifactChecksum readChecksum(@NonNull Path path, ArtifactChecksum.@NonNull ChecksumAlgo algo) throws IOException {
+        try (InputStream is = Files.newInputStream(path)) {
+            String checksum = readFirstToken(is);
+            return checksum.isEmpty() ? null : new ArtifactChecksum(algo, ArtifactChecksum.ChecksumEncoding.HEX, checksum);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @NonNull
+    private static String readFirstToken(@NonNull InputStream is) throws IOException {
+        // Checksums are short, no need to read whole file
+        byte[] buf = new byte[CHECKSUM_READ_LIMIT];
+        int length = 0;
+        int read;
+        while (length < buf.length && (read = is.read(buf, length, buf.length - length)) != -1) {
+            length += read;
+        }
+
+        int start = 0;
+        while (start < length && Character.isWhitespace(buf[start])) {
+            start++;
+        }
+        int end = start;
+        while (end < length && !Character.isWhitespace(buf[end])) {
+            end++;
+        }
+        return new String(buf, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encodes bytes as lowercase hex string
+     *
+     * @param bytes Bytes to encode
+     * @return Hex string
+     */
+    @NonNull
+    public static String toHex(byte @NonNull [] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            chars[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(chars);
+    }
+
     public static boolean verifyChecksum(@NonNull ArtifactChecksum artifactChecksum, @NonNull byte[] data) {
-        MessageDigest md = artifactChecksum.getAlgo().getMessageDigest();
-        md.update(data);
-        return artifactChecksum.getEncoding().verify(md, artifactChecksum.getChecksum());
+        return verifyChecksums(Collections.singletonList(artifactChecksum), data);
+    }
+
+    /**
+     * Verifies given data against all checksums, hashing it only once per distinct algorithm
+     *
+     * @param checksums Checksums to verify against
+     * @param data Data to verify
+     * @return Whether all checksums match
+     */
+    public static boolean verifyChecksums(@NonNull Collection<ArtifactChecksum> checksums, byte @NonNull [] data) {
+        Map<ChecksumAlgo, byte[]> computed;
+        try (MultiDigest digest = MultiDigest.forChecksums(checksums)) {
+            digest.update(data, 0, data.length);
+            computed = digest.finish();
+        }
+        return MultiDigest.verify(checksums, computed);
+    }
+
+    public static boolean verifyDigest(@NonNull ArtifactChecksum artifactChecksum, byte @NonNull [] digest) {
+        return artifactChecksum.matches(digest);
     }
 
     public static final Predicate<String> RELEVANT_STRING_SCOPE_PREDICATE = scope -> {
@@ -28,6 +28,8 @@ package eu.mikroskeem.picomaven.internal;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -37,6 +39,9 @@ import java.nio.file.StandardOpenOption;
  * @author Mark Vainomaa
  */
 public final class FileUtils {
+    // Large files are mapped piece by piece to keep address space usage bounded
+    private static final long MAPPED_CHUNK_SIZE = 64L * 1024 * 1024;
+
     private FileUtils() {}
 
     @NonNull
@@ -61,4 +66,37 @@ public final class FileUtils {
         Path temporary = getTemporaryFileName(target);
         writeAtomicReplace(target, temporary, data);
     }
+
+    public static void digest(@NonNull Path file, @NonNull MultiDigest digest) throws IOException {
+        try (InputStream is = Files.newInputStream(file)) {
+            StreamUtils.digest(is, digest);
+        }
+    }
+
+    /**
+     * Feeds given file into {@link MultiDigest} through memory mapping, avoiding copying file contents
+     * through stream buffers
+     *
+     * @param file File to digest
+     * @param digest Digests to update
+     * @throws IOException If reading fails
+     */
+    public static void digestMapped(@NonNull Path file, @NonNull MultiDigest digest) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAPPED_CHUNK_SIZE) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_CHUNK_SIZE, size - position)));
+            }
+        }
+    }
+
+    public static void moveAtomicReplace(@NonNull Path temporary, @NonNull Path target) throws IOException {
+        // Create parent directory if target file does not exist.
+        if (Files.notExists(target)) {
+            Files.createDirectories(target.getParent());
+        }
+
+        // Atomic replace
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
 }
@@ -0,0 +1,517 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven.internal;
+
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Snapshot;
+import org.apache.maven.artifact.repository.metadata.SnapshotVersion;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.Repository;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming reader of POMs and repository metadata. Only the parts PicoMaven uses are read, everything
+ * else (build, reporting, profiles, ...) is skipped without building any objects for it.
+ * <p>
+ * Read POM model contains coordinates, packaging, parent, properties, dependencies, dependency management
+ * and repositories. Read metadata contains coordinates and versioning.
+ * <p>
+ * Only UTF-8 documents without a DTD are supported, and only predefined and numeric entities are known.
+ * Anything else is reported as an {@link IOException}, so that caller can fall back to a full XML reader.
+ *
+ * @author Mark Vainomaa
+ */
+public final class ModelExtractor {
+    private ModelExtractor() {}
+
+    /**
+     * Reads POM model
+     *
+     * @param is POM input stream
+     * @return Model with the parts PicoMaven uses
+     * @throws IOException If reading fails or POM is malformed
+     */
+    @NonNull
+    public static Model readModel(@NonNull InputStream is) throws IOException {
+        return readModel(StreamUtils.readBytes(is));
+    }
+
+    /**
+     * Reads POM model
+     *
+     * @param pom POM contents
+     * @return Model with the parts PicoMaven uses
+     * @throws IOException If POM is malformed, or uses XML features not supported by this reader
+     */
+    @NonNull
+    public static Model readModel(byte @NonNull [] pom) throws IOException {
+        Cursor cursor = new Cursor(pom, "project");
+        Model model = new Model();
+        while (cursor.nextElement()) {
+            switch (cursor.getName()) {
+                case "modelVersion": model.setModelVersion(cursor.text()); break;
+                case "groupId": model.setGroupId(cursor.text()); break;
+                case "artifactId": model.setArtifactId(cursor.text()); break;
+                case "version": model.setVersion(cursor.text()); break;
+                case "packaging": model.setPackaging(cursor.text()); break;
+                case "parent": model.setParent(readParent(cursor)); break;
+                case "properties":
+                    while (cursor.nextElement()) {
+                        String name = cursor.getName();
+                        model.addProperty(name, cursor.text());
+                    }
+                    break;
+                case "dependencies":
+                    while (cursor.nextElement()) {
+                        if ("dependency".equals(cursor.getName())) {
+                            model.addDependency(readDependency(cursor));
+                        } else {
+                            cursor.skip();
+                        }
+                    }
+                    break;
+                case "dependencyManagement":
+                    DependencyManagement management = new DependencyManagement();
+                    while (cursor.nextElement()) {
+                        if (!"dependencies".equals(cursor.getName())) {
+                            cursor.skip();
+                            continue;
+                        }
+                        while (cursor.nextElement()) {
+                            if ("dependency".equals(cursor.getName())) {
+                                management.addDependency(readDependency(cursor));
+                            } else {
+                                cursor.skip();
+                            }
+                        }
+                    }
+                    model.setDependencyManagement(management);
+                    break;
+                case "repositories":
+                    while (cursor.nextElement()) {
+                        if ("repository".equals(cursor.getName())) {
+                            model.addRepository(readRepository(cursor));
+                        } else {
+                            cursor.skip();
+                        }
+                    }
+                    break;
+                default:
+                    cursor.skip();
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Reads repository metadata
+     *
+     * @param is Metadata input stream
+     * @return Metadata with coordinates and versioning
+     * @throws IOException If reading fails or metadata is malformed
+     */
+    @NonNull
+    public static Metadata readMetadata(@NonNull InputStream is) throws IOException {
+        return readMetadata(StreamUtils.readBytes(is));
+    }
+
+    /**
+     * Reads repository metadata
+     *
+     * @param metadataBytes Metadata contents
+     * @return Metadata with coordinates and versioning
+     * @throws IOException If metadata is malformed, or uses XML features not supported by this reader
+     */
+    @NonNull
+    public static Metadata readMetadata(byte @NonNull [] metadataBytes) throws IOException {
+        Cursor cursor = new Cursor(metadataBytes, "metadata");
+        Metadata metadata = new Metadata();
+        while (cursor.nextElement()) {
+            switch (cursor.getName()) {
+                case "groupId": metadata.setGroupId(cursor.text()); break;
+                case "artifactId": metadata.setArtifactId(cursor.text()); break;
+                case "version": metadata.setVersion(cursor.text()); break;
+                case "versioning": metadata.setVersioning(readVersioning(cursor)); break;
+                default: cursor.skip();
+            }
+        }
+        return metadata;
+    }
+
+    @NonNull
+    private static Parent readParent(@NonNull Cursor cursor) throws IOException {
+        Parent parent = new Parent();
+        while (cursor.nextElement()) {
+            switch (cursor.getName()) {
+                case "groupId": parent.setGroupId(cursor.text()); break;
+                case "artifactId": parent.setArtifactId(cursor.text()); break;
+                case "version": parent.setVersion(cursor.text()); break;
+                case "relativePath": parent.setRelativePath(cursor.text()); break;
+                default: cursor.skip();
+            }
+        }
+        return parent;
+    }
+
+    @NonNull
+    private static Dependency readDependency(@NonNull Cursor cursor) throws IOException {
+        Dependency dependency = new Dependency();
+        while (cursor.nextElement()) {
+            switch (cursor.getName()) {
+                case "groupId": dependency.setGroupId(cursor.text()); break;
+                case "artifactId": dependency.setArtifactId(cursor.text()); break;
+                case "version": dependency.setVersion(cursor.text()); break;
+                case "type": dependency.setType(cursor.text()); break;
+                case "classifier": dependency.setClassifier(cursor.text()); break;
+                case "scope": dependency.setScope(cursor.text()); break;
+                case "optional": dependency.setOptional(cursor.text()); break;
+                default: cursor.skip();
+            }
+        }
+        return dependency;
+    }
+
+    @NonNull
+    private static Repository readRepository(@NonNull Cursor cursor) throws IOException {
+        Repository repository = new Repository();
+        while (cursor.nextElement()) {
+            switch (cursor.getName()) {
+                case "id": repository.setId(cursor.text()); break;
+                case "name": repository.setName(cursor.text()); break;
+                case "url": repository.setUrl(cursor.text()); break;
+                case "layout": repository.setLayout(cursor.text()); break;
+                default: cursor.skip();
+            }
+        }
+        return repository;
+    }
+
+    @NonNull
+    private static Versioning readVersioning(@NonNull Cursor cursor) throws IOException {
+        Versioning versioning = new Versioning();
+        while (cursor.nextElement()) {
+            switch (cursor.getName()) {
+                case "latest": versioning.setLatest(cursor.text()); break;
+                case "release": versioning.setRelease(cursor.text()); break;
+                case "lastUpdated": versioning.setLastUpdated(cursor.text()); break;
+                case "versions":
+                    while (cursor.nextElement()) {
+                        if ("version".equals(cursor.getName())) {
+                            versioning.addVersion(cursor.text());
+                        } else {
+                            cursor.skip();
+                        }
+                    }
+                    break;
+                case "snapshot":
+                    Snapshot snapshot = new Snapshot();
+                    while (cursor.nextElement()) {
+                        switch (cursor.getName()) {
+                            case "timestamp": snapshot.setTimestamp(cursor.text()); break;
+                            case "buildNumber": snapshot.setBuildNumber(parseInt(cursor.text())); break;
+                            case "localCopy": snapshot.setLocalCopy("true".equals(cursor.text())); break;
+                            default: cursor.skip();
+                        }
+                    }
+                    versioning.setSnapshot(snapshot);
+                    break;
+                case "snapshotVersions":
+                    while (cursor.nextElement()) {
+                        if ("snapshotVersion".equals(cursor.getName())) {
+                            versioning.addSnapshotVersion(readSnapshotVersion(cursor));
+                        } else {
+                            cursor.skip();
+                        }
+                    }
+                    break;
+                default:
+                    cursor.skip();
+            }
+        }
+        return versioning;
+    }
+
+    @NonNull
+    private static SnapshotVersion readSnapshotVersion(@NonNull Cursor cursor) throws IOException {
+        SnapshotVersion version = new SnapshotVersion();
+        while (cursor.nextElement()) {
+            switch (cursor.getName()) {
+                case "classifier": version.setClassifier(cursor.text()); break;
+                case "extension": version.setExtension(cursor.text()); break;
+                case "value": version.setVersion(cursor.text()); break;
+                case "updated": version.setUpdated(cursor.text()); break;
+                default: cursor.skip();
+            }
+        }
+        return version;
+    }
+
+    private static int parseInt(@NonNull String value) throws IOException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number '" + value + "'");
+        }
+    }
+
+    /**
+     * Pull cursor over elements of a document
+     */
+    private static final class Cursor {
+        private final String xml;
+        private int position;
+        private String name;
+        // Current element is self-closing, so it has already ended
+        private boolean empty;
+
+        private Cursor(byte @NonNull [] document, @NonNull String root) throws IOException {
+            String xml = new String(document, StandardCharsets.UTF_8);
+            this.xml = xml;
+            this.position = !xml.isEmpty() && xml.charAt(0) == '\uFEFF' ? 1 : 0;
+
+            // Check declared encoding
+            if (xml.startsWith("<?xml", position)) {
+                int end = indexOf("?>", position);
+                String declaration = xml.substring(position, end);
+                int encoding = declaration.indexOf("encoding");
+                if (encoding != -1) {
+                    String value = declaration.substring(encoding + 8).replaceAll("^\\s*=\\s*[\"']([^\"']*)[\"'].*$", "$1");
+                    if (!value.equalsIgnoreCase("UTF-8") && !value.equalsIgnoreCase("UTF8")) {
+                        throw new IOException("Unsupported encoding " + value);
+                    }
+                }
+                position = end + 2;
+            }
+
+            if (!nextElement() || !root.equals(name)) {
+                throw new IOException("Expected root element '" + root + "'");
+            }
+        }
+
+        @NonNull
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Moves to next child element of current element
+         *
+         * @return {@code true} if cursor is at next child element, {@code false} if current element has ended
+         */
+        boolean nextElement() throws IOException {
+            if (empty) {
+                empty = false;
+                return false;
+            }
+            while (true) {
+                // Text between elements is not interesting
+                position = indexOf("<", position);
+                if (skipMarkup()) {
+                    continue;
+                }
+                if (xml.startsWith("</", position)) {
+                    position = indexOf(">", position) + 1;
+                    return false;
+                }
+                readStartTag();
+                return true;
+            }
+        }
+
+        /**
+         * Reads text content of current element and moves past its end
+         *
+         * @return Trimmed text content
+         */
+        @NonNull
+        String text() throws IOException {
+            if (empty) {
+                empty = false;
+                return "";
+            }
+            StringBuilder text = null;
+            while (true) {
+                int start = indexOf("<", position);
+                if (start > position) {
+                    text = appendText(text, start);
+                }
+                position = start;
+                if (xml.startsWith("<![CDATA[", position)) {
+                    int end = indexOf("]]>", position);
+                    text = (text != null ? text : new StringBuilder()).append(xml, position + 9, end);
+                    position = end + 3;
+                    continue;
+                }
+                if (skipMarkup()) {
+                    continue;
+                }
+                if (xml.startsWith("</", position)) {
+                    position = indexOf(">", position) + 1;
+                    return text != null ? text.toString().trim() : "";
+                }
+                // Mixed content is not expected anywhere PicoMaven reads, ignore the element
+                readStartTag();
+                skip();
+            }
+        }
+
+        /**
+         * Skips current element along with its contents
+         */
+        void skip() throws IOException {
+            int depth = 1;
+            if (empty) {
+                empty = false;
+                return;
+            }
+            while (depth > 0) {
+                position = indexOf("<", position);
+                if (xml.startsWith("<![CDATA[", position)) {
+                    position = indexOf("]]>", position) + 3;
+                } else if (skipMarkup()) {
+                    continue;
+                } else if (xml.startsWith("</", position)) {
+                    position = indexOf(">", position) + 1;
+                    depth--;
+                } else {
+                    readStartTag();
+                    if (empty) {
+                        empty = false;
+                    } else {
+                        depth++;
+                    }
+                }
+            }
+        }
+
+        private boolean skipMarkup() throws IOException {
+            if (xml.startsWith("<!--", position)) {
+                position = indexOf("-->", position) + 3;
+                return true;
+            }
+            if (xml.startsWith("<?", position)) {
+                position = indexOf("?>", position) + 2;
+                return true;
+            }
+            if (xml.startsWith("<!", position) && !xml.startsWith("<![CDATA[", position)) {
+                throw new IOException("Document type declarations are not supported");
+            }
+            return false;
+        }
+
+        private void readStartTag() throws IOException {
+            int start = position + 1;
+            int end = start;
+            while (end < xml.length() && !isNameEnd(xml.charAt(end))) {
+                end++;
+            }
+            if (end == start) {
+                throw new IOException("Malformed element at " + position);
+            }
+            name = xml.substring(start, end);
+
+            // Skip attributes, they might contain '>'
+            char quote = 0;
+            for (position = end; position < xml.length(); position++) {
+                char c = xml.charAt(position);
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    empty = xml.charAt(position - 1) == '/';
+                    position++;
+                    return;
+                }
+            }
+            throw new IOException("Unexpected end of document");
+        }
+
+        @NonNull
+        private StringBuilder appendText(StringBuilder text, int end) throws IOException {
+            if (text == null) {
+                text = new StringBuilder(end - position);
+            }
+            int start = position;
+            int entity;
+            while ((entity = xml.indexOf('&', start)) != -1 && entity < end) {
+                text.append(xml, start, entity);
+                int semicolon = xml.indexOf(';', entity);
+                if (semicolon == -1 || semicolon > end) {
+                    throw new IOException("Malformed entity at " + entity);
+                }
+                text.append(decodeEntity(xml.substring(entity + 1, semicolon)));
+                start = semicolon + 1;
+            }
+            return text.append(xml, start, end);
+        }
+
+        @NonNull
+        private static String decodeEntity(@NonNull String entity) throws IOException {
+            switch (entity) {
+                case "lt": return "<";
+                case "gt": return ">";
+                case "amp": return "&";
+                case "quot": return "\"";
+                case "apos": return "'";
+                default:
+            }
+            try {
+                if (entity.startsWith("#x")) {
+                    return new String(Character.toChars(Integer.parseInt(entity.substring(2), 16)));
+                }
+                if (entity.startsWith("#")) {
+                    return new String(Character.toChars(Integer.parseInt(entity.substring(1))));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid character reference &" + entity + ";");
+            }
+            throw new IOException("Unknown entity &" + entity + ";");
+        }
+
+        private int indexOf(@NonNull String token, int from) throws IOException {
+            int index = xml.indexOf(token, from);
+            if (index == -1) {
+                throw new IOException("Unexpected end of document");
+            }
+            return index;
+        }
+
+        private static boolean isNameEnd(char c) {
+            return c == '>' || c == '/' || Character.isWhitespace(c);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven.internal;
+
+import eu.mikroskeem.picomaven.artifact.ArtifactChecksum;
+import eu.mikroskeem.picomaven.artifact.ArtifactChecksum.ChecksumAlgo;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Computes several digests in a single pass over the data. Digest instances are pooled, so
+ * {@link #finish()} or {@link #close()} must be called once done.
+ *
+ * @author Mark Vainomaa
+ */
+public final class MultiDigest implements AutoCloseable {
+    private static final int POOL_SIZE = 32;
+    private static final Map<ChecksumAlgo, BlockingQueue<MessageDigest>> POOL = new EnumMap<>(ChecksumAlgo.class);
+
+    static {
+        for (ChecksumAlgo algo : ChecksumAlgo.values()) {
+            POOL.put(algo, new ArrayBlockingQueue<>(POOL_SIZE));
+        }
+    }
+
+    private final Map<ChecksumAlgo, MessageDigest> digests = new EnumMap<>(ChecksumAlgo.class);
+    private final MessageDigest[] digestArray;
+    private boolean released = false;
+
+    /**
+     * Constructs a new multi-digest
+     *
+     * @param algos Algorithms to compute. Duplicates are computed only once
+     */
+    public MultiDigest(@NonNull Collection<ChecksumAlgo> algos) {
+        for (ChecksumAlgo algo : algos) {
+            digests.computeIfAbsent(algo, MultiDigest::acquire);
+        }
+        this.digestArray = digests.values().toArray(new MessageDigest[0]);
+    }
+
+    /**
+     * Constructs a new multi-digest for computing all algorithms needed to verify given checksums
+     *
+     * @param checksums Checksums to verify
+     * @return Multi-digest
+     */
+    @NonNull
+    public static MultiDigest forChecksums(@NonNull Collection<ArtifactChecksum> checksums) {
+        List<ChecksumAlgo> algos = new ArrayList<>(checksums.size());
+        for (ArtifactChecksum checksum : checksums) {
+            algos.add(checksum.getAlgo());
+        }
+        return new MultiDigest(algos);
+    }
+
+    /**
+     * Updates all digests
+     *
+     * @param buf Data
+     * @param offset Data offset
+     * @param length Data length
+     */
+    public void update(byte @NonNull [] buf, int offset, int length) {
+        for (MessageDigest digest : digestArray) {
+            digest.update(buf, offset, length);
+        }
+    }
+
+    /**
+     * Updates all digests with remaining bytes of given buffer. Buffer position is advanced to its limit
+     *
+     * @param buffer Data
+     */
+    public void update(@NonNull ByteBuffer buffer) {
+        int position = buffer.position();
+        for (MessageDigest digest : digestArray) {
+            buffer.position(position);
+            digest.update(buffer);
+        }
+    }
+
+    /**
+     * Completes all digests and returns pooled instances
+     *
+     * @return Computed digests
+     */
+    @NonNull
+    public Map<ChecksumAlgo, byte[]> finish() {
+        Map<ChecksumAlgo, byte[]> computed = new EnumMap<>(ChecksumAlgo.class);
+        for (Map.Entry<ChecksumAlgo, MessageDigest> entry : digests.entrySet()) {
+            computed.put(entry.getKey(), entry.getValue().digest());
+        }
+        close();
+        return computed;
+    }
+
+    /**
+     * Returns pooled digest instances without completing them
+     */
+    @Override
+    public void close() {
+        if (released) {
+            return;
+        }
+        released = true;
+        for (Map.Entry<ChecksumAlgo, MessageDigest> entry : digests.entrySet()) {
+            MessageDigest digest = entry.getValue();
+            digest.reset();
+            POOL.get(entry.getKey()).offer(digest);
+        }
+    }
+
+    /**
+     * Verifies given checksums against computed digests
+     *
+     * @param checksums Checksums to verify
+     * @param computed Computed digests, see {@link #finish()}
+     * @return Whether all checksums match. Checksums which were not computed never match
+     */
+    public static boolean verify(@NonNull Collection<ArtifactChecksum> checksums, @NonNull Map<ChecksumAlgo, byte[]> computed) {
+        for (ArtifactChecksum checksum : checksums) {
+            byte[] digest = computed.get(checksum.getAlgo());
+            if (digest == null || !checksum.matches(digest)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @NonNull
+    private static MessageDigest acquire(@NonNull ChecksumAlgo algo) {
+        MessageDigest digest = POOL.get(algo).poll();
+        return digest != null ? digest : algo.getMessageDigest();
+    }
+}
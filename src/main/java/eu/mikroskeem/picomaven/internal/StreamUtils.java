@@ -26,11 +26,16 @@
 package eu.mikroskeem.picomaven.internal;
 
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * @author Mark Vainomaa
@@ -38,6 +43,8 @@ import java.io.OutputStream;
 public final class StreamUtils {
     private StreamUtils() {}
 
+    private static final int BUFFER_SIZE = 16384;
+
     public static byte[] readBytes(@NonNull InputStream is) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         byte[] buf = new byte[4096];
@@ -49,6 +56,101 @@ public final class StreamUtils {
         return baos.toByteArray();
     }
 
+    /**
+     * Copies given {@link InputStream} into {@link WritableByteChannel} using a fixed size buffer, while
+     * feeding every copied chunk into given {@link MultiDigest}
+     *
+     * @param is Input stream to read from
+     * @param channel Channel to write into
+     * @param digest Digests to update
+     * @return Amount of bytes transferred
+     * @throws IOException If reading or writing fails
+     */
+    public static long transfer(@NonNull InputStream is, @NonNull WritableByteChannel channel,
+                                @NonNull MultiDigest digest) throws IOException {
+        return copy(is, channel, digest);
+    }
+
+    /**
+     * Copies everything from {@link InputStream} into {@link WritableByteChannel}
+     *
+     * @param is Input stream to read from
+     * @param channel Channel to write into
+     * @return Amount of bytes transferred
+     * @throws IOException If reading or writing fails
+     */
+    public static long transfer(@NonNull InputStream is, @NonNull WritableByteChannel channel) throws IOException {
+        return copy(is, channel, null);
+    }
+
+    private static long copy(@NonNull InputStream is, @NonNull WritableByteChannel channel,
+                             @Nullable MultiDigest digest) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(buf);
+        long transferred = 0;
+        int b;
+        while ((b = is.read(buf, 0, buf.length)) != -1) {
+            if (digest != null) {
+                digest.update(buf, 0, b);
+            }
+
+            buffer.clear().limit(b);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            transferred += b;
+        }
+
+        return transferred;
+    }
+
+    /**
+     * Copies exactly given amount of bytes from {@link InputStream} into {@link FileChannel} at given
+     * position. Channel position is not used, so several ranges can be written concurrently
+     *
+     * @param is Input stream to read from
+     * @param channel Channel to write into
+     * @param position File position to start writing at
+     * @param length Amount of bytes to copy
+     * @throws EOFException If stream ends before given amount of bytes were read
+     * @throws IOException If reading or writing fails
+     */
+    public static void transferRange(@NonNull InputStream is, @NonNull FileChannel channel,
+                                     long position, long length) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(buf);
+        long remaining = length;
+        while (remaining > 0) {
+            int b = is.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (b == -1) {
+                throw new EOFException("Stream ended " + remaining + " bytes too early");
+            }
+
+            buffer.clear().limit(b);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            remaining -= b;
+        }
+    }
+
+    /**
+     * Feeds given {@link InputStream} into {@link MultiDigest} until the end of stream
+     *
+     * @param is Input stream to read from
+     * @param digest Digests to update
+     * @throws IOException If reading fails
+     */
+    public static void digest(@NonNull InputStream is, @NonNull MultiDigest digest) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        int b;
+        while ((b = is.read(buf, 0, buf.length)) != -1) {
+            if (digest != null) {
+                digest.update(buf, 0, b);
+            }
+        }
+    }
+
     // TODO: remove this
     public static void multiplexTransfer(@NonNull InputStream is, OutputStream... outputStreams) throws IOException {
         byte[] buf = new byte[4096];
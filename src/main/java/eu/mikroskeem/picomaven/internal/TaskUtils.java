@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
@@ -74,6 +75,24 @@ public final class TaskUtils {
         allOfUninterruptible(completableFuturesArray);
     }
 
+    public static <T> T getUninterruptibly(CompletableFuture<T> completableFuture) {
+        allOfUninterruptible(new CompletableFuture<?>[] { completableFuture });
+        return completableFuture.getNow(null);
+    }
+
+    /**
+     * Unwraps the actual failure from {@link CompletionException}s thrown by dependent {@link CompletableFuture}s
+     *
+     * @param t Throwable to unwrap
+     * @return Actual failure
+     */
+    public static Throwable unwrap(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
     private static void allOfUninterruptible(CompletableFuture[] completableFutures) {
         while (true) {
             try {
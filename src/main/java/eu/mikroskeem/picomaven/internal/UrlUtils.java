@@ -46,7 +46,28 @@ import java.util.Objects;
 public final class UrlUtils {
     private UrlUtils() {}
 
-    private static final String USER_AGENT = "PicoMaven/__PICOMAVEN_VERSION__";
+    static final String USER_AGENT = "PicoMaven/__PICOMAVEN_VERSION__";
+
+    // Connection and read timeouts, in milliseconds
+    static final int CONNECT_TIMEOUT = 30 * 1000;
+    static final int READ_TIMEOUT = 60 * 1000;
+
+    /**
+     * Gets key identifying given repository, so that the same repository given with or without trailing
+     * slash is still considered the same
+     *
+     * @param repository Repository URL
+     * @return Repository key
+     */
+    @NonNull
+    public static String repositoryKey(@NonNull URL repository) {
+        String url = repository.toString();
+        int end = url.length();
+        while (end > 0 && url.charAt(end - 1) == '/') {
+            end--;
+        }
+        return url.substring(0, end);
+    }
 
     @NonNull
     public static URL buildGroupMetaURL(@NonNull URL repository, @NonNull Dependency dependency) {
@@ -107,9 +128,29 @@ public final class UrlUtils {
 
     @NonNull
     public static URLConnection openConnection(@NonNull URL url) throws IOException {
+        return openConnection(url, "GET");
+    }
+
+    @NonNull
+    public static URLConnection openConnection(@NonNull URL url, @NonNull String method) throws IOException {
+        URLConnection connection = prepareConnection(url, method);
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            if (httpConnection.getResponseCode() != 200) { // SUCCESS
+                throw new IOException("Unexpected response code '" + httpConnection.getResponseCode() + '"');
+            }
+        }
+
+        // Probably it is *shrug*
+        return connection;
+    }
+
+    @NonNull
+    public static URLConnection prepareConnection(@NonNull URL url, @NonNull String method) throws IOException {
         URLConnection connection = url.openConnection();
         if (connection instanceof HttpURLConnection) {
             HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            httpConnection.setRequestMethod(method);
             connection.setRequestProperty("User-Agent", USER_AGENT);
             httpConnection.setInstanceFollowRedirects(true);
 
@@ -120,17 +161,10 @@ public final class UrlUtils {
                 connection.setRequestProperty("Authorization", "Basic " + encoded);
             }
         }
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
         connection.setUseCaches(false);
         connection.setDoInput(true);
-
-        if (connection instanceof HttpURLConnection) {
-            HttpURLConnection httpConnection = (HttpURLConnection) connection;
-            if (httpConnection.getResponseCode() != 200) { // SUCCESS
-                throw new IOException("Unexpected response code '" + httpConnection.getResponseCode() + '"');
-            }
-        }
-
-        // Probably it is *shrug*
         return connection;
     }
 
@@ -0,0 +1,242 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven.transport;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Transport} serving resources from memory. Useful for testing.
+ *
+ * @author Mark Vainomaa
+ */
+public final class InMemoryTransport implements Transport {
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, Integer> interruptions = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a resource
+     *
+     * @param url Resource URL
+     * @param body Resource contents
+     * @return this (for chaining)
+     */
+    @NonNull
+    public InMemoryTransport put(@NonNull String url, byte @NonNull [] body) {
+        return put(url, body, Collections.emptyMap());
+    }
+
+    /**
+     * Adds a resource
+     *
+     * @param url Resource URL
+     * @param body Resource contents
+     * @return this (for chaining)
+     */
+    @NonNull
+    public InMemoryTransport put(@NonNull String url, @NonNull String body) {
+        return put(url, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds a resource
+     *
+     * @param url Resource URL
+     * @param body Resource contents
+     * @param headers Response headers served along with the resource
+     * @return this (for chaining)
+     */
+    @NonNull
+    public InMemoryTransport put(@NonNull String url, byte @NonNull [] body, @NonNull Map<String, String> headers) {
+        resources.put(url, new Resource(body, headers));
+        return this;
+    }
+
+    /**
+     * Removes a resource
+     *
+     * @param url Resource URL
+     * @return this (for chaining)
+     */
+    @NonNull
+    public InMemoryTransport remove(@NonNull String url) {
+        resources.remove(url);
+        return this;
+    }
+
+    /**
+     * Makes next response for given resource fail after given amount of body bytes
+     *
+     * @param url Resource URL
+     * @param bytes Amount of bytes to serve before failing
+     * @return this (for chaining)
+     */
+    @NonNull
+    public InMemoryTransport interrupt(@NonNull String url, int bytes) {
+        interruptions.put(url, bytes);
+        return this;
+    }
+
+    /**
+     * Gets requests done through this transport so far, in {@code METHOD url} format
+     *
+     * @return List of requests
+     */
+    @NonNull
+    public List<String> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    /**
+     * Clears recorded requests
+     */
+    public void clearRequests() {
+        requests.clear();
+    }
+
+    @NonNull
+    @Override
+    public Response request(@NonNull String method, @NonNull URL url, @NonNull Map<String, String> headers) {
+        requests.add(method + ' ' + url);
+        Resource resource = resources.get(url.toString());
+        if (resource == null) {
+            return new InMemoryResponse(404, new byte[0], Collections.emptyMap(), -1);
+        }
+
+        Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        responseHeaders.putAll(resource.headers);
+        if (isNotModified(headers, responseHeaders)) {
+            return new InMemoryResponse(304, new byte[0], responseHeaders, -1);
+        }
+        byte[] body = resource.body;
+        int status = 200;
+
+        // Single 'bytes=<start>-[end]' range is supported
+        String range = headers.get("Range");
+        String ifRange = headers.get("If-Range");
+        responseHeaders.put("Accept-Ranges", "bytes");
+        if (range != null && range.startsWith("bytes=") && range.indexOf('-') > 0
+                && (ifRange == null || ifRange.equals(responseHeaders.get("ETag")))) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            int start = Integer.parseInt(bounds[0]);
+            int end = bounds[1].isEmpty() ? body.length - 1 : Math.min(Integer.parseInt(bounds[1]), body.length - 1);
+            if (start >= body.length || start > end) {
+                return new InMemoryResponse(416, new byte[0], Collections.emptyMap(), -1);
+            }
+            responseHeaders.put("Content-Range", "bytes " + start + "-" + end + "/" + body.length);
+            body = Arrays.copyOfRange(body, start, end + 1);
+            status = 206;
+        }
+
+        responseHeaders.put("Content-Length", String.valueOf(body.length));
+        if ("HEAD".equals(method)) {
+            // Interruptions apply to response bodies only
+            return new InMemoryResponse(status, new byte[0], responseHeaders, -1);
+        }
+        Integer interruptAfter = interruptions.remove(url.toString());
+        return new InMemoryResponse(status, body, responseHeaders, interruptAfter != null ? interruptAfter : -1);
+    }
+
+    private static boolean isNotModified(@NonNull Map<String, String> request, @NonNull Map<String, String> response) {
+        String ifNoneMatch = request.get("If-None-Match");
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.equals(response.get("ETag"));
+        }
+        String ifModifiedSince = request.get("If-Modified-Since");
+        return ifModifiedSince != null && ifModifiedSince.equals(response.get("Last-Modified"));
+    }
+
+    private static final class Resource {
+        private final byte[] body;
+        private final Map<String, String> headers;
+
+        private Resource(byte @NonNull [] body, @NonNull Map<String, String> headers) {
+            this.body = body;
+            this.headers = headers;
+        }
+    }
+
+    private static final class InMemoryResponse implements Response {
+        private final int statusCode;
+        private final byte[] body;
+        private final Map<String, String> headers;
+        private final int interruptAfter;
+
+        private InMemoryResponse(int statusCode, byte @NonNull [] body, @NonNull Map<String, String> headers,
+                                 int interruptAfter) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.headers = headers;
+            this.interruptAfter = interruptAfter;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        @Nullable
+        @Override
+        public String getHeader(@NonNull String name) {
+            return headers.get(name);
+        }
+
+        @NonNull
+        @Override
+        public InputStream getBody() {
+            if (interruptAfter < 0) {
+                return new ByteArrayInputStream(body);
+            }
+            return new SequenceInputStream(new ByteArrayInputStream(body, 0, Math.min(interruptAfter, body.length)), new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    throw new IOException("Connection reset");
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
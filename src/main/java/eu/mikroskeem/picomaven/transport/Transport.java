@@ -0,0 +1,156 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven.transport;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Transport used to fetch artifacts, POMs, metadata and checksums from repositories
+ *
+ * @author Mark Vainomaa
+ */
+public interface Transport extends Closeable {
+    /**
+     * Executes a request. Response is returned as-is, regardless of its status code
+     *
+     * @param method Request method, e.g {@code GET} or {@code HEAD}
+     * @param url Request URL
+     * @param headers Additional request headers
+     * @return Response. Must be closed after use
+     * @throws IOException If request fails
+     */
+    @NonNull
+    Response request(@NonNull String method, @NonNull URL url, @NonNull Map<String, String> headers) throws IOException;
+
+    /**
+     * Executes a {@code GET} request and makes sure it succeeded
+     *
+     * @param url Request URL
+     * @return Successful response. Must be closed after use
+     * @throws FileNotFoundException If resource does not exist
+     * @throws IOException If request fails
+     */
+    @NonNull
+    default Response get(@NonNull URL url) throws IOException {
+        return expectSuccess(request("GET", url, Collections.emptyMap()), url);
+    }
+
+    /**
+     * Executes a {@code HEAD} request and makes sure it succeeded
+     *
+     * @param url Request URL
+     * @return Successful response. Must be closed after use
+     * @throws FileNotFoundException If resource does not exist
+     * @throws IOException If request fails
+     */
+    @NonNull
+    default Response head(@NonNull URL url) throws IOException {
+        return expectSuccess(request("HEAD", url, Collections.emptyMap()), url);
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * Makes sure that response has a successful status code, closes it otherwise
+     *
+     * @param response Response to check
+     * @param url Request URL
+     * @return Given response
+     * @throws FileNotFoundException If resource does not exist
+     * @throws IOException If response status is not successful
+     */
+    @NonNull
+    static Response expectSuccess(@NonNull Response response, @NonNull URL url) throws IOException {
+        int status = response.getStatusCode();
+        if (status >= 200 && status < 300) {
+            return response;
+        }
+
+        response.close();
+        if (status == 404 || status == 410) {
+            throw new FileNotFoundException(url.toString());
+        }
+        throw new IOException("Unexpected response code '" + status + "' for " + url);
+    }
+
+    /**
+     * Transport response
+     */
+    interface Response extends Closeable {
+        /**
+         * Gets response status code. Non-HTTP transports report {@code 200} on success
+         *
+         * @return Response status code
+         */
+        int getStatusCode();
+
+        /**
+         * Gets response header value
+         *
+         * @param name Header name, case-insensitive
+         * @return Header value or {@code null}, if not present
+         */
+        @Nullable
+        String getHeader(@NonNull String name);
+
+        /**
+         * Gets response body length
+         *
+         * @return Response body length, or {@code -1} if unknown
+         */
+        default long getContentLength() {
+            String value = getHeader("Content-Length");
+            if (value == null) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Gets response body
+         *
+         * @return Response body
+         * @throws IOException If body cannot be read
+         */
+        @NonNull
+        InputStream getBody() throws IOException;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven.transport;
+
+import eu.mikroskeem.picomaven.internal.PlatformTransports;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * {@link Transport} factories
+ *
+ * @author Mark Vainomaa
+ */
+public final class Transports {
+    private Transports() {}
+
+    private static final Transport URL_CONNECTION = new UrlConnectionTransport();
+
+    /**
+     * Gets {@link java.net.URLConnection} based transport
+     *
+     * @return Shared {@link UrlConnectionTransport} instance
+     */
+    @NonNull
+    public static Transport urlConnection() {
+        return URL_CONNECTION;
+    }
+
+    /**
+     * Creates a new transport which pools connections per host. On Java 11 and newer it is backed
+     * by {@code java.net.http.HttpClient} and multiplexes requests over HTTP/2 where repository supports it,
+     * on older runtimes it falls back to {@link UrlConnectionTransport}.
+     *
+     * @return New pooling transport. Should be closed after use
+     */
+    @NonNull
+    public static Transport pooled() {
+        return PlatformTransports.createPooled(URL_CONNECTION);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven.transport;
+
+import eu.mikroskeem.picomaven.internal.UrlUtils;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+
+/**
+ * {@link Transport} based on {@link URLConnection}. Supports every protocol known to the JVM, and
+ * reuses HTTP connections through JDK's own keep-alive cache as long as responses are fully read.
+ *
+ * @author Mark Vainomaa
+ */
+public final class UrlConnectionTransport implements Transport {
+    @NonNull
+    @Override
+    public Response request(@NonNull String method, @NonNull URL url, @NonNull Map<String, String> headers) throws IOException {
+        URLConnection connection = UrlUtils.prepareConnection(url, method);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            return new UrlConnectionResponse(httpConnection, httpConnection.getResponseCode());
+        }
+
+        try {
+            connection.connect();
+        } catch (FileNotFoundException e) {
+            return new UrlConnectionResponse(connection, 404);
+        }
+        return new UrlConnectionResponse(connection, 200);
+    }
+
+    private static final class UrlConnectionResponse implements Response {
+        private final URLConnection connection;
+        private final int statusCode;
+        private InputStream body;
+
+        private UrlConnectionResponse(@NonNull URLConnection connection, int statusCode) {
+            this.connection = connection;
+            this.statusCode = statusCode;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        @Nullable
+        @Override
+        public String getHeader(@NonNull String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            return connection.getContentLengthLong();
+        }
+
+        @NonNull
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                if (statusCode >= 400 && connection instanceof HttpURLConnection) {
+                    InputStream error = ((HttpURLConnection) connection).getErrorStream();
+                    body = error != null ? error : new ByteArrayInputStream(new byte[0]);
+                } else {
+                    body = connection.getInputStream();
+                }
+            }
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Closing the stream hands the connection back to keep-alive cache
+            if (body != null) {
+                body.close();
+            } else if (statusCode >= 400 && connection instanceof HttpURLConnection) {
+                InputStream error = ((HttpURLConnection) connection).getErrorStream();
+                if (error != null) {
+                    error.close();
+                }
+            } else if (statusCode != 404) {
+                connection.getInputStream().close();
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven.internal;
+
+import eu.mikroskeem.picomaven.transport.Transport;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link Transport} backed by {@link HttpClient}. Connections are pooled per host and requests
+ * are multiplexed over HTTP/2 where repository supports it. Timeouts are reported as
+ * {@link SocketTimeoutException}, like {@link java.net.URLConnection} does.
+ *
+ * @author Mark Vainomaa
+ */
+final class HttpClientTransport implements Transport {
+    private final ExecutorService executor;
+    private final HttpClient client;
+    private final Transport fallback;
+
+    HttpClientTransport(@NonNull Transport fallback) {
+        // Client's own executor would outlive the transport
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "PicoMaven HttpClient");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(UrlUtils.CONNECT_TIMEOUT))
+                .executor(executor)
+                .build();
+        this.fallback = fallback;
+    }
+
+    @NonNull
+    @Override
+    public Response request(@NonNull String method, @NonNull URL url, @NonNull Map<String, String> headers) throws IOException {
+        // HttpClient only knows HTTP
+        if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol())) {
+            return fallback.request(method, url, headers);
+        }
+
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(url.toURI())
+                    .method(method, HttpRequest.BodyPublishers.noBody())
+                    .timeout(Duration.ofMillis(UrlUtils.READ_TIMEOUT))
+                    .header("User-Agent", UrlUtils.USER_AGENT);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL " + url, e);
+        }
+
+        // Authentication
+        if (url.getUserInfo() != null) {
+            byte[] encodedBytes = Base64.getEncoder().encode(url.getUserInfo().getBytes(StandardCharsets.UTF_8));
+            builder.header("Authorization", "Basic " + new String(encodedBytes, StandardCharsets.UTF_8));
+        }
+        headers.forEach(builder::header);
+
+        try {
+            return new HttpClientResponse(client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream()));
+        } catch (HttpTimeoutException e) {
+            // Connect timeout included
+            SocketTimeoutException timeout = new SocketTimeoutException(e.getMessage());
+            timeout.initCause(e);
+            throw timeout;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while requesting " + url);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // HttpClient can be closed on Java 21 and newer, older versions release connections once client is unreachable
+        if (client instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) client).close();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+        executor.shutdown();
+    }
+
+    private static final class HttpClientResponse implements Response {
+        private final HttpResponse<InputStream> response;
+
+        private HttpClientResponse(@NonNull HttpResponse<InputStream> response) {
+            this.response = response;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.statusCode();
+        }
+
+        @Nullable
+        @Override
+        public String getHeader(@NonNull String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        @NonNull
+        @Override
+        public InputStream getBody() {
+            return response.body();
+        }
+
+        @Override
+        public void close() throws IOException {
+            response.body().close();
+        }
+    }
+}
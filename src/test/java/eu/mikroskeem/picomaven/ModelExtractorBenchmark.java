@@ -0,0 +1,75 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.internal.ModelExtractor;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link ModelExtractor} against full Maven readers. Not a part of the test suite, as timings
+ * depend on the machine. Run with {@code ./gradlew benchmark}
+ *
+ * @author Mark Vainomaa
+ */
+public final class ModelExtractorBenchmark {
+    private ModelExtractorBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        byte[] pom = ModelExtractorTest.POM.getBytes(StandardCharsets.UTF_8);
+        byte[] metadata = ModelExtractorTest.METADATA.getBytes(StandardCharsets.UTF_8);
+        long full = measure(pom, bytes -> new MavenXpp3Reader().read(new ByteArrayInputStream(bytes), false))
+                + measure(metadata, bytes -> new MetadataXpp3Reader().read(new ByteArrayInputStream(bytes), false));
+        long streaming = measure(pom, bytes -> ModelExtractor.readModel(new ByteArrayInputStream(bytes)))
+                + measure(metadata, bytes -> ModelExtractor.readMetadata(new ByteArrayInputStream(bytes)));
+        System.out.printf("Full readers: %d us, streaming extractor: %d us per 1000 POMs and metadata files (%.1fx)%n",
+                TimeUnit.NANOSECONDS.toMicros(full), TimeUnit.NANOSECONDS.toMicros(streaming), (double) full / streaming);
+    }
+
+    private static long measure(byte[] data, Reader reader) throws Exception {
+        // Warm up, then take the best of several rounds
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 1000; i++) {
+                if (reader.read(data) == null) {
+                    throw new IllegalStateException("Reader returned nothing");
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    @FunctionalInterface
+    private interface Reader {
+        Object read(byte[] data) throws Exception;
+    }
+}
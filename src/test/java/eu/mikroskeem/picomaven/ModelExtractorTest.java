@@ -0,0 +1,203 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.internal.DataProcessor;
+import eu.mikroskeem.picomaven.internal.ModelExtractor;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * @author Mark Vainomaa
+ */
+public class ModelExtractorTest {
+    static final String POM =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<!-- Licensed to whoever -->\n" +
+            "<project xmlns=\"http://maven.apache.org/POM/4.0.0\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n" +
+            "         xsi:schemaLocation=\"http://maven.apache.org/POM/4.0.0 http://maven.apache.org/xsd/maven-4.0.0.xsd\">\n" +
+            "  <modelVersion>4.0.0</modelVersion>\n" +
+            "  <parent>\n" +
+            "    <groupId>org.example</groupId>\n" +
+            "    <artifactId>parent</artifactId>\n" +
+            "    <version>1.0</version>\n" +
+            "    <relativePath>../pom.xml</relativePath>\n" +
+            "  </parent>\n" +
+            "  <artifactId>child</artifactId>\n" +
+            "  <packaging>jar</packaging>\n" +
+            "  <name>Child &amp; friends</name>\n" +
+            "  <description><![CDATA[Some <b>description</b>]]></description>\n" +
+            "  <properties>\n" +
+            "    <lib.version> 2.0 </lib.version>\n" +
+            "    <project.build.sourceEncoding>UTF-8</project.build.sourceEncoding>\n" +
+            "  </properties>\n" +
+            "  <dependencyManagement>\n" +
+            "    <dependencies>\n" +
+            "      <dependency>\n" +
+            "        <groupId>org.example</groupId>\n" +
+            "        <artifactId>bom</artifactId>\n" +
+            "        <version>1.0</version>\n" +
+            "        <type>pom</type>\n" +
+            "        <scope>import</scope>\n" +
+            "      </dependency>\n" +
+            "    </dependencies>\n" +
+            "  </dependencyManagement>\n" +
+            "  <dependencies>\n" +
+            "    <dependency>\n" +
+            "      <groupId>org.example</groupId>\n" +
+            "      <artifactId>lib</artifactId>\n" +
+            "      <version>${lib.version}</version>\n" +
+            "      <classifier>natives</classifier>\n" +
+            "      <optional>true</optional>\n" +
+            "      <exclusions><exclusion><groupId>*</groupId><artifactId>*</artifactId></exclusion></exclusions>\n" +
+            "    </dependency>\n" +
+            "    <dependency>\n" +
+            "      <groupId>org.junit</groupId>\n" +
+            "      <artifactId>junit</artifactId>\n" +
+            "      <scope>test</scope>\n" +
+            "    </dependency>\n" +
+            "  </dependencies>\n" +
+            "  <repositories>\n" +
+            "    <repository>\n" +
+            "      <id>example</id>\n" +
+            "      <url>https://repo.example.org/maven2</url>\n" +
+            "      <snapshots><enabled>false</enabled></snapshots>\n" +
+            "    </repository>\n" +
+            "  </repositories>\n" +
+            "  <build>\n" +
+            "    <plugins>\n" +
+            "      <plugin>\n" +
+            "        <artifactId>maven-compiler-plugin</artifactId>\n" +
+            "        <configuration><source>1.8</source><target>1.8</target></configuration>\n" +
+            "        <dependencies><dependency><groupId>org.ignored</groupId><artifactId>ignored</artifactId></dependency></dependencies>\n" +
+            "      </plugin>\n" +
+            "    </plugins>\n" +
+            "  </build>\n" +
+            "  <profiles>\n" +
+            "    <profile>\n" +
+            "      <id>extra</id>\n" +
+            "      <dependencies><dependency><groupId>org.ignored</groupId><artifactId>profile</artifactId></dependency></dependencies>\n" +
+            "    </profile>\n" +
+            "  </profiles>\n" +
+            "</project>\n";
+
+    static final String METADATA =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<metadata modelVersion=\"1.1.0\">\n" +
+            "  <groupId>org.example</groupId>\n" +
+            "  <artifactId>lib</artifactId>\n" +
+            "  <version>1.0-SNAPSHOT</version>\n" +
+            "  <versioning>\n" +
+            "    <snapshot>\n" +
+            "      <timestamp>20200101.120000</timestamp>\n" +
+            "      <buildNumber>7</buildNumber>\n" +
+            "    </snapshot>\n" +
+            "    <lastUpdated>20200101120000</lastUpdated>\n" +
+            "    <snapshotVersions>\n" +
+            "      <snapshotVersion>\n" +
+            "        <extension>jar</extension>\n" +
+            "        <value>1.0-20200101.120000-7</value>\n" +
+            "        <updated>20200101120000</updated>\n" +
+            "      </snapshotVersion>\n" +
+            "    </snapshotVersions>\n" +
+            "  </versioning>\n" +
+            "</metadata>\n";
+
+    @Test
+    public void testModelMatchesFullReader() throws Exception {
+        Model expected = new MavenXpp3Reader().read(new ByteArrayInputStream(bytes(POM)), false);
+        Model actual = ModelExtractor.readModel(new ByteArrayInputStream(bytes(POM)));
+
+        Assertions.assertEquals(expected.getModelVersion(), actual.getModelVersion());
+        Assertions.assertEquals(expected.getGroupId(), actual.getGroupId());
+        Assertions.assertEquals(expected.getArtifactId(), actual.getArtifactId());
+        Assertions.assertEquals(expected.getVersion(), actual.getVersion());
+        Assertions.assertEquals(expected.getPackaging(), actual.getPackaging());
+        Assertions.assertEquals(expected.getParent().getId(), actual.getParent().getId());
+        Assertions.assertEquals(expected.getParent().getRelativePath(), actual.getParent().getRelativePath());
+        Assertions.assertEquals(expected.getProperties(), actual.getProperties());
+        assertDependencies(expected.getDependencies(), actual.getDependencies());
+        assertDependencies(expected.getDependencyManagement().getDependencies(), actual.getDependencyManagement().getDependencies());
+        Assertions.assertEquals(1, actual.getRepositories().size());
+        Assertions.assertEquals(expected.getRepositories().get(0).getId(), actual.getRepositories().get(0).getId());
+        Assertions.assertEquals(expected.getRepositories().get(0).getUrl(), actual.getRepositories().get(0).getUrl());
+    }
+
+    @Test
+    public void testMetadataMatchesFullReader() throws Exception {
+        Metadata expected = new MetadataXpp3Reader().read(new ByteArrayInputStream(bytes(METADATA)), false);
+        Metadata actual = ModelExtractor.readMetadata(new ByteArrayInputStream(bytes(METADATA)));
+
+        Assertions.assertEquals(expected.getGroupId(), actual.getGroupId());
+        Assertions.assertEquals(expected.getArtifactId(), actual.getArtifactId());
+        Assertions.assertEquals(expected.getVersion(), actual.getVersion());
+        Assertions.assertEquals(expected.getVersioning().getSnapshot().getTimestamp(), actual.getVersioning().getSnapshot().getTimestamp());
+        Assertions.assertEquals(expected.getVersioning().getSnapshot().getBuildNumber(), actual.getVersioning().getSnapshot().getBuildNumber());
+        Assertions.assertEquals(expected.getVersioning().getLastUpdated(), actual.getVersioning().getLastUpdated());
+        Assertions.assertEquals(expected.getVersioning().getSnapshotVersions().get(0).getVersion(),
+                actual.getVersioning().getSnapshotVersions().get(0).getVersion());
+        Assertions.assertEquals(new MetadataXpp3Reader().read(new ByteArrayInputStream(bytes(UrlUtilsTest.SAMPLE_METADATA)), false).getVersioning().getVersions(),
+                ModelExtractor.readMetadata(new ByteArrayInputStream(bytes(UrlUtilsTest.SAMPLE_METADATA))).getVersioning().getVersions());
+    }
+
+    @Test
+    public void testFallbackToFullReader() throws Exception {
+        // Undeclared entities are tolerated only by the full reader
+        String pom = POM.replace("<lib.version> 2.0 </lib.version>", "<lib.version>&oslash;</lib.version>");
+        Assertions.assertThrows(Exception.class, () -> ModelExtractor.readModel(new ByteArrayInputStream(bytes(pom))));
+        Model model = DataProcessor.readPom(bytes(pom));
+        Assertions.assertEquals("child", model.getArtifactId());
+        Assertions.assertEquals(2, model.getDependencies().size());
+    }
+
+    private static void assertDependencies(List<Dependency> expected, List<Dependency> actual) {
+        Assertions.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Dependency e = expected.get(i);
+            Dependency a = actual.get(i);
+            Assertions.assertEquals(e.getGroupId(), a.getGroupId());
+            Assertions.assertEquals(e.getArtifactId(), a.getArtifactId());
+            Assertions.assertEquals(e.getVersion(), a.getVersion());
+            Assertions.assertEquals(e.getType(), a.getType());
+            Assertions.assertEquals(e.getClassifier(), a.getClassifier());
+            Assertions.assertEquals(e.getScope(), a.getScope());
+            Assertions.assertEquals(e.getOptional(), a.getOptional());
+        }
+    }
+
+    private static byte[] bytes(String data) {
+        return data.getBytes(StandardCharsets.UTF_8);
+    }
+}
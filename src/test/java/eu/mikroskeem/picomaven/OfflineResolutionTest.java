@@ -0,0 +1,1309 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.ArtifactChecksum;
+import eu.mikroskeem.picomaven.artifact.Dependency;
+import eu.mikroskeem.picomaven.artifact.VersionMediator;
+import eu.mikroskeem.picomaven.internal.DataProcessor;
+import eu.mikroskeem.picomaven.internal.TaskUtils;
+import eu.mikroskeem.picomaven.internal.UrlUtils;
+import eu.mikroskeem.picomaven.transport.Transport;
+import org.apache.maven.model.Model;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * @author Mark Vainomaa
+ */
+public class OfflineResolutionTest {
+    private static final Dependency ROOT = Dependency.fromString("org.example:a:1.0");
+    private static final URI EMPTY_REPOSITORY = URI.create("https://empty.example.org/maven2");
+
+    private static TestRepository diamond() throws Exception {
+        // a -> b, c; b -> d; c -> d; d -> b (cycle)
+        return new TestRepository()
+                .artifact("org.example:a:1.0", "org.example:b:1.0", "org.example:c:1.0")
+                .artifact("org.example:b:1.0", "org.example:d:1.0")
+                .artifact("org.example:c:1.0", "org.example:d:1.0")
+                .artifact("org.example:d:1.0", "org.example:b:1.0");
+    }
+
+    private static PicoMaven.Builder builder(TestRepository repository, Path downloadPath) {
+        return new PicoMaven.Builder()
+                .withDownloadPath(downloadPath)
+                .withRepositories(Collections.singletonList(TestRepository.REPOSITORY))
+                .withDependencies(Collections.singletonList(ROOT))
+                .withTransport(repository.getTransport());
+    }
+
+    private static DownloadResult resolve(PicoMaven.Builder builder) throws Exception {
+        return resolve(builder, ROOT);
+    }
+
+    private static DownloadResult resolve(PicoMaven.Builder builder, Dependency dependency) throws Exception {
+        try (PicoMaven picoMaven = builder.withDependencies(Collections.singletonList(dependency)).build()) {
+            Map<Dependency, CompletableFuture<DownloadResult>> downloads = picoMaven.downloadAllArtifacts();
+            TaskUtils.waitForAllUninterruptibly(downloads.values());
+            return downloads.get(dependency).getNow(null);
+        }
+    }
+
+    @Test
+    public void testDiamondIsDownloadedOnce() throws Exception {
+        TestRepository repository = diamond();
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        DownloadResult result = resolve(builder(repository, downloadPath));
+
+        Assertions.assertTrue(result.isSuccess());
+        for (String artifact : Arrays.asList("a", "b", "c", "d")) {
+            String url = TestRepository.url(Dependency.fromString("org.example:" + artifact + ":1.0"), "jar");
+            Assertions.assertEquals(1, Collections.frequency(repository.getTransport().getRequests(), "GET " + url), url);
+        }
+        Assertions.assertEquals(4, new HashSet<>(result.getAllDownloadedFiles()).size());
+    }
+
+    @Test
+    public void testDeclaredDependencyShape() throws Exception {
+        TestRepository repository = new TestRepository()
+                .artifact("org.example:a:1.0", "org.example:b:1.0", "org.example:c:1.0")
+                .artifact("org.example:b:1.0", "org.example:d:1.0")
+                .artifact("org.example:c:1.0", "org.example:d:1.0")
+                .artifact("org.example:d:1.0");
+        Dependency intransitive = new Dependency("org.example", "b", "1.0", null, false, Collections.emptyList());
+        Dependency pinned = new Dependency("org.example", "c", "1.0",
+                new ArtifactChecksum(ArtifactChecksum.ChecksumAlgo.SHA1, ArtifactChecksum.ChecksumEncoding.HEX, TestRepository.hex("SHA1", new byte[0])));
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        try (PicoMaven picoMaven = builder(repository, downloadPath).withDependencies(Arrays.asList(ROOT, intransitive, pinned)).build()) {
+            Map<Dependency, CompletableFuture<DownloadResult>> downloads = picoMaven.downloadAllArtifacts();
+            TaskUtils.waitForAllUninterruptibly(downloads.values());
+
+            // Transitive dependencies of the root do not join downloads of differently declared dependencies
+            DownloadResult root = downloads.get(ROOT).join();
+            Assertions.assertTrue(root.isSuccess());
+            Assertions.assertEquals(2, root.getTransitiveDependencies().size());
+            for (DownloadResult transitive : root.getTransitiveDependencies()) {
+                Assertions.assertTrue(transitive.isSuccess(), transitive.getDependency().toString());
+                Assertions.assertFalse(transitive.getTransitiveDependencies().isEmpty(), transitive.getDependency().toString());
+            }
+            Assertions.assertTrue(downloads.get(intransitive).join().isSuccess());
+            Assertions.assertTrue(downloads.get(intransitive).join().getTransitiveDependencies().isEmpty());
+            Assertions.assertFalse(downloads.get(pinned).join().isSuccess());
+        }
+    }
+
+    @Test
+    public void testMissingArtifactIsNotResolved() throws Exception {
+        // POM without the artifact itself
+        TestRepository repository = new TestRepository()
+                .artifactWithPom("org.example:a:1.0", "<project><modelVersion>4.0.0</modelVersion><groupId>org.example</groupId>" +
+                        "<artifactId>a</artifactId><version>1.0</version><packaging>pom</packaging><dependencies><dependency>" +
+                        "<groupId>org.example</groupId><artifactId>b</artifactId><version>1.0</version></dependency></dependencies></project>")
+                .artifact("org.example:b:1.0");
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        Assertions.assertFalse(resolve(builder(repository, downloadPath)).isSuccess());
+
+        // Neither POM nor transitive dependencies are looked at before artifact is known to exist
+        Assertions.assertEquals(0, repository.getTransport().getRequests().stream().filter(r -> r.endsWith(".pom")).count());
+        Assertions.assertEquals(0, repository.getTransport().getRequests().stream().filter(r -> r.contains("/b/")).count());
+    }
+
+    @Test
+    public void testNegativeLookupCache() throws Exception {
+        TestRepository repository = diamond();
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        PicoMaven.Builder builder = builder(repository, downloadPath)
+                .withRepositories(Arrays.asList(EMPTY_REPOSITORY, TestRepository.REPOSITORY))
+                .withNegativeLookupCache(1, TimeUnit.HOURS);
+        DownloadResult result = resolve(builder);
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertTrue(repository.getTransport().getRequests().stream().anyMatch(r -> r.contains(EMPTY_REPOSITORY.toString())));
+
+        // Remove downloaded artifacts, but keep PicoMaven state
+        for (Path path : new HashSet<>(result.getAllDownloadedFiles())) {
+            Files.delete(path);
+        }
+        repository.getTransport().clearRequests();
+
+        Assertions.assertTrue(resolve(builder).isSuccess());
+        Assertions.assertFalse(repository.getTransport().getRequests().stream().anyMatch(r -> r.contains(EMPTY_REPOSITORY.toString())));
+    }
+
+    @Test
+    public void testLockfile() throws Exception {
+        TestRepository repository = diamond();
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        Path lockfile = downloadPath.resolve("picomaven.lock");
+        try (PicoMaven picoMaven = builder(repository, downloadPath).build()) {
+            picoMaven.downloadAllArtifacts();
+            picoMaven.writeLockfile(lockfile);
+        }
+
+        // Fresh download path, everything must come straight from pinned URLs
+        Path freshPath = Files.createTempDirectory("picomaven");
+        repository.getTransport().clearRequests();
+        DownloadResult result = resolve(builder(repository, freshPath).withLockfile(lockfile));
+
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertEquals(2, result.getTransitiveDependencies().size());
+        Assertions.assertEquals(4, new HashSet<>(result.getAllDownloadedFiles()).size());
+        for (String request : repository.getTransport().getRequests()) {
+            Assertions.assertTrue(request.startsWith("GET ") && request.endsWith(".jar"), request);
+        }
+        Assertions.assertEquals(4, repository.getTransport().getRequests().size());
+    }
+
+    @Test
+    public void testLockfileMediation() throws Exception {
+        // a -> b -> lib:2.0; a -> c -> x -> lib:1.0 -> z
+        TestRepository repository = new TestRepository()
+                .artifact("org.example:a:1.0", "org.example:b:1.0", "org.example:c:1.0")
+                .artifact("org.example:b:1.0", "org.example:lib:2.0")
+                .artifact("org.example:c:1.0", "org.example:x:1.0")
+                .artifact("org.example:x:1.0", "org.example:lib:1.0")
+                .artifact("org.example:lib:1.0", "org.example:z:1.0")
+                .artifact("org.example:lib:2.0")
+                .artifact("org.example:z:1.0");
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        Path lockfile = downloadPath.resolve("picomaven.lock");
+        List<Path> classpath;
+        try (PicoMaven picoMaven = builder(repository, downloadPath).build()) {
+            picoMaven.downloadAllArtifacts();
+            picoMaven.writeLockfile(lockfile);
+            classpath = picoMaven.getClasspath();
+        }
+
+        // Losing version and dependencies only it brings in are not pinned
+        String locked = new String(Files.readAllBytes(lockfile), StandardCharsets.UTF_8);
+        for (String artifact : Arrays.asList("org.example:lib:1.0", "org.example:z:1.0")) {
+            Assertions.assertFalse(locked.contains("\t" + artifact + "\t"), artifact);
+        }
+
+        Path freshPath = Files.createTempDirectory("picomaven");
+        List<Path> pinnedClasspath;
+        try (PicoMaven picoMaven = builder(repository, freshPath).withLockfile(lockfile).build()) {
+            Assertions.assertTrue(picoMaven.downloadAllArtifacts().get(ROOT).get().isSuccess());
+            pinnedClasspath = picoMaven.getClasspath();
+        }
+        Assertions.assertEquals(classpath.stream().map(downloadPath::relativize).collect(Collectors.toList()),
+                pinnedClasspath.stream().map(freshPath::relativize).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testLockfileCachedChecksum() throws Exception {
+        TestRepository repository = diamond();
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        Path lockfile = downloadPath.resolve("picomaven.lock");
+        try (PicoMaven picoMaven = builder(repository, downloadPath).build()) {
+            picoMaven.downloadAllArtifacts();
+            picoMaven.writeLockfile(lockfile);
+        }
+
+        // Pinned checksum is verified without cache verification too
+        Dependency leaf = Dependency.fromString("org.example:d:1.0");
+        Path artifact = UrlUtils.formatLocalPath(downloadPath, leaf, "jar");
+        byte[] original = Files.readAllBytes(artifact);
+        byte[] corrupted = original.clone();
+        corrupted[0] ^= 1;
+        Files.write(artifact, corrupted);
+
+        repository.getTransport().clearRequests();
+        DownloadResult result = resolve(builder(repository, downloadPath).withLockfile(lockfile));
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertArrayEquals(original, Files.readAllBytes(artifact));
+        Assertions.assertEquals(Collections.singletonList("GET " + TestRepository.url(leaf, "jar")),
+                repository.getTransport().getRequests());
+    }
+
+    @Test
+    public void testGraphIndex() throws Exception {
+        TestRepository repository = diamond();
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        PicoMaven.Builder builder = builder(repository, downloadPath).withGraphIndex(true);
+        Assertions.assertTrue(resolve(builder).isSuccess());
+
+        // Changed graph is resolved again
+        Dependency leaf = Dependency.fromString("org.example:d:1.0");
+        Files.delete(UrlUtils.formatLocalPath(downloadPath, leaf, "jar"));
+        repository.getTransport().clearRequests();
+        Assertions.assertTrue(resolve(builder).isSuccess());
+        Assertions.assertTrue(repository.getTransport().getRequests().contains("GET " + TestRepository.url(leaf, "jar")));
+
+        // Garble POM without changing its size or modification time, index must be used instead of it
+        Path pom = UrlUtils.formatLocalPath(downloadPath, ROOT, "pom");
+        FileTime modified = Files.getLastModifiedTime(pom);
+        byte[] garbage = new byte[(int) Files.size(pom)];
+        Arrays.fill(garbage, (byte) ' ');
+        Files.write(pom, garbage);
+        Files.setLastModifiedTime(pom, modified);
+
+        DownloadResult result = resolve(builder);
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertEquals(2, result.getTransitiveDependencies().size());
+        Assertions.assertEquals(4, new HashSet<>(result.getAllDownloadedFiles()).size());
+    }
+
+    @Test
+    public void testGraphIndexWithManyPaths() throws Exception {
+        // Stacked diamonds, number of paths through the graph doubles on each level
+        int levels = 40;
+        TestRepository repository = new TestRepository()
+                .artifact("org.example:a:1.0", "org.example:l0a:1.0", "org.example:l0b:1.0");
+        for (int i = 0; i < levels; i++) {
+            for (String side : Arrays.asList("a", "b")) {
+                String coordinate = "org.example:l" + i + side + ":1.0";
+                if (i + 1 < levels) {
+                    repository.artifact(coordinate, "org.example:l" + (i + 1) + "a:1.0", "org.example:l" + (i + 1) + "b:1.0");
+                } else {
+                    repository.artifact(coordinate);
+                }
+            }
+        }
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        PicoMaven.Builder builder = builder(repository, downloadPath).withGraphIndex(true);
+        Assertions.assertTrue(resolve(builder).isSuccess());
+
+        // Indexed graph is checked node by node, not path by path
+        repository.getTransport().clearRequests();
+        DownloadResult result = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> resolve(builder));
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertEquals(levels * 2 + 1, result.getAllDownloadedFiles().size());
+        Assertions.assertEquals(Collections.emptyList(), repository.getTransport().getRequests());
+    }
+
+    @Test
+    public void testBinaryDescriptors() throws Exception {
+        TestRepository repository = diamond();
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        PicoMaven.Builder builder = builder(repository, downloadPath).withBinaryDescriptors(true);
+        Assertions.assertTrue(resolve(builder).isSuccess());
+        Path descriptor = UrlUtils.formatLocalPath(downloadPath, ROOT, ArtifactDescriptor.EXTENSION);
+        Assertions.assertTrue(Files.exists(descriptor));
+        Assertions.assertFalse(Files.exists(UrlUtils.formatLocalPath(downloadPath, ROOT, "pom")));
+
+        // Already downloaded graph is put together from descriptors
+        repository.getTransport().clearRequests();
+        DownloadResult result = resolve(builder);
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertEquals(2, result.getTransitiveDependencies().size());
+        Assertions.assertEquals(4, new HashSet<>(result.getAllDownloadedFiles()).size());
+        Assertions.assertTrue(repository.getTransport().getRequests().isEmpty());
+
+        // Corrupted descriptor is not trusted
+        byte[] bytes = Files.readAllBytes(descriptor);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(descriptor, bytes);
+        result = resolve(builder);
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertEquals(2, result.getTransitiveDependencies().size());
+        Assertions.assertTrue(repository.getTransport().getRequests().contains("GET " + TestRepository.url(ROOT, "pom")));
+    }
+
+    @Test
+    public void testDeepGraphOnSmallPool() throws Exception {
+        // Chain of artifacts deeper than the pool is large, blocking on transitive downloads would deadlock
+        int depth = 64;
+        TestRepository repository = new TestRepository();
+        for (int i = 0; i < depth; i++) {
+            String coordinate = i == 0 ? "org.example:a:1.0" : "org.example:a" + i + ":1.0";
+            if (i + 1 < depth) {
+                repository.artifact(coordinate, "org.example:a" + (i + 1) + ":1.0");
+            } else {
+                repository.artifact(coordinate);
+            }
+        }
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        PicoMaven.Builder builder = builder(repository, downloadPath)
+                .withExecutorService(Executors.newFixedThreadPool(2))
+                .shouldCloseExecutorService(true);
+        DownloadResult result = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> resolve(builder));
+
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertEquals(depth, new HashSet<>(result.getAllDownloadedFiles()).size());
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        // Virtual threads are used from Java 21 on, and platform threads before it
+        Method isVirtual;
+        try {
+            isVirtual = Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            isVirtual = null;
+        }
+
+        TestRepository repository = diamond();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        Transport transport = (method, url, headers) -> {
+            threads.add(Thread.currentThread());
+            return repository.getTransport().request(method, url, headers);
+        };
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        DownloadResult result = resolve(builder(repository, downloadPath).withTransport(transport).withVirtualThreads(true));
+
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertEquals(4, new HashSet<>(result.getAllDownloadedFiles()).size());
+        Assertions.assertFalse(threads.isEmpty());
+        for (Thread thread : threads) {
+            Assertions.assertEquals(isVirtual != null, isVirtual != null && (Boolean) isVirtual.invoke(thread), thread.toString());
+        }
+    }
+
+    @Test
+    public void testMaxRequestsPerHost() throws Exception {
+        TestRepository repository = new TestRepository();
+        String[] children = new String[24];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = "org.example:wide" + i + ":1.0";
+            repository.artifact(children[i]);
+        }
+        repository.artifact("org.example:a:1.0", children);
+
+        // Count requests in flight
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Transport transport = (method, url, headers) -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+                return repository.getTransport().request(method, url, headers);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        };
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        DownloadResult result = resolve(builder(repository, downloadPath)
+                .withTransport(transport)
+                .withMaxRequestsPerHost(2));
+
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertEquals(children.length + 1, new HashSet<>(result.getAllDownloadedFiles()).size());
+        Assertions.assertTrue(maxInFlight.get() <= 2, "Max requests in flight was " + maxInFlight.get());
+    }
+
+    @Test
+    public void testChecksumRequests() throws Exception {
+        TestRepository repository = diamond();
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        Assertions.assertTrue(resolve(builder(repository, downloadPath)).isSuccess());
+
+        // Repository has no SHA-256 checksums, so SHA-1 is the strongest one and the only one fetched
+        List<String> requests = repository.getTransport().getRequests();
+        Assertions.assertEquals(4, requests.stream().filter(r -> r.endsWith(".sha1")).count());
+        Assertions.assertEquals(0, requests.stream().filter(r -> r.endsWith(".md5")).count());
+
+        // Verified checksum is kept next to artifact
+        Path artifact = UrlUtils.formatLocalPath(downloadPath, ROOT, "jar");
+        Assertions.assertEquals(TestRepository.hex("SHA1", Files.readAllBytes(artifact)),
+                new String(Files.readAllBytes(artifact.resolveSibling(artifact.getFileName() + ".sha1")), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testSha256Checksums() throws Exception {
+        TestRepository repository = new TestRepository().artifact("org.example:a:1.0");
+        byte[] jar = "jar of org.example:a:1.0".getBytes(StandardCharsets.UTF_8);
+        repository.getTransport().put(TestRepository.url(ROOT, "jar") + ".sha256", TestRepository.hex("SHA-256", jar));
+
+        // SHA-256 is the strongest checksum, and the only one verified
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        Assertions.assertTrue(resolve(builder(repository, downloadPath)).isSuccess());
+        Path artifact = UrlUtils.formatLocalPath(downloadPath, ROOT, "jar");
+        Assertions.assertEquals(TestRepository.hex("SHA-256", jar),
+                new String(Files.readAllBytes(artifact.resolveSibling(artifact.getFileName() + ".sha256")), StandardCharsets.US_ASCII));
+
+        // Mismatching SHA-256 checksum fails the download
+        repository.getTransport().put(TestRepository.url(ROOT, "jar") + ".sha256", TestRepository.hex("SHA-256", new byte[0]));
+        Path otherPath = Files.createTempDirectory("picomaven");
+        Assertions.assertFalse(resolve(builder(repository, otherPath)).isSuccess());
+    }
+
+    @Test
+    public void testChecksumHeaders() throws Exception {
+        TestRepository repository = new TestRepository().artifact("org.example:a:1.0");
+        byte[] jar = "jar of org.example:a:1.0".getBytes(StandardCharsets.UTF_8);
+        repository.getTransport().put(TestRepository.url(ROOT, "jar"), jar,
+                Collections.singletonMap("X-Checksum-Sha256", TestRepository.hex("SHA-256", jar)));
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        Assertions.assertTrue(resolve(builder(repository, downloadPath)).isSuccess());
+        Assertions.assertFalse(repository.getTransport().getRequests().stream().anyMatch(r -> r.contains(".jar.")));
+
+        // Mismatching header fails the download
+        repository.getTransport().put(TestRepository.url(ROOT, "jar"), jar,
+                Collections.singletonMap("X-Checksum-Sha1", TestRepository.hex("SHA1", new byte[0])));
+        Path otherPath = Files.createTempDirectory("picomaven");
+        Assertions.assertFalse(resolve(builder(repository, otherPath)).isSuccess());
+    }
+
+    @Test
+    public void testPomAndArtifactOverlap() throws Exception {
+        TestRepository repository = diamond();
+        String pomUrl = TestRepository.url(ROOT, "pom");
+        String jarUrl = TestRepository.url(ROOT, "jar");
+
+        // POM is served only once artifact has been requested as well
+        CountDownLatch artifactRequested = new CountDownLatch(1);
+        Transport transport = (method, url, headers) -> {
+            if ("GET".equals(method) && url.toString().equals(jarUrl)) {
+                artifactRequested.countDown();
+            } else if ("GET".equals(method) && url.toString().equals(pomUrl)) {
+                try {
+                    if (!artifactRequested.await(10, TimeUnit.SECONDS)) {
+                        throw new IOException("Artifact was not requested while POM was downloading");
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            return repository.getTransport().request(method, url, headers);
+        };
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        DownloadResult result = resolve(builder(repository, downloadPath).withTransport(transport));
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertEquals(2, result.getTransitiveDependencies().size());
+    }
+
+    @Test
+    public void testChecksumVerification() throws Exception {
+        byte[] data = "checksum test".getBytes(StandardCharsets.UTF_8);
+        String sha1 = TestRepository.hex("SHA1", data);
+        ArtifactChecksum hex = new ArtifactChecksum(ArtifactChecksum.ChecksumAlgo.SHA1, ArtifactChecksum.ChecksumEncoding.HEX, sha1.toUpperCase());
+        ArtifactChecksum base64 = new ArtifactChecksum(ArtifactChecksum.ChecksumAlgo.SHA256, ArtifactChecksum.ChecksumEncoding.BASE64,
+                Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(data)));
+        Assertions.assertTrue(DataProcessor.verifyChecksums(Arrays.asList(hex, base64), data));
+        Assertions.assertTrue(DataProcessor.verifyChecksum(hex, data));
+
+        // Malformed and mismatching checksums never match
+        ArtifactChecksum malformed = new ArtifactChecksum(ArtifactChecksum.ChecksumAlgo.SHA1, ArtifactChecksum.ChecksumEncoding.HEX, "zz" + sha1.substring(2));
+        Assertions.assertFalse(DataProcessor.verifyChecksums(Arrays.asList(hex, malformed), data));
+        Assertions.assertFalse(DataProcessor.verifyChecksum(base64, new byte[0]));
+    }
+
+    @Test
+    public void testCacheVerification() throws Exception {
+        TestRepository repository = diamond();
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        PicoMaven.Builder builder = builder(repository, downloadPath).withGraphIndex(true).withCacheVerification(true);
+        Assertions.assertTrue(resolve(builder).isSuccess());
+
+        // Corrupt a leaf artifact without changing its size
+        Dependency leaf = Dependency.fromString("org.example:d:1.0");
+        Path artifact = UrlUtils.formatLocalPath(downloadPath, leaf, "jar");
+        byte[] original = Files.readAllBytes(artifact);
+        byte[] corrupted = original.clone();
+        corrupted[0] ^= 1;
+        FileTime modified = Files.getLastModifiedTime(artifact);
+        Files.write(artifact, corrupted);
+        // Java 8 reports modification times in whole seconds, make sure the change is visible
+        Files.setLastModifiedTime(artifact, FileTime.fromMillis(modified.toMillis() + 2000));
+
+        repository.getTransport().clearRequests();
+        Assertions.assertTrue(resolve(builder).isSuccess());
+        Assertions.assertArrayEquals(original, Files.readAllBytes(artifact));
+        Assertions.assertEquals(Collections.singletonList("GET " + TestRepository.url(leaf, "jar")),
+                repository.getTransport().getRequests().stream().filter(r -> r.startsWith("GET ") && r.endsWith(".jar")).collect(Collectors.toList()));
+
+        // Everything is known to be intact now
+        repository.getTransport().clearRequests();
+        Assertions.assertTrue(resolve(builder).isSuccess());
+        Assertions.assertEquals(Collections.emptyList(), repository.getTransport().getRequests());
+    }
+
+    @Test
+    public void testResumableDownload() throws Exception {
+        TestRepository repository = new TestRepository().artifact("org.example:a:1.0");
+        byte[] jar = new byte[10000];
+        new Random(0).nextBytes(jar);
+        String url = TestRepository.url(ROOT, "jar");
+        repository.getTransport()
+                .put(url, jar, Collections.singletonMap("ETag", "\"v1\""))
+                .put(url + ".sha1", TestRepository.hex("SHA1", jar))
+                .interrupt(url, 4000);
+
+        List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+        Transport transport = (method, requestUrl, headers) -> {
+            if ("GET".equals(method) && requestUrl.toString().equals(url)) {
+                ranges.add(String.valueOf(headers.get("Range")));
+            }
+            return repository.getTransport().request(method, requestUrl, headers);
+        };
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        DownloadResult result = resolve(builder(repository, downloadPath).withTransport(transport));
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertArrayEquals(jar, Files.readAllBytes(result.getArtifactPath()));
+        Assertions.assertEquals(Arrays.asList("null", "bytes=4000-"), ranges);
+        Assertions.assertFalse(Files.exists(result.getArtifactPath().resolveSibling("a-1.0.jar.part")));
+    }
+
+    @Test
+    public void testSegmentedDownload() throws Exception {
+        TestRepository repository = new TestRepository().artifact("org.example:a:1.0");
+        byte[] jar = new byte[100000];
+        new Random(0).nextBytes(jar);
+        String url = TestRepository.url(ROOT, "jar");
+        repository.getTransport()
+                .put(url, jar, Collections.singletonMap("ETag", "\"v1\""))
+                .put(url + ".sha1", TestRepository.hex("SHA1", jar));
+
+        List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+        Transport transport = (method, requestUrl, headers) -> {
+            if ("GET".equals(method) && requestUrl.toString().equals(url)) {
+                ranges.add(String.valueOf(headers.get("Range")));
+            }
+            return repository.getTransport().request(method, requestUrl, headers);
+        };
+
+        // Segments must not wait for the request slot held by the first segment
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        DownloadResult result = resolve(builder(repository, downloadPath)
+                .withTransport(transport)
+                .withSegmentedDownloads(50000, 4)
+                .withMaxRequestsPerHost(1));
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertArrayEquals(jar, Files.readAllBytes(result.getArtifactPath()));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("null", "bytes=25000-49999", "bytes=50000-74999", "bytes=75000-99999")),
+                new HashSet<>(ranges));
+    }
+
+    @Test
+    public void testSegmentedDownloadFallback() throws Exception {
+        TestRepository repository = new TestRepository().artifact("org.example:a:1.0");
+        byte[] jar = new byte[100000];
+        new Random(0).nextBytes(jar);
+        String url = TestRepository.url(ROOT, "jar");
+        repository.getTransport()
+                .put(url, jar, Collections.singletonMap("ETag", "\"v1\""))
+                .put(url + ".sha1", TestRepository.hex("SHA1", jar));
+
+        // Third segment fails
+        List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+        Transport transport = (method, requestUrl, headers) -> {
+            if ("GET".equals(method) && requestUrl.toString().equals(url)) {
+                ranges.add(String.valueOf(headers.get("Range")));
+                if ("bytes=50000-74999".equals(headers.get("Range"))) {
+                    throw new IOException("Connection reset");
+                }
+            }
+            return repository.getTransport().request(method, requestUrl, headers);
+        };
+
+        // Rest of artifact is downloaded after the segments which succeeded without gaps
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        DownloadResult result = resolve(builder(repository, downloadPath)
+                .withTransport(transport)
+                .withSegmentedDownloads(50000, 4));
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertArrayEquals(jar, Files.readAllBytes(result.getArtifactPath()));
+        Assertions.assertEquals("bytes=50000-", ranges.get(ranges.size() - 1));
+        Assertions.assertFalse(Files.exists(result.getArtifactPath().resolveSibling("a-1.0.jar.part")));
+    }
+
+    @Test
+    public void testSegmentedDownloadFallbackFailure() throws Exception {
+        TestRepository repository = new TestRepository().artifact("org.example:a:1.0");
+        byte[] jar = new byte[100000];
+        new Random(0).nextBytes(jar);
+        String url = TestRepository.url(ROOT, "jar");
+        repository.getTransport()
+                .put(url, jar, Collections.singletonMap("ETag", "\"v1\""))
+                .put(url + ".sha1", TestRepository.hex("SHA1", jar));
+
+        // Third segment fails, and so does the request continuing after the first two
+        List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+        Transport transport = (method, requestUrl, headers) -> {
+            if ("GET".equals(method) && requestUrl.toString().equals(url)) {
+                ranges.add(String.valueOf(headers.get("Range")));
+                if ("bytes=50000-74999".equals(headers.get("Range"))) {
+                    throw new IOException("Connection reset");
+                }
+                if ("bytes=50000-".equals(headers.get("Range"))) {
+                    repository.getTransport().interrupt(url, 10000);
+                }
+            }
+            return repository.getTransport().request(method, requestUrl, headers);
+        };
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        DownloadResult result = resolve(builder(repository, downloadPath)
+                .withTransport(transport)
+                .withSegmentedDownloads(50000, 4));
+        Assertions.assertFalse(result.isSuccess());
+        Path part = downloadPath.resolve("org/example/a/1.0/a-1.0.jar.part");
+        Assertions.assertEquals(60000, Files.size(part));
+
+        // Next attempt continues where the failed one stopped
+        ranges.clear();
+        result = resolve(builder(repository, downloadPath)
+                .withTransport(transport)
+                .withSegmentedDownloads(50000, 4));
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertArrayEquals(jar, Files.readAllBytes(result.getArtifactPath()));
+        Assertions.assertEquals(Collections.singletonList("bytes=60000-"), ranges);
+        Assertions.assertFalse(Files.exists(part));
+    }
+
+    @Test
+    public void testMetadataCache() throws Exception {
+        Dependency snapshot = Dependency.fromString("org.example:s:1.0-SNAPSHOT");
+        TestRepository repository = new TestRepository().snapshot("org.example:s:1.0-SNAPSHOT", "20200101.000000", 1);
+        List<String> metadataResponses = Collections.synchronizedList(new ArrayList<>());
+        Transport transport = (method, url, headers) -> {
+            Transport.Response response = repository.getTransport().request(method, url, headers);
+            if (url.getPath().endsWith("maven-metadata.xml")) {
+                metadataResponses.add(String.valueOf(response.getStatusCode()));
+            }
+            return response;
+        };
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        PicoMaven.Builder builder = builder(repository, downloadPath)
+                .withTransport(transport)
+                .withMetadataCache(true)
+                .withSnapshotUpdatePolicy(UpdatePolicy.ALWAYS);
+        DownloadResult result = resolve(builder, snapshot);
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertEquals(Arrays.asList("200", "200"), metadataResponses);
+
+        // Unchanged metadata is revalidated without transferring it again
+        Files.delete(result.getArtifactPath());
+        metadataResponses.clear();
+        Assertions.assertTrue(resolve(builder, snapshot).isSuccess());
+        Assertions.assertEquals(Arrays.asList("304", "304"), metadataResponses);
+
+        // New snapshot is picked up
+        repository.snapshot("org.example:s:1.0-SNAPSHOT", "20200102.000000", 2);
+        Files.delete(result.getArtifactPath());
+        metadataResponses.clear();
+        result = resolve(builder, snapshot);
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertEquals(Arrays.asList("304", "200"), metadataResponses);
+        Assertions.assertEquals("jar of org.example:s:1.0-SNAPSHOT build 2", new String(Files.readAllBytes(result.getArtifactPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSnapshotUpdatePolicy() throws Exception {
+        Dependency snapshot = Dependency.fromString("org.example:s:1.0-SNAPSHOT");
+        TestRepository repository = new TestRepository().snapshot("org.example:s:1.0-SNAPSHOT", "20200101.000000", 1);
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        DownloadResult result = resolve(builder(repository, downloadPath), snapshot);
+        Assertions.assertTrue(result.isSuccess());
+        String build1 = "jar of org.example:s:1.0-SNAPSHOT build 1";
+
+        // Resolved snapshot is used as-is
+        repository.snapshot("org.example:s:1.0-SNAPSHOT", "20200102.000000", 2);
+        repository.getTransport().clearRequests();
+        Assertions.assertTrue(resolve(builder(repository, downloadPath), snapshot).isSuccess());
+        Assertions.assertEquals(Collections.emptyList(), repository.getTransport().getRequests());
+
+        // Missing snapshot is downloaded straight from where it was resolved from
+        Files.delete(result.getArtifactPath());
+        Assertions.assertTrue(resolve(builder(repository, downloadPath), snapshot).isSuccess());
+        Assertions.assertFalse(repository.getTransport().getRequests().stream().anyMatch(r -> r.endsWith("maven-metadata.xml")));
+        Assertions.assertEquals(build1, new String(Files.readAllBytes(result.getArtifactPath()), StandardCharsets.UTF_8));
+
+        // Repository specific policy wins
+        repository.getTransport().clearRequests();
+        Assertions.assertTrue(resolve(builder(repository, downloadPath)
+                .withSnapshotUpdatePolicy(UpdatePolicy.ALWAYS)
+                .withSnapshotUpdatePolicy(TestRepository.REPOSITORY, UpdatePolicy.interval(1, TimeUnit.HOURS)), snapshot).isSuccess());
+        Assertions.assertEquals(Collections.emptyList(), repository.getTransport().getRequests());
+
+        // Trailing slash does not make it another repository
+        Assertions.assertTrue(resolve(builder(repository, downloadPath)
+                .withSnapshotUpdatePolicy(UpdatePolicy.ALWAYS)
+                .withSnapshotUpdatePolicy(URI.create(TestRepository.REPOSITORY + "/"), UpdatePolicy.interval(1, TimeUnit.HOURS)), snapshot).isSuccess());
+        Assertions.assertEquals(Collections.emptyList(), repository.getTransport().getRequests());
+
+        // Update check picks up new snapshot
+        Assertions.assertTrue(resolve(builder(repository, downloadPath).withSnapshotUpdatePolicy(UpdatePolicy.ALWAYS), snapshot).isSuccess());
+        Assertions.assertEquals("jar of org.example:s:1.0-SNAPSHOT build 2", new String(Files.readAllBytes(result.getArtifactPath()), StandardCharsets.UTF_8));
+
+        // Unchanged snapshot is not downloaded again
+        repository.getTransport().clearRequests();
+        Assertions.assertTrue(resolve(builder(repository, downloadPath).withSnapshotUpdatePolicy(UpdatePolicy.ALWAYS), snapshot).isSuccess());
+        Assertions.assertTrue(repository.getTransport().getRequests().stream().anyMatch(r -> r.endsWith("maven-metadata.xml")));
+        Assertions.assertFalse(repository.getTransport().getRequests().stream().anyMatch(r -> r.endsWith(".jar")));
+    }
+
+    @Test
+    public void testEffectiveModel() throws Exception {
+        String parent = "<project>\n" +
+                "  <modelVersion>4.0.0</modelVersion>\n" +
+                "  <groupId>org.example</groupId>\n" +
+                "  <artifactId>parent</artifactId>\n" +
+                "  <version>1.0</version>\n" +
+                "  <packaging>pom</packaging>\n" +
+                "  <properties><lib.version>2.0</lib.version></properties>\n" +
+                "  <dependencyManagement><dependencies>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>managed</artifactId><version>${lib.version}</version></dependency>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>bom</artifactId><version>${project.version}</version><type>pom</type><scope>import</scope></dependency>\n" +
+                "  </dependencies></dependencyManagement>\n" +
+                "</project>\n";
+        String bom = "<project>\n" +
+                "  <modelVersion>4.0.0</modelVersion>\n" +
+                "  <groupId>org.example</groupId>\n" +
+                "  <artifactId>bom</artifactId>\n" +
+                "  <version>1.0</version>\n" +
+                "  <packaging>pom</packaging>\n" +
+                "  <dependencyManagement><dependencies>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>imported</artifactId><version>3.0</version></dependency>\n" +
+                "  </dependencies></dependencyManagement>\n" +
+                "</project>\n";
+        TestRepository repository = new TestRepository()
+                .artifactWithPom("org.example:parent:1.0", parent)
+                .artifactWithPom("org.example:bom:1.0", bom)
+                .artifact("org.example:a:1.0", "org.example:x:1.0", "org.example:y:1.0")
+                .artifact("org.example:managed:2.0")
+                .artifact("org.example:imported:3.0")
+                .artifact("org.example:prop:2.0");
+        for (String child : Arrays.asList("x", "y")) {
+            repository.artifactWithPom("org.example:" + child + ":1.0", "<project>\n" +
+                    "  <modelVersion>4.0.0</modelVersion>\n" +
+                    "  <parent><groupId>org.example</groupId><artifactId>parent</artifactId><version>1.0</version></parent>\n" +
+                    "  <artifactId>" + child + "</artifactId>\n" +
+                    "  <dependencies>\n" +
+                    "    <dependency><groupId>${project.groupId}</groupId><artifactId>managed</artifactId></dependency>\n" +
+                    "    <dependency><groupId>org.example</groupId><artifactId>imported</artifactId></dependency>\n" +
+                    "    <dependency><groupId>org.example</groupId><artifactId>prop</artifactId><version>${lib.version}</version></dependency>\n" +
+                    "  </dependencies>\n" +
+                    "</project>\n");
+        }
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        DownloadResult result = resolve(builder(repository, downloadPath));
+        Assertions.assertTrue(result.isSuccess());
+        for (String artifact : Arrays.asList("org.example:managed:2.0", "org.example:imported:3.0", "org.example:prop:2.0")) {
+            Path path = UrlUtils.formatLocalPath(downloadPath, Dependency.fromString(artifact), "jar");
+            Assertions.assertTrue(result.getAllDownloadedFiles().contains(path), artifact);
+        }
+
+        // Shared parent and BOM are fetched only once
+        for (String pom : Arrays.asList("org.example:parent:1.0", "org.example:bom:1.0")) {
+            String url = TestRepository.url(Dependency.fromString(pom), "pom");
+            Assertions.assertEquals(1, Collections.frequency(repository.getTransport().getRequests(), "GET " + url), url);
+        }
+
+        // Stored POM is the effective model
+        Model stored = DataProcessor.getPom(UrlUtils.formatLocalPath(downloadPath, Dependency.fromString("org.example:x:1.0"), "pom"));
+        Assertions.assertNotNull(stored);
+        Assertions.assertEquals("org.example", stored.getGroupId());
+        for (org.apache.maven.model.Dependency dependency : stored.getDependencies()) {
+            Assertions.assertEquals("org.example", dependency.getGroupId());
+            Assertions.assertNotNull(dependency.getVersion());
+            Assertions.assertFalse(dependency.getVersion().contains("${"), dependency.getVersion());
+        }
+    }
+
+    @Test
+    public void testSnapshotParent() throws Exception {
+        String parent = "<project>\n" +
+                "  <modelVersion>4.0.0</modelVersion>\n" +
+                "  <groupId>org.example</groupId>\n" +
+                "  <artifactId>parent</artifactId>\n" +
+                "  <version>1.0-SNAPSHOT</version>\n" +
+                "  <packaging>pom</packaging>\n" +
+                "  <properties><lib.version>2.0</lib.version></properties>\n" +
+                "  <dependencyManagement><dependencies>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>bom</artifactId><version>1.0-SNAPSHOT</version><type>pom</type><scope>import</scope></dependency>\n" +
+                "  </dependencies></dependencyManagement>\n" +
+                "</project>\n";
+        String bom = "<project>\n" +
+                "  <modelVersion>4.0.0</modelVersion>\n" +
+                "  <groupId>org.example</groupId>\n" +
+                "  <artifactId>bom</artifactId>\n" +
+                "  <version>1.0-SNAPSHOT</version>\n" +
+                "  <packaging>pom</packaging>\n" +
+                "  <dependencyManagement><dependencies>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>imported</artifactId><version>3.0</version></dependency>\n" +
+                "  </dependencies></dependencyManagement>\n" +
+                "</project>\n";
+        // Only timestamped POMs exist, like in remote snapshot repositories
+        TestRepository repository = new TestRepository()
+                .snapshotWithPom("org.example:parent:1.0-SNAPSHOT", "20200101.000000", 3, parent)
+                .snapshotWithPom("org.example:bom:1.0-SNAPSHOT", "20200102.000000", 5, bom)
+                .artifactWithPom("org.example:a:1.0", "<project>\n" +
+                        "  <modelVersion>4.0.0</modelVersion>\n" +
+                        "  <parent><groupId>org.example</groupId><artifactId>parent</artifactId><version>1.0-SNAPSHOT</version></parent>\n" +
+                        "  <artifactId>a</artifactId>\n" +
+                        "  <version>1.0</version>\n" +
+                        "  <dependencies>\n" +
+                        "    <dependency><groupId>org.example</groupId><artifactId>imported</artifactId></dependency>\n" +
+                        "    <dependency><groupId>org.example</groupId><artifactId>prop</artifactId><version>${lib.version}</version></dependency>\n" +
+                        "  </dependencies>\n" +
+                        "</project>\n")
+                .artifact("org.example:imported:3.0")
+                .artifact("org.example:prop:2.0");
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        DownloadResult result = resolve(builder(repository, downloadPath));
+        Assertions.assertTrue(result.isSuccess());
+        for (String artifact : Arrays.asList("org.example:imported:3.0", "org.example:prop:2.0")) {
+            Path path = UrlUtils.formatLocalPath(downloadPath, Dependency.fromString(artifact), "jar");
+            Assertions.assertTrue(result.getAllDownloadedFiles().contains(path), artifact);
+        }
+    }
+
+    @Test
+    public void testSnapshotParentUpdate() throws Exception {
+        String parent = "<project>\n" +
+                "  <modelVersion>4.0.0</modelVersion>\n" +
+                "  <groupId>org.example</groupId>\n" +
+                "  <artifactId>parent</artifactId>\n" +
+                "  <version>1.0-SNAPSHOT</version>\n" +
+                "  <packaging>pom</packaging>\n" +
+                "  <properties><lib.version>%s</lib.version></properties>\n" +
+                "</project>\n";
+        TestRepository repository = new TestRepository()
+                .snapshotWithPom("org.example:parent:1.0-SNAPSHOT", "20200101.000000", 1, String.format(parent, "1.0"))
+                .artifact("org.example:lib:1.0")
+                .artifact("org.example:lib:2.0");
+        for (String child : Arrays.asList("a", "b", "c")) {
+            repository.artifactWithPom("org.example:" + child + ":1.0", "<project>\n" +
+                    "  <modelVersion>4.0.0</modelVersion>\n" +
+                    "  <parent><groupId>org.example</groupId><artifactId>parent</artifactId><version>1.0-SNAPSHOT</version></parent>\n" +
+                    "  <artifactId>" + child + "</artifactId>\n" +
+                    "  <dependencies>\n" +
+                    "    <dependency><groupId>org.example</groupId><artifactId>lib</artifactId><version>${lib.version}</version></dependency>\n" +
+                    "  </dependencies>\n" +
+                    "</project>\n");
+        }
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        Path lib1 = UrlUtils.formatLocalPath(downloadPath, Dependency.fromString("org.example:lib:1.0"), "jar");
+        Path lib2 = UrlUtils.formatLocalPath(downloadPath, Dependency.fromString("org.example:lib:2.0"), "jar");
+        DownloadResult result = resolve(builder(repository, downloadPath), Dependency.fromString("org.example:a:1.0"));
+        Assertions.assertTrue(result.getAllDownloadedFiles().contains(lib1));
+        repository.snapshotWithPom("org.example:parent:1.0-SNAPSHOT", "20200102.000000", 2, String.format(parent, "2.0"));
+
+        // Cached parent is used until update policy says otherwise
+        result = resolve(builder(repository, downloadPath), Dependency.fromString("org.example:b:1.0"));
+        Assertions.assertTrue(result.getAllDownloadedFiles().contains(lib1));
+        result = resolve(builder(repository, downloadPath).withSnapshotUpdatePolicy(UpdatePolicy.ALWAYS),
+                Dependency.fromString("org.example:c:1.0"));
+        Assertions.assertTrue(result.getAllDownloadedFiles().contains(lib2));
+    }
+
+    @Test
+    public void testCyclicBoms() throws Exception {
+        // x and y import each other, a imports x and b imports y
+        String bom = "<project>\n" +
+                "  <modelVersion>4.0.0</modelVersion>\n" +
+                "  <groupId>org.example</groupId>\n" +
+                "  <artifactId>%s</artifactId>\n" +
+                "  <version>1.0</version>\n" +
+                "  <packaging>pom</packaging>\n" +
+                "  <dependencyManagement><dependencies>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>%s</artifactId><version>1.0</version><type>pom</type><scope>import</scope></dependency>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>%s</artifactId><version>1.0</version></dependency>\n" +
+                "  </dependencies></dependencyManagement>\n" +
+                "</project>\n";
+        String child = "<project>\n" +
+                "  <modelVersion>4.0.0</modelVersion>\n" +
+                "  <groupId>org.example</groupId>\n" +
+                "  <artifactId>%s</artifactId>\n" +
+                "  <version>1.0</version>\n" +
+                "  <dependencyManagement><dependencies>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>%s</artifactId><version>1.0</version><type>pom</type><scope>import</scope></dependency>\n" +
+                "  </dependencies></dependencyManagement>\n" +
+                "  <dependencies>\n" +
+                "    <dependency><groupId>org.example</groupId><artifactId>%s</artifactId></dependency>\n" +
+                "  </dependencies>\n" +
+                "</project>\n";
+        TestRepository repository = new TestRepository()
+                .artifactWithPom("org.example:x:1.0", String.format(bom, "x", "y", "lib-x"))
+                .artifactWithPom("org.example:y:1.0", String.format(bom, "y", "x", "lib-y"))
+                .artifactWithPom("org.example:a:1.0", String.format(child, "a", "x", "lib-x"))
+                .artifactWithPom("org.example:b:1.0", String.format(child, "b", "y", "lib-y"))
+                .artifact("org.example:lib-x:1.0")
+                .artifact("org.example:lib-y:1.0");
+
+        // Both BOMs are being resolved before either one gets to its import
+        CountDownLatch bomsRequested = new CountDownLatch(2);
+        Transport transport = (method, url, headers) -> {
+            if (url.getPath().endsWith("/x-1.0.pom") || url.getPath().endsWith("/y-1.0.pom")) {
+                bomsRequested.countDown();
+                try {
+                    bomsRequested.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            return repository.getTransport().request(method, url, headers);
+        };
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        Dependency a = Dependency.fromString("org.example:a:1.0");
+        Dependency b = Dependency.fromString("org.example:b:1.0");
+        try (PicoMaven picoMaven = builder(repository, downloadPath)
+                .withTransport(transport)
+                .withDependencies(Arrays.asList(a, b))
+                .build()) {
+            Map<Dependency, CompletableFuture<DownloadResult>> downloads = picoMaven.downloadAllArtifacts();
+            for (Dependency root : Arrays.asList(a, b)) {
+                DownloadResult result = downloads.get(root).get(30, TimeUnit.SECONDS);
+                Assertions.assertTrue(result.isSuccess(), root::toString);
+                Path lib = UrlUtils.formatLocalPath(downloadPath,
+                        Dependency.fromString("org.example:lib-" + (root == a ? "x" : "y") + ":1.0"), "jar");
+                Assertions.assertTrue(result.getAllDownloadedFiles().contains(lib), root::toString);
+            }
+        }
+    }
+
+    @Test
+    public void testNearestWins() throws Exception {
+        // a -> b -> lib:2.0; a -> c -> x -> y -> lib:1.0; a -> c -> lib2:1.0; a -> lib2:1.1
+        TestRepository repository = new TestRepository()
+                .artifact("org.example:a:1.0", "org.example:b:1.0", "org.example:c:1.0", "org.example:lib2:1.1")
+                .artifact("org.example:b:1.0", "org.example:lib:2.0")
+                .artifact("org.example:c:1.0", "org.example:x:1.0", "org.example:lib2:1.0")
+                .artifact("org.example:x:1.0", "org.example:y:1.0")
+                .artifact("org.example:y:1.0", "org.example:lib:1.0")
+                .artifact("org.example:lib:1.0")
+                .artifact("org.example:lib:2.0")
+                .artifact("org.example:lib2:1.0")
+                .artifact("org.example:lib2:1.1");
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        List<Path> classpath;
+        DownloadResult result;
+        try (PicoMaven picoMaven = builder(repository, downloadPath).withMaxRequestsPerHost(1).build()) {
+            result = picoMaven.downloadAllArtifacts().get(ROOT).get();
+            classpath = picoMaven.getClasspath();
+        }
+        Assertions.assertTrue(result.isSuccess());
+
+        List<String> expected = Arrays.asList("a:1.0", "b:1.0", "c:1.0", "lib2:1.1", "lib:2.0", "x:1.0", "y:1.0");
+        Assertions.assertEquals(expected.stream()
+                .map(artifact -> UrlUtils.formatLocalPath(downloadPath, Dependency.fromString("org.example:" + artifact), "jar"))
+                .collect(Collectors.toList()), classpath);
+        Assertions.assertEquals(classpath, result.getAllDownloadedFiles());
+
+        // Versions losing to declared dependencies are known to lose right away, so they are not downloaded
+        Dependency declared = Dependency.fromString("org.example:lib2:1.1");
+        repository.getTransport().clearRequests();
+        try (PicoMaven picoMaven = builder(repository, Files.createTempDirectory("picomaven"))
+                .withDependencies(Arrays.asList(ROOT, declared)).build()) {
+            Assertions.assertTrue(picoMaven.downloadAllArtifacts().get(ROOT).get().isSuccess());
+        }
+        String url = TestRepository.url(Dependency.fromString("org.example:lib2:1.0"), "jar");
+        Assertions.assertFalse(repository.getTransport().getRequests().contains("GET " + url), url);
+    }
+
+    @Test
+    public void testNearestWinsThroughSlowerPath() throws Exception {
+        // a -> p -> q -> r -> x -> lib:1.0; a -> s -> x; a -> m -> n -> o -> lib:2.0
+        TestRepository repository = new TestRepository()
+                .artifact("org.example:a:1.0", "org.example:p:1.0", "org.example:s:1.0", "org.example:m:1.0")
+                .artifact("org.example:p:1.0", "org.example:q:1.0")
+                .artifact("org.example:q:1.0", "org.example:r:1.0")
+                .artifact("org.example:r:1.0", "org.example:x:1.0")
+                .artifact("org.example:s:1.0", "org.example:x:1.0")
+                .artifact("org.example:x:1.0", "org.example:lib:1.0")
+                .artifact("org.example:m:1.0", "org.example:n:1.0")
+                .artifact("org.example:n:1.0", "org.example:o:1.0")
+                .artifact("org.example:o:1.0", "org.example:lib:2.0")
+                .artifact("org.example:lib:1.0")
+                .artifact("org.example:lib:2.0");
+
+        // x is first reached through the longer path, and lib:2.0 is seen before x's dependencies
+        CountDownLatch xRequested = new CountDownLatch(1);
+        CountDownLatch lib2Requested = new CountDownLatch(1);
+        Transport transport = (method, url, headers) -> {
+            try {
+                if (url.getPath().endsWith("/s-1.0.pom")) {
+                    xRequested.await(5, TimeUnit.SECONDS);
+                } else if (url.getPath().endsWith("/x-1.0.pom")) {
+                    xRequested.countDown();
+                    lib2Requested.await(5, TimeUnit.SECONDS);
+                } else if (url.getPath().endsWith("/lib-2.0.pom")) {
+                    lib2Requested.countDown();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return repository.getTransport().request(method, url, headers);
+        };
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        List<Path> classpath;
+        try (PicoMaven picoMaven = builder(repository, downloadPath).withTransport(transport).build()) {
+            Assertions.assertTrue(picoMaven.downloadAllArtifacts().get(ROOT).get(30, TimeUnit.SECONDS).isSuccess());
+            classpath = picoMaven.getClasspath();
+        }
+
+        // lib:1.0 is nearer through s
+        Path lib1 = UrlUtils.formatLocalPath(downloadPath, Dependency.fromString("org.example:lib:1.0"), "jar");
+        Path lib2 = UrlUtils.formatLocalPath(downloadPath, Dependency.fromString("org.example:lib:2.0"), "jar");
+        Assertions.assertTrue(classpath.contains(lib1), classpath::toString);
+        Assertions.assertFalse(classpath.contains(lib2), classpath::toString);
+    }
+
+    @Test
+    public void testConfiguredMediator() throws Exception {
+        // a -> b -> lib:1.0; a -> x -> y -> lib:2.0
+        TestRepository repository = new TestRepository()
+                .artifact("org.example:a:1.0", "org.example:b:1.0", "org.example:x:1.0")
+                .artifact("org.example:b:1.0", "org.example:lib:1.0")
+                .artifact("org.example:lib:1.0")
+                .artifact("org.example:x:1.0", "org.example:y:1.0")
+                .artifact("org.example:y:1.0", "org.example:lib:2.0")
+                .artifact("org.example:lib:2.0");
+        VersionMediator highestWins = (current, candidate) ->
+                candidate.getDependency().getVersion().compareTo(current.getDependency().getVersion()) > 0 ? candidate : current;
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        List<Path> classpath;
+        DownloadResult result;
+        try (PicoMaven picoMaven = builder(repository, downloadPath).withVersionMediator(highestWins).build()) {
+            result = picoMaven.downloadAllArtifacts().get(ROOT).get();
+            classpath = picoMaven.getClasspath();
+        }
+        Assertions.assertTrue(result.isSuccess());
+
+        // Results pick versions the same way as the classpath does
+        Path lib = UrlUtils.formatLocalPath(downloadPath, Dependency.fromString("org.example:lib:2.0"), "jar");
+        Assertions.assertTrue(classpath.contains(lib));
+        Assertions.assertEquals(classpath, result.getAllDownloadedFiles());
+    }
+
+    @Test
+    public void testTwoPhaseMediation() throws Exception {
+        // a -> b -> lib:1.0 -> z; a -> x -> y -> lib:2.0. Highest version wins, so the version seen first loses
+        TestRepository repository = new TestRepository()
+                .artifact("org.example:a:1.0", "org.example:b:1.0", "org.example:x:1.0")
+                .artifact("org.example:b:1.0", "org.example:lib:1.0")
+                .artifact("org.example:lib:1.0", "org.example:z:1.0")
+                .artifact("org.example:z:1.0")
+                .artifact("org.example:x:1.0", "org.example:y:1.0")
+                .artifact("org.example:y:1.0", "org.example:lib:2.0")
+                .artifact("org.example:lib:2.0");
+        VersionMediator highestWins = (current, candidate) ->
+                candidate.getDependency().getVersion().compareTo(current.getDependency().getVersion()) > 0 ? candidate : current;
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        List<Path> classpath;
+        DownloadResult result;
+        try (PicoMaven picoMaven = builder(repository, downloadPath).withMaxRequestsPerHost(1)
+                .withVersionMediator(highestWins).withTwoPhaseDownloads(true).build()) {
+            result = picoMaven.downloadAllArtifacts().get(ROOT).get();
+            classpath = picoMaven.getClasspath();
+        }
+        Assertions.assertTrue(result.isSuccess());
+
+        List<String> expected = Arrays.asList("a:1.0", "b:1.0", "x:1.0", "y:1.0", "lib:2.0");
+        Assertions.assertEquals(expected.stream()
+                .map(artifact -> UrlUtils.formatLocalPath(downloadPath, Dependency.fromString("org.example:" + artifact), "jar"))
+                .collect(Collectors.toList()), classpath);
+        Assertions.assertEquals(classpath, result.getAllDownloadedFiles());
+
+        // Losing version and dependencies only it brings in are not downloaded
+        for (String artifact : Arrays.asList("lib:1.0", "z:1.0")) {
+            String url = TestRepository.url(Dependency.fromString("org.example:" + artifact), "jar");
+            Assertions.assertFalse(repository.getTransport().getRequests().contains("GET " + url), url);
+        }
+    }
+
+    @Test
+    public void testResolvedGraph() throws Exception {
+        TestRepository repository = diamond();
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        ResolvedGraph graph;
+        try (PicoMaven picoMaven = builder(repository, downloadPath).build()) {
+            picoMaven.downloadAllArtifacts();
+            graph = picoMaven.getResolvedGraph();
+        }
+
+        // d -> b cycle is not waited for, so there are four nodes and four edges
+        Assertions.assertEquals(4, graph.size());
+        Assertions.assertEquals(1, graph.getRootCount());
+        int a = graph.getRoot(0);
+        Assertions.assertEquals(ROOT, graph.getDependency(a));
+        Assertions.assertEquals(2, graph.getDependencyCount(a));
+        Assertions.assertEquals(-1, graph.indexOf(Dependency.fromString("org.example:e:1.0")));
+
+        // Every node comes after its dependencies, unless they form a cycle
+        int[] position = new int[graph.size()];
+        for (int i = 0; i < graph.size(); i++) {
+            position[graph.getTopologicalNode(i)] = i;
+        }
+        int edges = 0;
+        for (int node = 0; node < graph.size(); node++) {
+            for (int i = 0; i < graph.getDependencyCount(node); i++, edges++) {
+                int dependency = graph.getDependency(node, i);
+                Assertions.assertTrue(position[dependency] < position[node] || graph.getDependencyCount(dependency) > 0);
+            }
+        }
+        Assertions.assertEquals(4, edges);
+        Assertions.assertEquals(a, graph.getTopologicalNode(graph.size() - 1));
+
+        Assertions.assertEquals(4, graph.getClasspathSize());
+        Assertions.assertEquals(a, graph.getClasspathNode(0));
+        Assertions.assertEquals(graph.getResult(a).getAllDownloadedFiles(), graph.getClasspath());
+    }
+
+    @Test
+    public void testPlannedDownloadFailure() throws Exception {
+        TestRepository repository = diamond();
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        PicoMaven picoMaven = builder(repository, downloadPath).withExecutorService(executorService).build();
+        DownloadPlan plan = picoMaven.plan();
+
+        // Downloads which fail to start are reported as failures instead of results missing an artifact
+        executorService.shutdown();
+        CompletableFuture<DownloadResult> future = picoMaven.downloadAllArtifacts(plan).get(ROOT);
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> future.get(30, TimeUnit.SECONDS));
+        Assertions.assertTrue(e.getCause() instanceof RejectedExecutionException, e.getCause()::toString);
+        Assertions.assertThrows(RejectedExecutionException.class, picoMaven::close);
+    }
+
+    @Test
+    public void testTwoPhaseDownloads() throws Exception {
+        // Deepest artifact is the largest one
+        TestRepository repository = diamond();
+        Map<String, Integer> sizes = new HashMap<>();
+        sizes.put("org.example:a:1.0", 10);
+        sizes.put("org.example:b:1.0", 1000);
+        sizes.put("org.example:c:1.0", 100);
+        sizes.put("org.example:d:1.0", 10000);
+        for (Map.Entry<String, Integer> entry : sizes.entrySet()) {
+            byte[] jar = new byte[entry.getValue()];
+            new Random(jar.length).nextBytes(jar);
+            String url = TestRepository.url(Dependency.fromString(entry.getKey()), "jar");
+            repository.getTransport().put(url, jar)
+                    .put(url + ".sha1", TestRepository.hex("SHA1", jar))
+                    .put(url + ".md5", TestRepository.hex("MD5", jar));
+        }
+
+        Path downloadPath = Files.createTempDirectory("picomaven");
+        List<String> largestFirst = Arrays.asList("d", "b", "c", "a");
+        try (PicoMaven picoMaven = builder(repository, downloadPath).withMaxRequestsPerHost(1).build()) {
+            DownloadPlan plan = picoMaven.plan();
+            Assertions.assertFalse(repository.getTransport().getRequests().stream().anyMatch(r -> r.startsWith("GET ") && r.endsWith(".jar")));
+            Assertions.assertEquals(largestFirst, plan.getArtifacts().stream()
+                    .map(artifact -> artifact.getDependency().getArtifactId())
+                    .collect(Collectors.toList()));
+            Assertions.assertEquals(11110, plan.getTotalSize());
+            Assertions.assertEquals(4, plan.getResolvedGraph().size());
+
+            // Artifacts are fetched in planned order
+            repository.getTransport().clearRequests();
+            DownloadResult result = picoMaven.downloadAllArtifacts(plan).get(ROOT).get();
+            Assertions.assertTrue(result.isSuccess());
+            Assertions.assertEquals(2, result.getTransitiveDependencies().size());
+            Assertions.assertEquals(4, new HashSet<>(result.getAllDownloadedFiles()).size());
+            Assertions.assertEquals(largestFirst, repository.getTransport().getRequests().stream()
+                    .filter(r -> r.startsWith("GET ") && r.endsWith(".jar"))
+                    .map(r -> r.substring(r.lastIndexOf('/') + 1, r.indexOf('-', r.lastIndexOf('/'))))
+                    .collect(Collectors.toList()));
+            for (Path file : result.getAllDownloadedFiles()) {
+                Assertions.assertTrue(Files.exists(file), file::toString);
+            }
+        }
+
+        // Same from builder option, already downloaded artifacts are not planned again
+        Path otherPath = Files.createTempDirectory("picomaven");
+        DownloadResult result = resolve(builder(repository, otherPath).withTwoPhaseDownloads(true));
+        Assertions.assertTrue(result.isSuccess());
+        Assertions.assertEquals(4, new HashSet<>(result.getAllDownloadedFiles()).size());
+        try (PicoMaven picoMaven = builder(repository, otherPath).build()) {
+            Assertions.assertTrue(picoMaven.plan().getArtifacts().isEmpty());
+        }
+    }
+
+    @Test
+    public void testRepositoryRouting() throws Exception {
+        TestRepository repository = diamond();
+        List<URI> repositories = Arrays.asList(EMPTY_REPOSITORY, TestRepository.REPOSITORY);
+        List<PicoMaven.Builder> builders = Arrays.asList(
+                builder(repository, Files.createTempDirectory("picomaven")).withRepositories(repositories)
+                        .withExclusiveRepository(TestRepository.REPOSITORY, "org.example"),
+                builder(repository, Files.createTempDirectory("picomaven")).withRepositories(repositories)
+                        .withRepositoryExcludes(EMPTY_REPOSITORY, "org.example.*"),
+                builder(repository, Files.createTempDirectory("picomaven")).withRepositories(repositories)
+                        .withRepositoryIncludes(EMPTY_REPOSITORY, "com.example"),
+                builder(repository, Files.createTempDirectory("picomaven")).withRepositories(repositories)
+                        .withRepositoryExcludes(URI.create(EMPTY_REPOSITORY + "/"), "org.example"));
+        for (PicoMaven.Builder builder : builders) {
+            repository.getTransport().clearRequests();
+            DownloadResult result = resolve(builder);
+            Assertions.assertTrue(result.isSuccess());
+            Assertions.assertEquals(4, new HashSet<>(result.getAllDownloadedFiles()).size());
+            Assertions.assertFalse(repository.getTransport().getRequests().stream().anyMatch(r -> r.contains(EMPTY_REPOSITORY.getHost())));
+        }
+
+        // Most specific group wins, and groups match by whole segments
+        URL empty = EMPTY_REPOSITORY.toURL();
+        URL test = TestRepository.REPOSITORY.toURL();
+        RepositoryRoutes routes = RepositoryRoutes.of(Arrays.asList(
+                new RepositoryRoutes.Rule(RepositoryRoutes.Kind.INCLUDE, test, "org"),
+                new RepositoryRoutes.Rule(RepositoryRoutes.Kind.EXCLUDE, test, "org.example"),
+                new RepositoryRoutes.Rule(RepositoryRoutes.Kind.EXCLUSIVE, empty, "com.example")));
+        List<URL> both = Arrays.asList(empty, test);
+        Assertions.assertEquals(both, routes.route("org.apache", both));
+        Assertions.assertEquals(Collections.singletonList(empty), routes.route("org.example.foo", both));
+        Assertions.assertEquals(both, routes.route("org.examples", both));
+        Assertions.assertEquals(Collections.singletonList(empty), routes.route("net.example", both));
+        Assertions.assertEquals(Collections.singletonList(empty), routes.route("com.example", both));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new PicoMaven.Builder().withRepositoryIncludes(EMPTY_REPOSITORY, "org..example"));
+    }
+}
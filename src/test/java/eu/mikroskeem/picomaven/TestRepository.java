@@ -0,0 +1,140 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import eu.mikroskeem.picomaven.artifact.Dependency;
+import eu.mikroskeem.picomaven.transport.InMemoryTransport;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+
+/**
+ * Builds an in-memory Maven repository for offline tests
+ *
+ * @author Mark Vainomaa
+ */
+public final class TestRepository {
+    public static final URI REPOSITORY = URI.create("https://repo.example.org/maven2");
+
+    private final InMemoryTransport transport = new InMemoryTransport();
+
+    public InMemoryTransport getTransport() {
+        return transport;
+    }
+
+    public TestRepository artifact(String coordinate, String... dependencies) throws Exception {
+        Dependency dependency = Dependency.fromString(coordinate);
+        byte[] jar = ("jar of " + coordinate).getBytes(StandardCharsets.UTF_8);
+        transport.put(url(dependency, "pom"), pom(dependency, dependencies));
+        transport.put(url(dependency, "jar"), jar);
+        transport.put(url(dependency, "jar") + ".sha1", hex("SHA1", jar));
+        transport.put(url(dependency, "jar") + ".md5", hex("MD5", jar));
+        return this;
+    }
+
+    /**
+     * Publishes an artifact with given POM contents, or only the POM if it's a parent or a BOM
+     */
+    public TestRepository artifactWithPom(String coordinate, String pom) throws Exception {
+        Dependency dependency = Dependency.fromString(coordinate);
+        transport.put(url(dependency, "pom"), pom);
+        if (!pom.contains("<packaging>pom</packaging>")) {
+            byte[] jar = ("jar of " + coordinate).getBytes(StandardCharsets.UTF_8);
+            transport.put(url(dependency, "jar"), jar);
+            transport.put(url(dependency, "jar") + ".sha1", hex("SHA1", jar));
+        }
+        return this;
+    }
+
+    public TestRepository snapshot(String coordinate, String timestamp, int buildNumber, String... dependencies) throws Exception {
+        return snapshotWithPom(coordinate, timestamp, buildNumber, pom(Dependency.fromString(coordinate), dependencies));
+    }
+
+    public TestRepository snapshotWithPom(String coordinate, String timestamp, int buildNumber, String pom) throws Exception {
+        Dependency dependency = Dependency.fromString(coordinate);
+        String directory = REPOSITORY + "/" + dependency.getGroupId().replace('.', '/') + "/" + dependency.getArtifactId();
+        String base = directory + "/" + dependency.getVersion() + "/" + dependency.getArtifactId() + "-" +
+                dependency.getVersion().replace("-SNAPSHOT", "") + "-" + timestamp + "-" + buildNumber;
+        transport.put(base + ".pom", pom);
+        if (!pom.contains("<packaging>pom</packaging>")) {
+            byte[] jar = ("jar of " + coordinate + " build " + buildNumber).getBytes(StandardCharsets.UTF_8);
+            transport.put(base + ".jar", jar);
+            transport.put(base + ".jar.sha1", hex("SHA1", jar));
+        }
+
+        String header = "<metadata>\n" +
+                "  <groupId>" + dependency.getGroupId() + "</groupId>\n" +
+                "  <artifactId>" + dependency.getArtifactId() + "</artifactId>\n";
+        putWithETag(directory + "/maven-metadata.xml", header +
+                "  <versioning><versions><version>" + dependency.getVersion() + "</version></versions></versioning>\n" +
+                "</metadata>\n");
+        putWithETag(directory + "/" + dependency.getVersion() + "/maven-metadata.xml", header +
+                "  <version>" + dependency.getVersion() + "</version>\n" +
+                "  <versioning><snapshot><timestamp>" + timestamp + "</timestamp><buildNumber>" + buildNumber +
+                "</buildNumber></snapshot></versioning>\n" +
+                "</metadata>\n");
+        return this;
+    }
+
+    private void putWithETag(String url, String body) throws Exception {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        transport.put(url, bytes, Collections.singletonMap("ETag", "\"" + hex("SHA1", bytes) + "\""));
+    }
+
+    private static String pom(Dependency dependency, String... dependencies) {
+        StringBuilder pom = new StringBuilder()
+                .append("<project>\n")
+                .append("  <modelVersion>4.0.0</modelVersion>\n")
+                .append("  <groupId>").append(dependency.getGroupId()).append("</groupId>\n")
+                .append("  <artifactId>").append(dependency.getArtifactId()).append("</artifactId>\n")
+                .append("  <version>").append(dependency.getVersion()).append("</version>\n")
+                .append("  <dependencies>\n");
+        for (String raw : dependencies) {
+            Dependency child = Dependency.fromString(raw);
+            pom.append("    <dependency>\n")
+                    .append("      <groupId>").append(child.getGroupId()).append("</groupId>\n")
+                    .append("      <artifactId>").append(child.getArtifactId()).append("</artifactId>\n")
+                    .append("      <version>").append(child.getVersion()).append("</version>\n")
+                    .append("    </dependency>\n");
+        }
+        return pom.append("  </dependencies>\n").append("</project>\n").toString();
+    }
+
+    public static String url(Dependency dependency, String ext) {
+        return REPOSITORY + "/" + dependency.getGroupId().replace('.', '/') + "/" + dependency.getArtifactId() + "/" +
+                dependency.getVersion() + "/" + dependency.getArtifactId() + "-" + dependency.getVersion() + "." + ext;
+    }
+
+    public static String hex(String algorithm, byte[] data) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance(algorithm).digest(data)) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * This file is part of project PicoMaven, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2017-2019 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.picomaven;
+
+import com.sun.net.httpserver.HttpServer;
+import eu.mikroskeem.picomaven.internal.StreamUtils;
+import eu.mikroskeem.picomaven.transport.Transport;
+import eu.mikroskeem.picomaven.transport.Transports;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * Tests {@link Transports#pooled()} against a local HTTP server. On Java 11 and newer the transport
+ * comes from multi-release JAR overlay, so the JAR has to be on the test classpath.
+ *
+ * @author Mark Vainomaa
+ */
+public class TransportTest {
+    private static final byte[] BODY = "hello".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    private Transport transport;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getResponseHeaders().add("X-User-Agent", String.valueOf(exchange.getRequestHeaders().getFirst("User-Agent")));
+            exchange.getResponseHeaders().add("X-Echo", String.valueOf(exchange.getRequestHeaders().getFirst("X-Test")));
+            if (!exchange.getRequestURI().getPath().equals("/found")) {
+                exchange.sendResponseHeaders(404, -1);
+            } else if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                exchange.sendResponseHeaders(200, BODY.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(BODY);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        transport = Transports.pooled();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        transport.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testPlatformTransport() {
+        boolean httpClient;
+        try {
+            Class.forName("java.net.http.HttpClient");
+            httpClient = true;
+        } catch (ClassNotFoundException e) {
+            httpClient = false;
+        }
+        Assertions.assertEquals(httpClient, transport != Transports.urlConnection());
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        try (Transport.Response response = transport.request("GET", url("/found"), Collections.singletonMap("X-Test", "value"))) {
+            Assertions.assertEquals(200, response.getStatusCode());
+            Assertions.assertEquals(BODY.length, response.getContentLength());
+            Assertions.assertEquals("value", response.getHeader("x-echo"));
+            Assertions.assertTrue(response.getHeader("X-User-Agent").startsWith("PicoMaven/"));
+            Assertions.assertArrayEquals(BODY, StreamUtils.readBytes(response.getBody()));
+        }
+        transport.head(url("/found")).close();
+    }
+
+    @Test
+    public void testMissing() throws Exception {
+        Assertions.assertThrows(FileNotFoundException.class, () -> transport.get(url("/missing")));
+        Assertions.assertThrows(FileNotFoundException.class, () -> transport.head(url("/missing")));
+        try (Transport.Response response = transport.request("GET", url("/missing"), Collections.emptyMap())) {
+            Assertions.assertEquals(404, response.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testConnectionRefused() throws Exception {
+        URL url = url("/found");
+        server.stop(0);
+        Assertions.assertThrows(ConnectException.class, () -> transport.get(url));
+    }
+
+    private URL url(String path) throws Exception {
+        return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+    }
+}
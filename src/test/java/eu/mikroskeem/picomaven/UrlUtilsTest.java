@@ -124,4 +124,11 @@ public class UrlUtilsTest {
         String exp = "https://repo.maven.apache.org/maven2/org/ow2/asm/asm-all/5.2/asm-all-5.2.jar";
         Assertions.assertEquals(exp, artifactUri.toString());
     }
+
+    @Test
+    public void testRepositoryKey() throws Exception {
+        String key = UrlUtils.repositoryKey(DEFAULT_REPOSITORY.toURL());
+        Assertions.assertEquals("https://repo.maven.apache.org/maven2", key);
+        Assertions.assertEquals(key, UrlUtils.repositoryKey(URI.create(DEFAULT_REPOSITORY + "/").toURL()));
+    }
 }